@@ -0,0 +1,122 @@
+package bench;
+
+import config.AppConfig;
+import dedup.DeduplicationService;
+import dedup.EmbeddedDeduplicationService;
+import dedup.RedisDeduplicationService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dedup backends holding `entries` processed IDs:
+ *
+ *   embedded - EmbeddedDeduplicationService, off-heap table in this process
+ *   redis    - RedisDeduplicationService (local tier off), one round trip per call
+ *
+ *   seenHit  - isDuplicate() of an ID that is held
+ *   seenMiss - isDuplicate() of a new ID, the common case
+ *   claimBatch - claim() + settle() of 16 new IDs, as one room batch in claim mode
+ *
+ * IDs are UUIDs made from a counter, so the held ones can be named again
+ * without keeping them on the heap. Setup fills the backend first, which
+ * takes minutes at 100M (and about 6GB off-heap, or a Redis with ~10GB).
+ * The redis backend needs a scratch Redis at -Dredis.host/-Dredis.port
+ * (default localhost:6379); its keys expire after the usual 24h.
+ *
+ * Run: java -jar benchmarks/target/benchmarks.jar DedupBackendBenchmark
+ *      java -jar benchmarks/target/benchmarks.jar DedupBackendBenchmark -p backend=embedded -p entries=1000000
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g", "-XX:MaxDirectMemorySize=8g"})
+public class DedupBackendBenchmark {
+
+    private static final long HELD = 0x5eed5eed5eed5eedL;
+    private static final long NEW = 0x0eeeeeeeeeeeeeeeL;
+    private static final int FILL_BATCH = 1000;
+    private static final int CLAIM_BATCH = 16;
+
+    @Param({"embedded", "redis"})
+    public String backend;
+
+    @Param({"1000000", "10000000", "100000000"})
+    public int entries;
+
+    private DeduplicationService dedup;
+    private long next;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        Path properties = Files.createTempFile("dedup-bench", ".properties");
+        Files.writeString(properties, String.join("\n",
+                "redis.host=" + System.getProperty("redis.host", "localhost"),
+                "redis.port=" + System.getProperty("redis.port", "6379"),
+                "dedup.embedded.capacity=" + entries,
+                ""));
+        AppConfig config = new AppConfig(properties.toString());
+        Files.delete(properties);
+
+        dedup = "embedded".equals(backend)
+                ? new EmbeddedDeduplicationService(config)
+                : new RedisDeduplicationService(config);
+
+        List<String> batch = new ArrayList<>(FILL_BATCH);
+        for (int i = 0; i < entries; i++) {
+            batch.add(new UUID(HELD, i).toString());
+            if (batch.size() == FILL_BATCH) {
+                dedup.settle(batch, Collections.emptyList());
+                batch.clear();
+            }
+        }
+        dedup.settle(batch, Collections.emptyList());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        dedup.close();
+    }
+
+    @Benchmark
+    public boolean seenHit() {
+        return dedup.isDuplicate(new UUID(HELD, ThreadLocalRandom.current().nextInt(entries)).toString(), true);
+    }
+
+    @Benchmark
+    public boolean seenMiss() {
+        return dedup.isDuplicate(new UUID(NEW, next++).toString(), true);
+    }
+
+    @Benchmark
+    public DeduplicationService.Claim[] claimBatch() {
+        List<String> ids = new ArrayList<>(CLAIM_BATCH);
+        for (int i = 0; i < CLAIM_BATCH; i++) {
+            ids.add(new UUID(NEW, next++).toString());
+        }
+        DeduplicationService.Claim[] claims = dedup.claim(ids, new boolean[CLAIM_BATCH]);
+        dedup.settle(ids, Collections.emptyList());
+        return claims;
+    }
+}
@@ -2,6 +2,8 @@
 import config.AppConfig;
 import consumer.ConsumerPool;
 import dedup.DeduplicationService;
+import dedup.EmbeddedDeduplicationService;
+import dedup.RedisDeduplicationService;
 import health.HealthCheckServer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -17,7 +19,7 @@ import java.util.List;
  *
  * Startup sequence:
  * 1. Load config
- * 2. Initialize DeduplicationService (Redis)
+ * 2. Initialize DeduplicationService (Redis, or embedded with dedup.backend=embedded)
  * 3. Initialize WebSocketBroadcaster (HTTP client pointed at Part 1)
  * 4. Wire RoomManager
  * 5. Start ConsumerPool (begins reading from RabbitMQ)
@@ -40,8 +42,10 @@ public class Main {
         AppConfig config = loadConfig(args);
         List<String> rooms = parseRooms(args);
 
-        // 2. Redis deduplication
-        DeduplicationService deduplicationService = new DeduplicationService(config);
+        // 2. Deduplication (Redis, or in-process for a single consumer instance)
+        DeduplicationService deduplicationService = "embedded".equalsIgnoreCase(config.getDedupBackend())
+                ? new EmbeddedDeduplicationService(config)
+                : new RedisDeduplicationService(config);
 
         // 3. WebSocket broadcaster (calls Part 1 via HTTP)
         WebSocketBroadcaster broadcaster = new WebSocketBroadcaster(config);
@@ -60,13 +64,15 @@ public class Main {
 
         log.info("=== Chat Consumer (Part 2) Running ===");
         log.info("  Rooms:         {}", rooms);
-        log.info("  Part 1 target: {}", config.getPart1BroadcastUrl());
+        log.info("  Part 1 target: {} ({} mode)", config.isPart1ClusterEnabled()
+                ? "nodes from Redis membership" : part1Target(config), config.getPart1BroadcastMode());
         log.info("  Health check:  http://localhost:{}/health", config.getHealthCheckPort());
 
         // 7. Shutdown hook
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             log.info("Shutdown signal received...");
             consumerPool.shutdown();
+            broadcaster.close();
             healthCheckServer.stop();
             deduplicationService.close();
             log.info("=== Chat Consumer (Part 2) Stopped ===");
@@ -86,6 +92,14 @@ public class Main {
         return new AppConfig();
     }
 
+    private static String part1Target(AppConfig config) {
+        switch (config.getPart1BroadcastMode().toLowerCase()) {
+            case "binary": return config.getPart1BroadcastBatchUrl();
+            case "link":   return config.getPart1BroadcastLinkUrl();
+            default:       return config.getPart1BroadcastUrl();
+        }
+    }
+
     private static List<String> parseRooms(String[] args) {
         List<String> rooms = new ArrayList<>();
         for (int i = 1; i <= 20; i++) {
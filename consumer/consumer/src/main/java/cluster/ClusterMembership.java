@@ -0,0 +1,198 @@
+package cluster;
+
+import config.AppConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Answers "which Part 1 nodes have members in this room?" from the keys
+ * every Part 1 node's MembershipPublisher keeps in Redis:
+ *   chatflow:node:{nodeId} → hash of broadcastUrl / batchUrl / linkUrl (expires = node is gone)
+ *   chatflow:room:{roomId} → hash nodeId → member count on that node
+ *
+ * Lookups are cached per room for cacheMs, so Redis sees one pipelined
+ * round trip per room per cacheMs instead of one per message. If Redis
+ * can't be reached, the last known answer for the room is used.
+ *
+ * A node announces a room it just got its first member for on the
+ * chatflow:membership:changes channel; a watcher thread subscribed to it
+ * drops that room from the cache, so the next broadcast looks it up again
+ * instead of missing the new node for up to cacheMs. After a lost
+ * subscription the whole cache is dropped, since changes may have been missed.
+ */
+public class ClusterMembership {
+
+    private static final Logger log = LoggerFactory.getLogger(ClusterMembership.class);
+
+    private static final String NODE_KEY_PREFIX = "chatflow:node:";
+    private static final String ROOM_KEY_PREFIX = "chatflow:room:";
+    private static final String CHANGES_CHANNEL = "chatflow:membership:changes";
+    private static final long RESUBSCRIBE_DELAY_MS = 1000;
+
+    private final JedisPool jedisPool;
+    private final long cacheNanos;
+    private final ConcurrentHashMap<String, CachedRoom> rooms = new ConcurrentHashMap<>();
+    private final Thread watcher;
+
+    private volatile JedisPubSub changes;
+    private volatile boolean running = true;
+
+    public ClusterMembership(AppConfig config) {
+        JedisPoolConfig poolConfig = new JedisPoolConfig();
+        poolConfig.setMaxTotal(8);
+        poolConfig.setMaxIdle(4);
+
+        String password = config.getRedisPassword();
+        if (password != null && !password.isEmpty()) {
+            this.jedisPool = new JedisPool(poolConfig, config.getRedisHost(),
+                    config.getRedisPort(), 2000, password);
+        } else {
+            this.jedisPool = new JedisPool(poolConfig, config.getRedisHost(),
+                    config.getRedisPort(), 2000);
+        }
+        this.cacheNanos = TimeUnit.MILLISECONDS.toNanos(config.getPart1ClusterCacheMs());
+        this.watcher = new Thread(this::watchChanges, "cluster-membership-watcher");
+        this.watcher.setDaemon(true);
+        this.watcher.start();
+        log.info("ClusterMembership ready. Redis: {}:{}, cache: {}ms",
+                config.getRedisHost(), config.getRedisPort(), config.getPart1ClusterCacheMs());
+    }
+
+    private void watchChanges() {
+        while (running) {
+            JedisPubSub subscription = new JedisPubSub() {
+                @Override
+                public void onMessage(String channel, String roomId) {
+                    rooms.remove(roomId);
+                }
+            };
+            changes = subscription;
+            try (Jedis jedis = jedisPool.getResource()) {
+                // whatever changed while nobody was listening
+                rooms.clear();
+                jedis.subscribe(subscription, CHANGES_CHANNEL);
+            } catch (Exception e) {
+                if (!running) {
+                    break;
+                }
+                log.warn("Membership change subscription lost, retrying in {}ms: {}",
+                        RESUBSCRIBE_DELAY_MS, e.getMessage());
+                try {
+                    Thread.sleep(RESUBSCRIBE_DELAY_MS);
+                } catch (InterruptedException ie) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Live nodes with at least one member in the room. Empty means nobody
+     * is in the room anywhere.
+     *
+     * @throws IllegalStateException if Redis is unreachable and the room was never looked up before
+     */
+    public List<Node> nodesFor(String roomId) {
+        CachedRoom cached = rooms.get(roomId);
+        long now = System.nanoTime();
+        if (cached != null && now - cached.fetchedAtNanos < cacheNanos) {
+            return cached.nodes;
+        }
+
+        try {
+            List<Node> nodes = fetch(roomId);
+            rooms.put(roomId, new CachedRoom(nodes, now));
+            return nodes;
+        } catch (Exception e) {
+            if (cached != null) {
+                log.warn("Redis membership lookup for room '{}' failed, using last known nodes: {}",
+                        roomId, e.getMessage());
+                return cached.nodes;
+            }
+            throw new IllegalStateException("Room membership unavailable: " + e.getMessage(), e);
+        }
+    }
+
+    private List<Node> fetch(String roomId) {
+        try (Jedis jedis = jedisPool.getResource()) {
+            Map<String, String> counts = jedis.hgetAll(ROOM_KEY_PREFIX + roomId);
+            if (counts.isEmpty()) {
+                return Collections.emptyList();
+            }
+
+            Pipeline pipeline = jedis.pipelined();
+            List<String> nodeIds = new ArrayList<>();
+            List<Response<Map<String, String>>> infos = new ArrayList<>();
+            for (Map.Entry<String, String> entry : counts.entrySet()) {
+                if (Integer.parseInt(entry.getValue()) > 0) {
+                    nodeIds.add(entry.getKey());
+                    infos.add(pipeline.hgetAll(NODE_KEY_PREFIX + entry.getKey()));
+                }
+            }
+            pipeline.sync();
+
+            List<Node> nodes = new ArrayList<>(nodeIds.size());
+            for (int i = 0; i < nodeIds.size(); i++) {
+                Map<String, String> info = infos.get(i).get();
+                // no node key: its heartbeat expired, the entry is left over from a crash
+                if (!info.isEmpty()) {
+                    nodes.add(new Node(nodeIds.get(i), info.get("broadcastUrl"),
+                            info.get("batchUrl"), info.get("linkUrl")));
+                }
+            }
+            return nodes;
+        }
+    }
+
+    public void close() {
+        running = false;
+        JedisPubSub subscription = changes;
+        if (subscription != null && subscription.isSubscribed()) {
+            subscription.unsubscribe();
+        }
+        watcher.interrupt();
+        jedisPool.close();
+    }
+
+    public static class Node {
+        private final String id;
+        private final String broadcastUrl;
+        private final String batchUrl;
+        private final String linkUrl;
+
+        public Node(String id, String broadcastUrl, String batchUrl, String linkUrl) {
+            this.id = id;
+            this.broadcastUrl = broadcastUrl;
+            this.batchUrl = batchUrl;
+            this.linkUrl = linkUrl;
+        }
+
+        public String getId() { return id; }
+        public String getBroadcastUrl() { return broadcastUrl; }
+        public String getBatchUrl() { return batchUrl; }
+        public String getLinkUrl() { return linkUrl; }
+    }
+
+    private static class CachedRoom {
+        private final List<Node> nodes;
+        private final long fetchedAtNanos;
+
+        CachedRoom(List<Node> nodes, long fetchedAtNanos) {
+            this.nodes = nodes;
+            this.fetchedAtNanos = fetchedAtNanos;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package codec;
+
+import id.TimeOrderedId;
+import model.ChatMessage;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decoding half of Part 1's binary envelope format (common codec.EnvelopeCodec),
+ * used when a delivery's contentType is CONTENT_TYPE. Keep the two in sync.
+ *
+ * Envelope, version 1:
+ *   byte    version (1)
+ *   byte    flags   (bit 0: messageId is a 16-byte TimeOrderedId, else a string)
+ *   ...     messageId: 16 bytes, or string
+ *   string  roomId
+ *   string  userId
+ *   string  username
+ *   string  message
+ *   varlong timestamp, epoch micros (0 = none)
+ *   byte    messageType (1 TEXT, 2 JOIN, 3 LEAVE, 0 none)
+ *   string  serverId
+ *   byte    clientIp kind (4: four IPv4 bytes follow, 0: string follows)
+ *
+ * string = varint (UTF-8 length + 1), then the bytes; a length of 0 is null.
+ * Varints are unsigned LEB128.
+ *
+ * Batch (AMQP type chat.envelope.batch):
+ *   byte    version (1)
+ *   varint  count
+ *   count x (varint length, envelope bytes)
+ *
+ * Throws IllegalArgumentException on anything malformed.
+ */
+public final class EnvelopeCodec {
+
+    public static final String CONTENT_TYPE = "application/vnd.chatflow.envelope";
+    public static final String BATCH_TYPE = "chat.envelope.batch";
+    public static final byte VERSION = 1;
+
+    private static final int FLAG_BINARY_ID = 1;
+    private static final int IP_STRING = 0;
+    private static final int IP_V4 = 4;
+    private static final String[] MESSAGE_TYPES = {null, "TEXT", "JOIN", "LEAVE"};
+
+    private EnvelopeCodec() {}
+
+    public static ChatMessage decode(byte[] body) {
+        return decode(new Reader(body, 0, body.length));
+    }
+
+    public static List<ChatMessage> decodeBatch(byte[] body) {
+        Reader in = new Reader(body, 0, body.length);
+        in.version();
+        int count = in.length();
+        List<ChatMessage> messages = new ArrayList<>(Math.min(count, 1024));
+        for (int i = 0; i < count; i++) {
+            int length = in.length();
+            messages.add(decode(new Reader(body, in.take(length), length)));
+        }
+        return messages;
+    }
+
+    private static ChatMessage decode(Reader in) {
+        in.version();
+        int flags = in.u8();
+        ChatMessage message = new ChatMessage();
+        if ((flags & FLAG_BINARY_ID) != 0) {
+            int at = in.take(TimeOrderedId.BINARY_LENGTH);
+            message.setMessageId(TimeOrderedId.toString(readLong(in.buf, at), readLong(in.buf, at + 8)));
+        } else {
+            message.setMessageId(in.string());
+        }
+        message.setRoomId(in.string());
+        message.setUserId(in.string());
+        message.setUsername(in.string());
+        message.setMessage(in.string());
+        long micros = in.varint();
+        message.setTimestamp(micros == 0 ? null
+                : Instant.ofEpochSecond(micros / 1_000_000, (micros % 1_000_000) * 1000).toString());
+        int typeCode = in.u8();
+        if (typeCode >= MESSAGE_TYPES.length) {
+            throw new IllegalArgumentException("Unknown messageType code " + typeCode);
+        }
+        message.setMessageType(MESSAGE_TYPES[typeCode]);
+        message.setServerId(in.string());
+        int ipKind = in.u8();
+        if (ipKind == IP_V4) {
+            int at = in.take(4);
+            message.setClientIp((in.buf[at] & 0xFF) + "." + (in.buf[at + 1] & 0xFF) + "."
+                    + (in.buf[at + 2] & 0xFF) + "." + (in.buf[at + 3] & 0xFF));
+        } else if (ipKind == IP_STRING) {
+            message.setClientIp(in.string());
+        } else {
+            throw new IllegalArgumentException("Unknown clientIp kind " + ipKind);
+        }
+        return message;
+    }
+
+    private static long readLong(byte[] buf, int at) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (buf[at + i] & 0xFF);
+        }
+        return value;
+    }
+
+    private static final class Reader {
+        private final byte[] buf;
+        private final int end;
+        private int pos;
+
+        Reader(byte[] buf, int offset, int length) {
+            this.buf = buf;
+            this.pos = offset;
+            this.end = offset + length;
+        }
+
+        void version() {
+            int version = u8();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported envelope version " + version);
+            }
+        }
+
+        int u8() {
+            return buf[take(1)] & 0xFF;
+        }
+
+        /** Advances past count bytes and returns where they start. */
+        int take(int count) {
+            if (count < 0 || count > end - pos) {
+                throw new IllegalArgumentException("Truncated envelope");
+            }
+            int at = pos;
+            pos += count;
+            return at;
+        }
+
+        long varint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = u8();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint");
+        }
+
+        int length() {
+            long value = varint();
+            if (value > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Length out of range");
+            }
+            return (int) value;
+        }
+
+        String string() {
+            int length = length();
+            if (length == 0) {
+                return null;
+            }
+            int at = take(length - 1);
+            return new String(buf, at, length - 1, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -81,6 +81,91 @@ public class AppConfig {
         return Integer.parseInt(env != null ? env : props.getProperty("redis.dedup.ttl.seconds", "86400"));
     }
 
+    /**
+     * "check" looks a message up before processing and marks it afterwards
+     * (two round trips per message). "claim" claims whole batches atomically
+     * up front and settles them afterwards (two round trips per batch).
+     */
+    public String getDedupMode() {
+        String env = System.getenv("DEDUP_MODE");
+        return env != null ? env : props.getProperty("dedup.mode", "check");
+    }
+
+    /** How long a claim stays pending before another consumer may take the message over. */
+    public long getDedupPendingTtlMs() {
+        String env = System.getenv("REDIS_DEDUP_PENDING_TTL_MS");
+        return Long.parseLong(env != null ? env : props.getProperty("redis.dedup.pending.ttl.ms", "30000"));
+    }
+
+    /**
+     * "redis" keeps dedup state in Redis, shared by every consumer instance.
+     * "embedded" keeps it in this process (EmbeddedDeduplicationService), for
+     * deployments with a single consumer instance.
+     */
+    public String getDedupBackend() {
+        String env = System.getenv("DEDUP_BACKEND");
+        return env != null ? env : props.getProperty("dedup.backend", "redis");
+    }
+
+    /**
+     * IDs the embedded backend holds within one TTL (about 54 bytes each, off-heap).
+     * Without a snapshot file they come out of direct memory, which defaults to
+     * -Xmx: raise -XX:MaxDirectMemorySize before raising this (10M IDs ≈ 540MB).
+     */
+    public long getDedupEmbeddedCapacity() {
+        String env = System.getenv("DEDUP_EMBEDDED_CAPACITY");
+        return Long.parseLong(env != null ? env : props.getProperty("dedup.embedded.capacity", "1000000"));
+    }
+
+    /** File the embedded backend maps its table from, so it survives a restart; empty = memory only. */
+    public String getDedupEmbeddedSnapshotPath() {
+        String env = System.getenv("DEDUP_EMBEDDED_SNAPSHOT_PATH");
+        return env != null ? env : props.getProperty("dedup.embedded.snapshot.path", "");
+    }
+
+    public long getDedupEmbeddedSnapshotIntervalMs() {
+        String env = System.getenv("DEDUP_EMBEDDED_SNAPSHOT_INTERVAL_MS");
+        return Long.parseLong(env != null ? env : props.getProperty("dedup.embedded.snapshot.interval.ms", "10000"));
+    }
+
+    /**
+     * In-memory tier in front of Redis: IDs this instance committed recently
+     * are answered locally. Everything else still goes to Redis.
+     */
+    public boolean isDedupLocalEnabled() {
+        String env = System.getenv("DEDUP_LOCAL_ENABLED");
+        return Boolean.parseBoolean(env != null ? env : props.getProperty("dedup.local.enabled", "false"));
+    }
+
+    /**
+     * Only one consumer instance runs, so a first delivery the local tier has
+     * never seen can skip Redis. With several instances that is unsafe: a
+     * publisher-side duplicate (a spool or confirm-timeout re-publish) is a
+     * first delivery too, and may be handled by another instance.
+     */
+    public boolean isDedupLocalSingleInstance() {
+        String env = System.getenv("DEDUP_LOCAL_SINGLE_INSTANCE");
+        return Boolean.parseBoolean(env != null ? env : props.getProperty("dedup.local.single.instance", "false"));
+    }
+
+    /** IDs the exact recent set holds (about 32 bytes each). */
+    public int getDedupLocalRecentCapacity() {
+        String env = System.getenv("DEDUP_LOCAL_RECENT_CAPACITY");
+        return Integer.parseInt(env != null ? env : props.getProperty("dedup.local.recent.capacity", "200000"));
+    }
+
+    /** How long the exact recent set remembers an ID, if it doesn't fill up first. */
+    public long getDedupLocalRecentWindowMs() {
+        String env = System.getenv("DEDUP_LOCAL_RECENT_WINDOW_MS");
+        return Long.parseLong(env != null ? env : props.getProperty("dedup.local.recent.window.ms", "600000"));
+    }
+
+    /** IDs per Bloom filter generation (two generations, about 2.5 bytes per ID each). */
+    public int getDedupLocalBloomCapacity() {
+        String env = System.getenv("DEDUP_LOCAL_BLOOM_CAPACITY");
+        return Integer.parseInt(env != null ? env : props.getProperty("dedup.local.bloom.capacity", "2000000"));
+    }
+
     // Part 1 Broadcast Callback
 
     /**
@@ -93,6 +178,60 @@ public class AppConfig {
         return env != null ? env : props.getProperty("part1.broadcast.url", "http://localhost:8081/internal/broadcast");
     }
 
+    /**
+     * "json" posts one message per request to part1.broadcast.url.
+     * "binary" coalesces messages into length-prefixed batches for part1.broadcast.batch.url.
+     * "link" pipelines frames over persistent WebSocket links to part1.broadcast.link.url.
+     */
+    public String getPart1BroadcastMode() {
+        String env = System.getenv("PART1_BROADCAST_MODE");
+        return env != null ? env : props.getProperty("part1.broadcast.mode", "json");
+    }
+
+    public String getPart1BroadcastBatchUrl() {
+        String env = System.getenv("PART1_BROADCAST_BATCH_URL");
+        return env != null ? env : props.getProperty("part1.broadcast.batch.url", "http://localhost:8081/internal/broadcast/batch");
+    }
+
+    public int getPart1BroadcastBatchMaxEntries() {
+        String env = System.getenv("PART1_BROADCAST_BATCH_MAX_ENTRIES");
+        return Integer.parseInt(env != null ? env : props.getProperty("part1.broadcast.batch.max.entries", "256"));
+    }
+
+    public long getPart1BroadcastBatchLingerMs() {
+        String env = System.getenv("PART1_BROADCAST_BATCH_LINGER_MS");
+        return Long.parseLong(env != null ? env : props.getProperty("part1.broadcast.batch.linger.ms", "2"));
+    }
+
+    public String getPart1BroadcastLinkUrl() {
+        String env = System.getenv("PART1_BROADCAST_LINK_URL");
+        return env != null ? env : props.getProperty("part1.broadcast.link.url", "ws://localhost:8083");
+    }
+
+    public int getPart1BroadcastLinkCount() {
+        String env = System.getenv("PART1_BROADCAST_LINK_COUNT");
+        return Integer.parseInt(env != null ? env : props.getProperty("part1.broadcast.link.count", "2"));
+    }
+
+    public int getPart1BroadcastLinkMaxInFlight() {
+        String env = System.getenv("PART1_BROADCAST_LINK_MAX_INFLIGHT");
+        return Integer.parseInt(env != null ? env : props.getProperty("part1.broadcast.link.max.inflight", "4096"));
+    }
+
+    /**
+     * When true, broadcasts go to every Part 1 node that has members in the
+     * room (looked up in Redis) instead of the single URL above.
+     */
+    public boolean isPart1ClusterEnabled() {
+        String env = System.getenv("PART1_CLUSTER_ENABLED");
+        return Boolean.parseBoolean(env != null ? env : props.getProperty("part1.cluster.enabled", "false"));
+    }
+
+    public long getPart1ClusterCacheMs() {
+        String env = System.getenv("PART1_CLUSTER_CACHE_MS");
+        return Long.parseLong(env != null ? env : props.getProperty("part1.cluster.cache.ms", "1000"));
+    }
+
     // Consumer Pool
 
     public int getConsumerThreadCount() {
@@ -100,6 +239,16 @@ public class AppConfig {
         return Integer.parseInt(env != null ? env : props.getProperty("consumer.thread.count", "4"));
     }
 
+    /**
+     * Unacked deliveries RabbitMQ may push to each room's consumer. 1 keeps the
+     * original one-at-a-time loop; above 1 the consumer is pipelined (rooms are
+     * processed concurrently, each in order, and acks are coalesced).
+     */
+    public int getConsumerPrefetch() {
+        String env = System.getenv("CONSUMER_PREFETCH");
+        return Integer.parseInt(env != null ? env : props.getProperty("consumer.prefetch", "1"));
+    }
+
     // Health Check
 
     public int getHealthCheckPort() {
@@ -1,6 +1,7 @@
 package consumer;
 
 import com.rabbitmq.client.*;
+import codec.EnvelopeCodec;
 import config.AppConfig;
 import dedup.DeduplicationService;
 import model.ChatMessage;
@@ -11,8 +12,18 @@ import room.RoomManager;
 import util.JsonUtil;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A single consumer thread.
@@ -20,9 +31,26 @@ import java.util.concurrent.TimeoutException;
  * For each assigned room:
  * Subscribes to the room's queue
  * On each message: deserialize → dedup → RoomManager → ack/nack
+ * A delivery may carry a JSON array of envelopes (Part 1 publish batching);
+ * single envelopes are still accepted as before. Deliveries whose contentType
+ * is EnvelopeCodec.CONTENT_TYPE are binary envelopes (or binary batches when
+ * the AMQP type says so); JSON and binary can arrive side by side.
  *
- * One thread per set of rooms guarantees in-order delivery within each room
- * (since RabbitMQ queues are FIFO and basicQos=1 means one unacked message at a time).
+ * With consumer.prefetch = 1, one thread per set of rooms guarantees in-order
+ * delivery within each room (since RabbitMQ queues are FIFO and basicQos=1
+ * means one unacked message at a time).
+ *
+ * With a higher prefetch the thread is pipelined: RabbitMQ keeps up to that
+ * many deliveries per room in flight, each room's deliveries run one after
+ * another on its own RoomLane, different rooms run concurrently on a worker
+ * per room, and DeliveryAcker settles finished deliveries with coalesced
+ * basicAck(multiple=true). Deliveries that queue up in a lane are processed
+ * as one batch: with dedup.mode=claim it shares its Redis round trips, and
+ * its messages are handed to the broadcaster together, waiting once for all.
+ * A room stays in order: processing stops at the first delivery that can't
+ * be finished (a failed broadcast, a claim held elsewhere), and it and
+ * everything after it stay on the lane and are retried after a backoff
+ * instead of being requeued behind the room's later messages.
  *
  * On RabbitMQ connection loss, retries every reconnectDelayMs until restored.
  */
@@ -36,6 +64,10 @@ public class ConsumerThread implements Runnable {
     private final RoomManager roomManager;
     private final DeduplicationService deduplicationService;
     private final ConsumerMetrics metrics;
+    private final int prefetch;
+    private final ExecutorService roomWorkers;
+    private final ScheduledExecutorService retryTimer;
+    private final boolean claimDedup;
 
     private volatile boolean running = true;
 
@@ -50,6 +82,27 @@ public class ConsumerThread implements Runnable {
         this.roomManager = roomManager;
         this.deduplicationService = deduplicationService;
         this.metrics = new ConsumerMetrics(threadId);
+        this.prefetch = Math.max(1, config.getConsumerPrefetch());
+        this.roomWorkers = prefetch > 1 ? newRoomWorkers(threadId, assignedRooms.size()) : null;
+        this.retryTimer = prefetch > 1 ? newRetryTimer(threadId) : null;
+        this.claimDedup = "claim".equalsIgnoreCase(config.getDedupMode());
+    }
+
+    private static ExecutorService newRoomWorkers(String threadId, int rooms) {
+        AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(Math.max(1, rooms), r -> {
+            Thread t = new Thread(r, threadId + "-room-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    private static ScheduledExecutorService newRetryTimer(String threadId) {
+        return Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, threadId + "-retry");
+            t.setDaemon(true);
+            return t;
+        });
     }
 
     @Override
@@ -70,6 +123,10 @@ public class ConsumerThread implements Runnable {
             }
         }
 
+        if (roomWorkers != null) {
+            roomWorkers.shutdownNow();
+            retryTimer.shutdownNow();
+        }
         log.info("[{}] Stopped.", threadId);
     }
 
@@ -82,16 +139,25 @@ public class ConsumerThread implements Runnable {
             log.info("[{}] Connected to RabbitMQ.", threadId);
             metrics.setHealthy(true);
 
-            // One unacked message at a time, ensures ordering and fair distribution
-            channel.basicQos(1);
+            // prefetch 1: one unacked message at a time, ensures ordering and fair distribution;
+            // otherwise the limit per room consumer for the pipelined mode
+            channel.basicQos(prefetch);
+
+            // acks are coalesced over the channel's tags; a quarter of a room's window per frame
+            DeliveryAcker acker = roomWorkers != null
+                    ? new DeliveryAcker(channel, Math.max(1, prefetch / 4), prefetch, metrics)
+                    : null;
 
             // Subscribe to each assigned room queue
             // Queue name = roomId, matching how Part 1 routes messages
             for (String roomId : assignedRooms) {
                 //channel.queueDeclare(roomId, true, false, false, null);
-                channel.basicConsume(roomId, false, buildDeliverCallback(channel), tag ->
+                DeliverCallback callback = acker != null
+                        ? buildPipelinedCallback(channel, acker, newRoomLane(roomId, channel, acker))
+                        : buildDeliverCallback(channel);
+                channel.basicConsume(roomId, false, callback, tag ->
                         log.warn("[{}] Consumer cancelled for room '{}'.", threadId, roomId));
-                log.info("[{}] Subscribed to queue '{}'.", threadId, roomId);
+                log.info("[{}] Subscribed to queue '{}' (prefetch {}).", threadId, roomId, prefetch);
             }
 
             metrics.heartbeat();
@@ -106,61 +172,208 @@ public class ConsumerThread implements Runnable {
 
     private DeliverCallback buildDeliverCallback(Channel channel) {
         return (consumerTag, delivery) -> {
-            String body = new String(delivery.getBody(), "UTF-8");
             long deliveryTag = delivery.getEnvelope().getDeliveryTag();
-            String queueName = delivery.getEnvelope().getRoutingKey();
+            if (processDeliveries(Collections.singletonList(delivery)) == 1) {
+                safeAck(channel, deliveryTag);
+            } else {
+                // don't spin on an immediate redelivery (e.g. while another claim is still pending)
+                sleep(config.getMessageRetryDelayMs());
+                safeNack(channel, deliveryTag, true);
+            }
+        };
+    }
+
+    /**
+     * Pipelined mode: the dispatch thread only records the tag and queues the
+     * delivery on its room's lane, so the next delivery follows at once.
+     */
+    private DeliverCallback buildPipelinedCallback(Channel channel, DeliveryAcker acker, RoomLane<Delivery> lane) {
+        return (consumerTag, delivery) -> {
+            acker.delivered(delivery.getEnvelope().getDeliveryTag());
+            lane.submit(delivery);
+        };
+    }
+
+    private RoomLane<Delivery> newRoomLane(String roomId, Channel channel, DeliveryAcker acker) {
+        return new RoomLane<>(roomId, roomWorkers, retryTimer, deliveries -> {
+            if (!channel.isOpen()) {
+                // the broker redelivers them on the next connection
+                return deliveries.size();
+            }
+            int settled;
+            try {
+                settled = processDeliveries(deliveries);
+            } catch (RuntimeException e) {
+                // keep them on the lane; whatever was broadcast already is skipped by dedup
+                log.error("Processing {} deliveries for room '{}' failed, retrying them: {}",
+                        deliveries.size(), roomId, e.getMessage(), e);
+                settled = 0;
+            }
+            for (int i = 0; i < settled; i++) {
+                acker.ack(deliveries.get(i).getEnvelope().getDeliveryTag());
+            }
+            return settled;
+        }, prefetch, config.getMessageRetryDelayMs());
+    }
 
-            // Deserialize
-            ChatMessage message;
+    /**
+     * Decode → dedup → RoomManager for a run of one room's deliveries, in order.
+     * Stops at the first delivery that can't be finished; nothing after it is
+     * broadcast, so the room keeps its order when that delivery is retried.
+     * @return how many deliveries, from the front, are done and can be acked
+     */
+    private int processDeliveries(List<Delivery> deliveries) {
+        // Deserialize: a single envelope, or a batch of envelopes when
+        // Part 1 runs with publish batching enabled; null for a malformed delivery
+        List<List<ChatMessage>> decoded = new ArrayList<>(deliveries.size());
+        for (Delivery delivery : deliveries) {
             try {
-                message = JsonUtil.fromJson(body, ChatMessage.class);
+                decoded.add(decode(delivery.getProperties(), delivery.getBody()));
             } catch (Exception e) {
                 log.error("[{}] Failed to deserialize message from '{}': {}",
-                        threadId, queueName, e.getMessage());
-                safeAck(channel, deliveryTag); // remove malformed message from queue
+                        threadId, delivery.getEnvelope().getRoutingKey(), e.getMessage());
                 metrics.recordFailure();
-                return;
+                decoded.add(null); // ack: remove malformed message from queue
             }
+        }
 
-            log.debug("[{}] Received message '{}' for room '{}'.",
-                    threadId, message.getMessageId(), message.getRoomId());
-
-            // Deduplication
-            if (deduplicationService.isDuplicate(message.getMessageId())) {
-                log.info("[{}] Duplicate '{}' — skipping.", threadId, message.getMessageId());
-                safeAck(channel, deliveryTag);
-                metrics.recordDuplicateSkipped();
-                return;
+        // Deduplication. With dedup.mode=claim every envelope is claimed in one
+        // round trip; a claim someone else holds stops the run at its delivery.
+        DeduplicationService.Claim[] claims = claimDedup ? claim(deliveries, decoded) : null;
+        List<String> released = new ArrayList<>();
+        Set<String> inRun = new HashSet<>();
+        List<ChatMessage> run = new ArrayList<>();
+        List<Integer> runDelivery = new ArrayList<>();
+        int stop = decoded.size();
+        int next = 0;
+        for (int i = 0; i < decoded.size(); i++) {
+            if (decoded.get(i) == null) {
+                continue;
             }
+            boolean redelivered = deliveries.get(i).getEnvelope().isRedeliver();
+            for (ChatMessage message : decoded.get(i)) {
+                boolean duplicate;
+                if (claims != null) {
+                    DeduplicationService.Claim claim = claims[next++];
+                    if (i >= stop) {
+                        // behind a claim someone else holds: retried with it
+                        if (claim == DeduplicationService.Claim.CLAIMED) {
+                            released.add(message.getMessageId());
+                        }
+                        continue;
+                    }
+                    if (claim == DeduplicationService.Claim.IN_PROGRESS) {
+                        // look again once they're done
+                        stop = i;
+                        continue;
+                    }
+                    duplicate = claim == DeduplicationService.Claim.DUPLICATE;
+                } else {
+                    duplicate = !inRun.add(message.getMessageId())
+                            || deduplicationService.isDuplicate(message.getMessageId(), redelivered);
+                }
+                if (duplicate) {
+                    log.info("[{}] Duplicate '{}' — skipping.", threadId, message.getMessageId());
+                    metrics.recordDuplicateSkipped();
+                    continue;
+                }
+                log.debug("[{}] Received message '{}' for room '{}'.",
+                        threadId, message.getMessageId(), message.getRoomId());
+                run.add(message);
+                runDelivery.add(i);
+            }
+        }
 
-            // Route to RoomManager
-            RoomManager.ProcessResult result = roomManager.process(message);
-
-            switch (result) {
+        // Route to RoomManager
+        RoomManager.ProcessResult[] results = broadcastRun(run);
+        List<String> processed = new ArrayList<>();
+        for (int k = 0; k < run.size(); k++) {
+            ChatMessage message = run.get(k);
+            switch (results[k]) {
                 case ACK:
-                    deduplicationService.markSeen(message.getMessageId());
-                    safeAck(channel, deliveryTag);
+                    // even behind a failed one: it was delivered, don't deliver it again
+                    processed.add(message.getMessageId());
                     metrics.recordMessageProcessed();
                     break;
 
                 case NACK:
-                    // Requeue — put back for retry
-                    safeNack(channel, deliveryTag, true);
+                    // retry from this delivery; the ones already broadcast are skipped by dedup
+                    released.add(message.getMessageId());
                     metrics.recordFailure();
+                    stop = Math.min(stop, runDelivery.get(k));
                     break;
 
                 case DISCARD:
-                    // Ack to remove — retrying won't help
-                    safeAck(channel, deliveryTag);
+                default:
+                    // retrying won't help
+                    released.add(message.getMessageId());
                     log.warn("[{}] Message '{}' discarded.", threadId, message.getMessageId());
-                    break;
             }
-        };
+        }
+
+        if (claimDedup) {
+            deduplicationService.settle(processed, released);
+        } else {
+            processed.forEach(deduplicationService::markSeen);
+        }
+        return stop;
+    }
+
+    /**
+     * Pipelined, the run goes to the broadcaster together in one attempt and
+     * the lane retries what failed; otherwise each message is retried in
+     * place by RoomManager, and the run stops at the first that gives up.
+     */
+    private RoomManager.ProcessResult[] broadcastRun(List<ChatMessage> run) {
+        if (roomWorkers != null) {
+            return roomManager.processRun(run);
+        }
+        RoomManager.ProcessResult[] results = new RoomManager.ProcessResult[run.size()];
+        Arrays.fill(results, RoomManager.ProcessResult.NACK);
+        for (int k = 0; k < run.size(); k++) {
+            results[k] = roomManager.process(run.get(k));
+            if (results[k] == RoomManager.ProcessResult.NACK) {
+                break;
+            }
+        }
+        return results;
+    }
+
+    private DeduplicationService.Claim[] claim(List<Delivery> deliveries, List<List<ChatMessage>> decoded) {
+        List<String> ids = new ArrayList<>();
+        for (List<ChatMessage> messages : decoded) {
+            if (messages != null) {
+                messages.forEach(message -> ids.add(message.getMessageId()));
+            }
+        }
+        boolean[] redelivered = new boolean[ids.size()];
+        for (int i = 0, from = 0; i < decoded.size(); i++) {
+            if (decoded.get(i) != null) {
+                int to = from + decoded.get(i).size();
+                Arrays.fill(redelivered, from, to, deliveries.get(i).getEnvelope().isRedeliver());
+                from = to;
+            }
+        }
+        return deduplicationService.claim(ids, redelivered);
+    }
+
+    private List<ChatMessage> decode(AMQP.BasicProperties props, byte[] bytes) throws Exception {
+        if (EnvelopeCodec.CONTENT_TYPE.equals(props.getContentType())) {
+            return EnvelopeCodec.BATCH_TYPE.equals(props.getType())
+                    ? EnvelopeCodec.decodeBatch(bytes)
+                    : Collections.singletonList(EnvelopeCodec.decode(bytes));
+        }
+        String body = new String(bytes, StandardCharsets.UTF_8);
+        if (body.stripLeading().startsWith("[")) {
+            return Arrays.asList(JsonUtil.fromJson(body, ChatMessage[].class));
+        }
+        return Collections.singletonList(JsonUtil.fromJson(body, ChatMessage.class));
     }
 
     private void safeAck(Channel channel, long deliveryTag) {
         try {
             channel.basicAck(deliveryTag, false);
+            metrics.recordAcks(1);
         } catch (IOException e) {
             log.error("[{}] Failed to ack {}: {}", threadId, deliveryTag, e.getMessage());
         }
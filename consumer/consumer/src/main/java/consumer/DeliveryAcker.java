@@ -0,0 +1,99 @@
+package consumer;
+
+import com.rabbitmq.client.Channel;
+import model.ConsumerMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Settles one channel's deliveries with as few ack frames as possible when
+ * they finish out of order.
+ *
+ * Delivery tags on a channel run 1, 2, 3, ... across all of its consumers.
+ * Once every tag up to T is finished, a single basicAck(T', multiple=true)
+ * (T' being the last of them that needs an ack) settles the whole prefix. It
+ * is sent once ackBatch acks have piled up in the prefix, or straight away
+ * when nothing delivered is still being worked on, so no ack is held back
+ * waiting for traffic.
+ *
+ * A room that stalls (its lane retrying a delivery) holds the prefix back
+ * for every room on the channel; once strandLimit finished deliveries are
+ * waiting behind it they are acked one by one, so the other rooms don't run
+ * out of prefetch.
+ */
+class DeliveryAcker {
+
+    private static final Logger log = LoggerFactory.getLogger(DeliveryAcker.class);
+
+    private final Channel channel;
+    private final int ackBatch;
+    private final int strandLimit;
+    private final ConsumerMetrics metrics;
+
+    /** Finished tags beyond the prefix → whether they still need an ack. */
+    private final TreeMap<Long, Boolean> finished = new TreeMap<>();
+    private long highestDelivered;
+    private long settledThrough;
+    private long ackThrough;
+    private int prefixUnacked;
+    private int stranded;
+
+    DeliveryAcker(Channel channel, int ackBatch, int strandLimit, ConsumerMetrics metrics) {
+        this.channel = channel;
+        this.ackBatch = ackBatch;
+        this.strandLimit = strandLimit;
+        this.metrics = metrics;
+    }
+
+    /** Called on the channel's dispatch thread, in tag order, before the delivery is handed off. */
+    synchronized void delivered(long deliveryTag) {
+        highestDelivered = deliveryTag;
+    }
+
+    synchronized void ack(long deliveryTag) {
+        finished.put(deliveryTag, Boolean.TRUE);
+        stranded++;
+        advance();
+    }
+
+    private void advance() {
+        Map.Entry<Long, Boolean> next;
+        while ((next = finished.firstEntry()) != null && next.getKey() == settledThrough + 1) {
+            finished.pollFirstEntry();
+            settledThrough++;
+            if (next.getValue()) {
+                ackThrough = settledThrough;
+                prefixUnacked++;
+                stranded--;
+            }
+        }
+
+        if (prefixUnacked > 0 && (prefixUnacked >= ackBatch || settledThrough == highestDelivered)) {
+            send(ackThrough, true, prefixUnacked);
+            prefixUnacked = 0;
+        }
+
+        if (stranded >= strandLimit) {
+            for (Map.Entry<Long, Boolean> entry : finished.entrySet()) {
+                if (entry.getValue()) {
+                    send(entry.getKey(), false, 1);
+                    entry.setValue(Boolean.FALSE);
+                }
+            }
+            stranded = 0;
+        }
+    }
+
+    private void send(long deliveryTag, boolean multiple, int deliveries) {
+        try {
+            channel.basicAck(deliveryTag, multiple);
+            metrics.recordAcks(deliveries);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Failed to ack {}: {}", deliveryTag, e.getMessage());
+        }
+    }
+}
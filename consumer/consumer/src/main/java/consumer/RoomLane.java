@@ -0,0 +1,123 @@
+package consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs one room's deliveries in the order they arrived, on a pool shared with
+ * other rooms. Different rooms' lanes run concurrently.
+ *
+ * At most one drain task per lane is ever queued on the executor. It hands
+ * the handler everything that has queued up since its last call, as one
+ * batch (so a busy room's deliveries share Redis round trips), until the
+ * lane is empty, then hands the lane back.
+ *
+ * The handler settles the batch from the front and says how far it got. The
+ * items it couldn't finish stay at the head of the lane and go first in the
+ * next batch, handed over on the retry timer after a backoff (retryDelayMs,
+ * doubling up to 32x while no progress is made). The lane stays blocked in
+ * the meantime, so nothing of the room overtakes them, and the worker is free
+ * for other rooms while it waits.
+ */
+class RoomLane<T> {
+
+    private static final Logger log = LoggerFactory.getLogger(RoomLane.class);
+
+    private static final int MAX_BACKOFF_SHIFT = 5;
+
+    /** Handles a run of one room's items, in order. */
+    interface Handler<T> {
+        /** @return how many items, from the front, are settled; the rest are retried */
+        int handle(List<T> items);
+    }
+
+    private final String roomId;
+    private final Executor executor;
+    private final ScheduledExecutorService retryTimer;
+    private final Handler<T> handler;
+    private final int maxBatch;
+    private final long retryDelayMs;
+    private final Queue<T> items = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    /** Items the handler didn't finish; only touched by the drain task. */
+    private List<T> held = new ArrayList<>();
+    private int failedAttempts;
+
+    RoomLane(String roomId, Executor executor, ScheduledExecutorService retryTimer,
+             Handler<T> handler, int maxBatch, long retryDelayMs) {
+        this.roomId = roomId;
+        this.executor = executor;
+        this.retryTimer = retryTimer;
+        this.handler = handler;
+        this.maxBatch = maxBatch;
+        this.retryDelayMs = Math.max(1, retryDelayMs);
+    }
+
+    void submit(T item) {
+        items.add(item);
+        schedule();
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            executor.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        List<T> batch = held;
+        held = new ArrayList<>();
+        while (true) {
+            T item;
+            while (batch.size() < maxBatch && (item = items.poll()) != null) {
+                batch.add(item);
+            }
+            if (batch.isEmpty()) {
+                break;
+            }
+            int settled;
+            try {
+                settled = handler.handle(batch);
+            } catch (RuntimeException e) {
+                // a handler bug: keep the items and try them again rather than lose them
+                log.error("Handler for room '{}' threw on a batch of {}, retrying it: {}",
+                        roomId, batch.size(), e.getMessage(), e);
+                settled = 0;
+            }
+            if (settled < batch.size()) {
+                held = new ArrayList<>(batch.subList(Math.max(0, settled), batch.size()));
+                failedAttempts = settled > 0 ? 1 : failedAttempts + 1;
+                retryLater();
+                return; // still scheduled: the room waits for the retry
+            }
+            failedAttempts = 0;
+            batch = new ArrayList<>();
+        }
+        scheduled.set(false);
+        // an item added after the last poll but before the flag was cleared
+        if (!items.isEmpty()) {
+            schedule();
+        }
+    }
+
+    private void retryLater() {
+        long delay = retryDelayMs << Math.min(failedAttempts - 1, MAX_BACKOFF_SHIFT);
+        try {
+            retryTimer.schedule(() -> executor.execute(this::drain), delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // shutting down: the broker redelivers whatever is still unacked
+            log.debug("Retry for room '{}' dropped: {}", roomId, e.getMessage());
+        }
+    }
+}
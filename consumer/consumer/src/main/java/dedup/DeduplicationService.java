@@ -1,80 +1,48 @@
 package dedup;
 
-import config.AppConfig;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-import redis.clients.jedis.Jedis;
-import redis.clients.jedis.JedisPool;
-import redis.clients.jedis.JedisPoolConfig;
-import redis.clients.jedis.params.SetParams;
+import java.util.List;
 
 /**
- * Prevents the same message from being broadcast twice using Redis.
+ * Remembers which messages have been processed, so one that comes round
+ * again is not broadcast twice. Implemented by RedisDeduplicationService
+ * (shared by every consumer instance) and EmbeddedDeduplicationService (in
+ * process, for a single consumer instance); dedup.backend picks one.
  *
- * Flow:
- * 1. isDuplicate(messageId) → false  → process message
- * 2. broadcast succeeds
- * 3. markSeen(messageId)             → write key with TTL
- * 4. isDuplicate(messageId) → true   → skip on any retry
- *
- * Redis key: "seen:{messageId}", TTL: configurable (default 24h)
+ * Check mode: isDuplicate → process → markSeen, per message.
+ * Claim mode: claim a batch → process the CLAIMED ones → settle the batch.
  */
-public class DeduplicationService {
-
-    private static final Logger log = LoggerFactory.getLogger(DeduplicationService.class);
-    private static final String KEY_PREFIX = "seen:";
-
-    private final JedisPool jedisPool;
-    private final int ttlSeconds;
-
-    public DeduplicationService(AppConfig config) {
-        JedisPoolConfig poolConfig = new JedisPoolConfig();
-        poolConfig.setMaxTotal(16);
-        poolConfig.setMaxIdle(8);
-        poolConfig.setMinIdle(2);
-        poolConfig.setTestOnBorrow(true);
-
-        String password = config.getRedisPassword();
-        if (password != null && !password.isEmpty()) {
-            this.jedisPool = new JedisPool(poolConfig, config.getRedisHost(),
-                    config.getRedisPort(), 2000, password);
-        } else {
-            this.jedisPool = new JedisPool(poolConfig, config.getRedisHost(),
-                    config.getRedisPort(), 2000);
-        }
-
-        this.ttlSeconds = config.getDedupTtlSeconds();
-        log.info("DeduplicationService ready. Redis: {}:{}", config.getRedisHost(), config.getRedisPort());
+public interface DeduplicationService {
+
+    enum Claim {
+        /** Ours to process; settle() it afterwards. */
+        CLAIMED,
+        /** Already processed. */
+        DUPLICATE,
+        /** Being processed elsewhere (or by an earlier attempt that hasn't expired yet). */
+        IN_PROGRESS
     }
 
     /**
      * Returns true if this messageId was already processed.
-     * On Redis failure, returns false (allow through — better duplicate than drop).
+     * @param redelivered the delivery's redeliver flag
      */
-    public boolean isDuplicate(String messageId) {
-        if (messageId == null || messageId.isEmpty()) return false;
-        try (Jedis jedis = jedisPool.getResource()) {
-            return jedis.exists(KEY_PREFIX + messageId);
-        } catch (Exception e) {
-            log.error("Redis error in isDuplicate for '{}'. Allowing through. Error: {}", messageId, e.getMessage());
-            return false;
-        }
-    }
+    boolean isDuplicate(String messageId, boolean redelivered);
+
+    /** Marks messageId as processed. Call AFTER successful broadcast. */
+    void markSeen(String messageId);
 
     /**
-     * Marks messageId as seen. Call AFTER successful broadcast.
-     * Uses NX (set only if not exists) to handle concurrent threads safely.
+     * Claims a batch of messages.
+     * @param redelivered per id, the redeliver flag of the delivery it came in
+     * @return one Claim per id, in order; null or empty ids are always CLAIMED
      */
-    public void markSeen(String messageId) {
-        if (messageId == null || messageId.isEmpty()) return;
-        try (Jedis jedis = jedisPool.getResource()) {
-            jedis.set(KEY_PREFIX + messageId, "1", SetParams.setParams().ex(ttlSeconds).nx());
-        } catch (Exception e) {
-            log.error("Redis error in markSeen for '{}': {}", messageId, e.getMessage());
-        }
-    }
+    Claim[] claim(List<String> messageIds, boolean[] redelivered);
 
-    public void close() {
-        jedisPool.close();
-    }
-}
\ No newline at end of file
+    /**
+     * Finishes claims: processed ids are marked seen for the full TTL,
+     * released ids are forgotten so a retry can claim them again.
+     */
+    void settle(List<String> processedIds, List<String> releasedIds);
+
+    void close();
+}
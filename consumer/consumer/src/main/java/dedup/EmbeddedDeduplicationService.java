@@ -0,0 +1,121 @@
+package dedup;
+
+import config.AppConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DeduplicationService without Redis: processed and claimed IDs are kept in
+ * an OffHeapIdTable in this process, so there is no network hop at all.
+ * Only for a single consumer instance; a second one would not see the
+ * first one's IDs.
+ *
+ * Same TTLs as the Redis backend (redis.dedup.ttl.seconds for processed
+ * IDs, redis.dedup.pending.ttl.ms for claims). With
+ * dedup.embedded.snapshot.path set the table lives in that file and is
+ * flushed every dedup.embedded.snapshot.interval.ms, so a restart picks up
+ * where it left off; without it a restart starts empty.
+ */
+public class EmbeddedDeduplicationService implements DeduplicationService {
+
+    private static final Logger log = LoggerFactory.getLogger(EmbeddedDeduplicationService.class);
+
+    private final OffHeapIdTable table;
+    private final long ttlMillis;
+    private final long pendingTtlMillis;
+    private final ScheduledExecutorService snapshotter;
+
+    public EmbeddedDeduplicationService(AppConfig config) throws IOException {
+        this.ttlMillis = config.getDedupTtlSeconds() * 1000L;
+        this.pendingTtlMillis = config.getDedupPendingTtlMs();
+
+        String snapshotPath = config.getDedupEmbeddedSnapshotPath();
+        Path snapshot = snapshotPath.isEmpty() ? null : Path.of(snapshotPath);
+        this.table = new OffHeapIdTable(config.getDedupEmbeddedCapacity(), ttlMillis, snapshot);
+
+        if (snapshot != null) {
+            long interval = config.getDedupEmbeddedSnapshotIntervalMs();
+            this.snapshotter = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "dedup-snapshot");
+                t.setDaemon(true);
+                return t;
+            });
+            snapshotter.scheduleWithFixedDelay(this::force, interval, interval, TimeUnit.MILLISECONDS);
+        } else {
+            this.snapshotter = null;
+        }
+        log.info("EmbeddedDeduplicationService ready. Capacity: {}, snapshot: {}, IDs held: {}",
+                config.getDedupEmbeddedCapacity(), snapshot != null ? snapshot : "none", table.size());
+    }
+
+    /** Answered from the table; the redeliver flag makes no difference here. */
+    @Override
+    public boolean isDuplicate(String messageId, boolean redelivered) {
+        if (messageId == null || messageId.isEmpty()) return false;
+        long[] id = IdBits.of(messageId);
+        return table.expiryOf(id[0], id[1]) > 0;
+    }
+
+    @Override
+    public void markSeen(String messageId) {
+        if (messageId == null || messageId.isEmpty()) return;
+        long[] id = IdBits.of(messageId);
+        table.commit(id[0], id[1], ttlMillis);
+    }
+
+    @Override
+    public Claim[] claim(List<String> messageIds, boolean[] redelivered) {
+        Claim[] claims = new Claim[messageIds.size()];
+        for (int i = 0; i < claims.length; i++) {
+            String messageId = messageIds.get(i);
+            if (messageId == null || messageId.isEmpty()) {
+                claims[i] = Claim.CLAIMED;
+                continue;
+            }
+            long[] id = IdBits.of(messageId);
+            long expiry = table.claim(id[0], id[1], pendingTtlMillis);
+            claims[i] = expiry == 0 ? Claim.CLAIMED : expiry > 0 ? Claim.DUPLICATE : Claim.IN_PROGRESS;
+        }
+        return claims;
+    }
+
+    @Override
+    public void settle(List<String> processedIds, List<String> releasedIds) {
+        for (String messageId : processedIds) {
+            markSeen(messageId);
+        }
+        for (String messageId : releasedIds) {
+            if (messageId != null && !messageId.isEmpty()) {
+                long[] id = IdBits.of(messageId);
+                table.release(id[0], id[1]);
+            }
+        }
+    }
+
+    private void force() {
+        try {
+            table.force();
+        } catch (RuntimeException e) {
+            log.warn("Failed to flush dedup snapshot: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        if (snapshotter != null) {
+            snapshotter.shutdownNow();
+        }
+        try {
+            table.close();
+        } catch (IOException e) {
+            log.error("Failed to close dedup snapshot: {}", e.getMessage());
+        }
+    }
+}
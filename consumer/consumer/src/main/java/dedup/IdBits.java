@@ -0,0 +1,46 @@
+package dedup;
+
+import id.TimeOrderedId;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+/**
+ * A message ID as a 128-bit value, for the in-process dedup structures: a
+ * time-ordered ID's two longs, a UUID's two halves, anything else a 128-bit
+ * hash of its text.
+ */
+final class IdBits {
+
+    private IdBits() {}
+
+    static long[] of(String messageId) {
+        if (TimeOrderedId.isTimeOrdered(messageId)) {
+            ByteBuffer binary = ByteBuffer.wrap(TimeOrderedId.toBytes(messageId));
+            return new long[] {binary.getLong(), binary.getLong()};
+        }
+        if (messageId.length() == 36 && messageId.charAt(8) == '-' && messageId.charAt(23) == '-') {
+            try {
+                UUID uuid = UUID.fromString(messageId);
+                return new long[] {uuid.getMostSignificantBits(), uuid.getLeastSignificantBits()};
+            } catch (IllegalArgumentException ignored) {
+                // not a UUID after all; hash it like any other text
+            }
+        }
+        long high = 0xcbf29ce484222325L;
+        long low = 0x84222325cbf29ce4L;
+        for (int i = 0; i < messageId.length(); i++) {
+            char c = messageId.charAt(i);
+            high = (high ^ c) * 0x100000001b3L;
+            low = (low ^ c) * 0x9e3779b97f4a7c15L;
+        }
+        return new long[] {mix(high), mix(low ^ messageId.length())};
+    }
+
+    /** 64-bit finalizer (SplitMix64), spreads the bits of a key before masking it. */
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,45 @@
+package dedup;
+
+/**
+ * What this instance itself has committed, kept in memory in front of Redis.
+ *
+ *   recent: exact set of the IDs committed in the last window → a hit is a
+ *           duplicate, no Redis needed (and still answered while Redis is down)
+ *   bloom:  far more IDs in the same memory, inexact → a "no" means this
+ *           instance never committed the ID; only kept when bloomCapacity > 0
+ *
+ * IDs are held as their 128-bit value (IdBits).
+ */
+class LocalDedupTier {
+
+    private static final int RECENT_BUCKETS = 4;
+
+    private final RecentIdSet recent;
+    private final RotatingBloomFilter bloom;
+
+    LocalDedupTier(int recentCapacity, long recentWindowMillis, int bloomCapacity) {
+        this.recent = new RecentIdSet(recentCapacity, recentWindowMillis, RECENT_BUCKETS);
+        this.bloom = bloomCapacity > 0 ? new RotatingBloomFilter(bloomCapacity) : null;
+    }
+
+    boolean recentlyCommitted(String messageId) {
+        long[] id = IdBits.of(messageId);
+        return recent.contains(id[0], id[1]);
+    }
+
+    boolean neverCommitted(String messageId) {
+        if (bloom == null) {
+            return false;
+        }
+        long[] id = IdBits.of(messageId);
+        return !bloom.mightContain(id[0], id[1]);
+    }
+
+    void committed(String messageId) {
+        long[] id = IdBits.of(messageId);
+        recent.add(id[0], id[1]);
+        if (bloom != null) {
+            bloom.add(id[0], id[1]);
+        }
+    }
+}
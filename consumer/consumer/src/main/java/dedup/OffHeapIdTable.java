@@ -0,0 +1,430 @@
+package dedup;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 128-bit IDs with an expiry each, in open-addressing tables outside the
+ * Java heap, optionally mapped from a file so they survive a restart.
+ *
+ * Stripes: IDs are split by hash over STRIPES independent stripes, each with
+ * its own tables and its own lock, so consumer threads and room lanes only
+ * contend when their IDs land in the same stripe.
+ *
+ * Age buckets: each stripe has AGE_BUCKETS + 1 tables, each taking new
+ * entries for ttl / AGE_BUCKETS. When the current table's time is up the
+ * oldest one is wiped and becomes current, so an entry lives at least ttl
+ * and at most ttl plus one bucket period, and no entry is ever deleted on
+ * its own (linear probing without tombstones). Lookups check every non-empty
+ * table, newest first. A table that fills up before its time also rotates,
+ * forgetting its stripe's oldest bucket early; the log says so.
+ *
+ * Slot, 24 bytes: [long high][long low][long expiry]
+ *   high == low == 0  free (an ID of 0 is stored as low = 1)
+ *   expiry > 0        processed, until expiry (epoch millis)
+ *   expiry < 0        claimed, pending until -expiry
+ *   expiry == 0       released
+ * Tables are half full at most, so an ID costs about 54 bytes of direct
+ * memory (or snapshot file) across the buckets. Without a snapshot that
+ * comes out of -XX:MaxDirectMemorySize (by default as much as -Xmx).
+ *
+ * Snapshot file: a HEADER_BYTES header (geometry, then each stripe's current
+ * bucket and sizes) then the tables, stripe by stripe. Writes go straight to
+ * the mapping, so the OS has them even if the process dies; force() flushes
+ * them to disk. A file whose geometry doesn't match the configuration is
+ * started afresh.
+ */
+class OffHeapIdTable implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(OffHeapIdTable.class);
+
+    static final int AGE_BUCKETS = 8;
+    static final int STRIPES = 16;
+
+    private static final int BUCKET_COUNT = AGE_BUCKETS + 1;
+    private static final int SLOT_BYTES = 24;
+    private static final int HEADER_BYTES = 4096;
+    private static final long MAGIC = 0x4368617444656475L; // "ChatDedu"
+    private static final int VERSION = 2;
+
+    // header fields
+    private static final int H_MAGIC = 0;
+    private static final int H_VERSION = 8;
+    private static final int H_BUCKETS = 12;
+    private static final int H_SLOTS = 16;
+    private static final int H_BUCKET_MILLIS = 24;
+    private static final int H_STRIPES = 32;
+    // per stripe: [int current][long currentSince][int size x BUCKET_COUNT]
+    private static final int H_STRIPE_STATE = 64;
+    private static final int STRIPE_STATE_BYTES = 12 + 4 * BUCKET_COUNT;
+    private static final int S_CURRENT = 0;
+    private static final int S_CURRENT_SINCE = 4;
+    private static final int S_SIZES = 12;
+
+    private static final byte[] ZEROS = new byte[64 * 1024];
+
+    private final long bucketMillis;
+    private final int slots;
+    private final int bucketLimit;
+    private final ByteBuffer header;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final FileChannel file;
+    private final FileLock lock;
+
+    /**
+     * @param capacity IDs to hold within one ttl
+     * @param snapshot file to map the tables from, or null to keep them in direct memory
+     * @throws IllegalStateException if there isn't enough direct memory for the tables
+     */
+    OffHeapIdTable(long capacity, long ttlMillis, Path snapshot) throws IOException {
+        this.bucketMillis = Math.max(1, ttlMillis / AGE_BUCKETS);
+        long limit = Math.max(1, (capacity + (long) AGE_BUCKETS * STRIPES - 1) / ((long) AGE_BUCKETS * STRIPES));
+        if (limit * 2 * SLOT_BYTES > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Capacity " + capacity + " needs tables over 2GB; at most "
+                    + (long) Integer.MAX_VALUE / (2 * SLOT_BYTES) * AGE_BUCKETS * STRIPES + " IDs are supported");
+        }
+        this.bucketLimit = (int) limit;
+        this.slots = bucketLimit * 2;
+        long tableBytes = (long) slots * SLOT_BYTES;
+        long totalBytes = tableBytes * BUCKET_COUNT * STRIPES;
+
+        if (snapshot == null) {
+            this.file = null;
+            this.lock = null;
+            this.header = ByteBuffer.allocate(HEADER_BYTES);
+            long now = System.currentTimeMillis();
+            try {
+                for (int s = 0; s < STRIPES; s++) {
+                    ByteBuffer[] tables = new ByteBuffer[BUCKET_COUNT];
+                    for (int b = 0; b < BUCKET_COUNT; b++) {
+                        tables[b] = ByteBuffer.allocateDirect((int) tableBytes).order(ByteOrder.nativeOrder());
+                    }
+                    stripes[s] = new Stripe(s, tables, now);
+                }
+            } catch (OutOfMemoryError e) {
+                throw new IllegalStateException("Embedded dedup capacity " + capacity + " needs "
+                        + (totalBytes >> 20) + "MB of direct memory: raise -XX:MaxDirectMemorySize, "
+                        + "lower dedup.embedded.capacity, or set dedup.embedded.snapshot.path to map a file instead", e);
+            }
+            writeGeometry();
+            return;
+        }
+
+        Path parent = snapshot.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        this.file = FileChannel.open(snapshot, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        FileLock held;
+        try {
+            held = file.tryLock();
+        } catch (OverlappingFileLockException e) {
+            held = null; // this JVM already has it open
+        }
+        this.lock = held;
+        if (lock == null) {
+            file.close();
+            throw new IOException("Dedup snapshot " + snapshot + " is already in use");
+        }
+        long fileBytes = HEADER_BYTES + totalBytes;
+        boolean fresh = file.size() != fileBytes;
+        if (fresh) {
+            file.truncate(0);
+        }
+        this.header = file.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES).order(ByteOrder.nativeOrder());
+        for (int s = 0; s < STRIPES; s++) {
+            ByteBuffer[] tables = new ByteBuffer[BUCKET_COUNT];
+            for (int b = 0; b < BUCKET_COUNT; b++) {
+                long offset = HEADER_BYTES + ((long) s * BUCKET_COUNT + b) * tableBytes;
+                tables[b] = file.map(FileChannel.MapMode.READ_WRITE, offset, tableBytes)
+                        .order(ByteOrder.nativeOrder());
+            }
+            stripes[s] = new Stripe(s, tables, 0);
+        }
+
+        if (!fresh && header.getLong(H_MAGIC) == MAGIC && header.getInt(H_VERSION) == VERSION
+                && header.getInt(H_BUCKETS) == BUCKET_COUNT && header.getLong(H_SLOTS) == slots
+                && header.getLong(H_BUCKET_MILLIS) == bucketMillis && header.getInt(H_STRIPES) == STRIPES) {
+            long restored = 0;
+            for (Stripe stripe : stripes) {
+                restored += stripe.restore();
+            }
+            log.info("Dedup snapshot {} restored: {} IDs.", snapshot, restored);
+        } else {
+            // a new file reads as zeros already; only a reused one needs wiping
+            long now = System.currentTimeMillis();
+            if (!fresh) {
+                log.warn("Dedup snapshot {} was written with other settings; starting empty.", snapshot);
+            }
+            for (Stripe stripe : stripes) {
+                if (!fresh) {
+                    for (int b = 0; b < BUCKET_COUNT; b++) {
+                        stripe.wipe(b);
+                    }
+                }
+                stripe.currentSince = now;
+            }
+            writeGeometry();
+        }
+    }
+
+    private void writeGeometry() {
+        header.putLong(H_MAGIC, MAGIC);
+        header.putInt(H_VERSION, VERSION);
+        header.putInt(H_BUCKETS, BUCKET_COUNT);
+        header.putLong(H_SLOTS, slots);
+        header.putLong(H_BUCKET_MILLIS, bucketMillis);
+        header.putInt(H_STRIPES, STRIPES);
+        for (Stripe stripe : stripes) {
+            stripe.writeCurrent();
+        }
+    }
+
+    private static long hash(long high, long low) {
+        return IdBits.mix(high ^ Long.rotateLeft(low, 32));
+    }
+
+    private Stripe stripeOf(long hash) {
+        return stripes[(int) (hash & (STRIPES - 1))];
+    }
+
+    /** Expiry of the newest live entry for the ID (see class doc), or 0 if there is none. */
+    long expiryOf(long high, long low) {
+        if (high == 0 && low == 0) {
+            low = 1;
+        }
+        long hash = hash(high, low);
+        Stripe stripe = stripeOf(hash);
+        synchronized (stripe) {
+            return stripe.expiryOf(hash, high, low, System.currentTimeMillis());
+        }
+    }
+
+    /** Claims the ID unless it has a live entry. @return the live entry's expiry, or 0 if now claimed */
+    long claim(long high, long low, long pendingMillis) {
+        if (high == 0 && low == 0) {
+            low = 1;
+        }
+        long hash = hash(high, low);
+        Stripe stripe = stripeOf(hash);
+        synchronized (stripe) {
+            long now = System.currentTimeMillis();
+            long expiry = stripe.expiryOf(hash, high, low, now);
+            if (expiry == 0) {
+                stripe.put(hash, high, low, -(now + pendingMillis));
+            }
+            return expiry;
+        }
+    }
+
+    void commit(long high, long low, long ttlMillis) {
+        if (high == 0 && low == 0) {
+            low = 1;
+        }
+        long hash = hash(high, low);
+        Stripe stripe = stripeOf(hash);
+        synchronized (stripe) {
+            long now = System.currentTimeMillis();
+            stripe.rotateIfDue(now);
+            stripe.put(hash, high, low, now + ttlMillis);
+        }
+    }
+
+    /** Drops a pending claim on the ID, wherever it is. */
+    void release(long high, long low) {
+        if (high == 0 && low == 0) {
+            low = 1;
+        }
+        long hash = hash(high, low);
+        Stripe stripe = stripeOf(hash);
+        synchronized (stripe) {
+            stripe.release(hash, high, low);
+        }
+    }
+
+    long size() {
+        long size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    private static boolean isLive(long expiry, long now) {
+        return expiry > now || (expiry < 0 && -expiry > now);
+    }
+
+    /** Flushes a mapped snapshot to disk; a no-op without one. */
+    void force() {
+        if (file == null) {
+            return;
+        }
+        for (Stripe stripe : stripes) {
+            for (ByteBuffer table : stripe.tables) {
+                ((MappedByteBuffer) table).force();
+            }
+        }
+        ((MappedByteBuffer) header).force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (file == null) {
+            return;
+        }
+        force();
+        lock.release();
+        file.close();
+    }
+
+    /** One stripe's age-bucket tables. Every method is called with the stripe's monitor held. */
+    private final class Stripe {
+        private final int state;
+        private final ByteBuffer[] tables;
+        private final int[] sizes = new int[BUCKET_COUNT];
+        private int current;
+        private long currentSince;
+
+        Stripe(int index, ByteBuffer[] tables, long currentSince) {
+            this.state = H_STRIPE_STATE + index * STRIPE_STATE_BYTES;
+            this.tables = tables;
+            this.currentSince = currentSince;
+        }
+
+        /** Reads this stripe's position from the snapshot header. @return IDs restored */
+        long restore() {
+            current = header.getInt(state + S_CURRENT);
+            currentSince = header.getLong(state + S_CURRENT_SINCE);
+            long restored = 0;
+            for (int b = 0; b < BUCKET_COUNT; b++) {
+                sizes[b] = header.getInt(state + S_SIZES + b * 4);
+                restored += sizes[b];
+            }
+            return restored;
+        }
+
+        void writeCurrent() {
+            header.putInt(state + S_CURRENT, current);
+            header.putLong(state + S_CURRENT_SINCE, currentSince);
+        }
+
+        long expiryOf(long hash, long high, long low, long now) {
+            rotateIfDue(now);
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                int b = Math.floorMod(current - i, BUCKET_COUNT);
+                if (sizes[b] == 0) {
+                    continue;
+                }
+                int slot = find(tables[b], hash, high, low);
+                if (slot >= 0) {
+                    long expiry = tables[b].getLong(slot * SLOT_BYTES + 16);
+                    if (isLive(expiry, now)) {
+                        return expiry;
+                    }
+                }
+            }
+            return 0;
+        }
+
+        void release(long hash, long high, long low) {
+            for (int b = 0; b < BUCKET_COUNT; b++) {
+                if (sizes[b] == 0) {
+                    continue;
+                }
+                int slot = find(tables[b], hash, high, low);
+                if (slot >= 0 && tables[b].getLong(slot * SLOT_BYTES + 16) < 0) {
+                    tables[b].putLong(slot * SLOT_BYTES + 16, 0);
+                }
+            }
+        }
+
+        long size() {
+            long size = 0;
+            for (int b = 0; b < BUCKET_COUNT; b++) {
+                size += sizes[b];
+            }
+            return size;
+        }
+
+        /** Writes into the current table, over the ID's own slot there if it has one. */
+        void put(long hash, long high, long low, long expiry) {
+            ByteBuffer table = tables[current];
+            int slot = find(table, hash, high, low);
+            if (slot < 0) {
+                if (sizes[current] >= bucketLimit) {
+                    log.warn("Dedup table full ({} IDs in {}ms); forgetting the oldest {}ms early.",
+                            bucketLimit, System.currentTimeMillis() - currentSince, bucketMillis);
+                    rotate(System.currentTimeMillis());
+                    table = tables[current];
+                }
+                slot = -1 - find(table, hash, high, low);
+                table.putLong(slot * SLOT_BYTES, high);
+                table.putLong(slot * SLOT_BYTES + 8, low);
+                sizes[current]++;
+                header.putInt(state + S_SIZES + current * 4, sizes[current]);
+            }
+            table.putLong(slot * SLOT_BYTES + 16, expiry);
+        }
+
+        /** @return the ID's slot, or -1 - the free slot where it would go */
+        private int find(ByteBuffer table, long hash, long high, long low) {
+            // the low bits picked the stripe; the high ones pick the slot
+            int slot = (int) (((hash >>> 32) * slots) >>> 32);
+            while (true) {
+                int at = slot * SLOT_BYTES;
+                long h = table.getLong(at);
+                long l = table.getLong(at + 8);
+                if (h == high && l == low) {
+                    return slot;
+                }
+                if (h == 0 && l == 0) {
+                    return -1 - slot;
+                }
+                if (++slot == slots) {
+                    slot = 0;
+                }
+            }
+        }
+
+        void rotateIfDue(long now) {
+            if (now - currentSince >= bucketMillis) {
+                // after a long stop every table may be stale; wiping each once is enough
+                long periods = Math.min((now - currentSince) / bucketMillis, BUCKET_COUNT);
+                for (long i = 0; i < periods; i++) {
+                    rotate(now);
+                }
+            }
+        }
+
+        private void rotate(long now) {
+            current = (current + 1) % BUCKET_COUNT;
+            wipe(current);
+            currentSince = now;
+            writeCurrent();
+        }
+
+        void wipe(int b) {
+            ByteBuffer table = tables[b];
+            for (int at = 0; at < table.capacity(); at += ZEROS.length) {
+                table.put(at, ZEROS, 0, Math.min(ZEROS.length, table.capacity() - at));
+            }
+            sizes[b] = 0;
+            header.putInt(state + S_SIZES + b * 4, 0);
+        }
+    }
+}
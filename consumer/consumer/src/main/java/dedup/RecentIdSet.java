@@ -0,0 +1,130 @@
+package dedup;
+
+import java.util.Arrays;
+
+/**
+ * The IDs committed on this instance recently, exactly, as 128-bit values.
+ *
+ * Kept in bucketCount time buckets of windowMillis / bucketCount each; when
+ * the current bucket's time is up (or it is full) the oldest one is cleared
+ * and becomes the current one. So an ID is remembered for between
+ * (bucketCount - 1) and bucketCount bucket periods, and memory is fixed at
+ * 2 longs per slot, half the slots free: about 32 bytes per ID of capacity.
+ *
+ * Each bucket is an open-addressing table of (high, low) pairs with linear
+ * probing; (0, 0) marks a free slot. No objects per ID.
+ */
+class RecentIdSet {
+
+    private final long bucketMillis;
+    private final int bucketCapacity;
+    private final Bucket[] buckets;
+    private int current;
+    private long currentSince;
+
+    RecentIdSet(int capacity, long windowMillis, int bucketCount) {
+        this.bucketMillis = Math.max(1, windowMillis / bucketCount);
+        this.bucketCapacity = Math.max(1, capacity / bucketCount);
+        int slots = Integer.highestOneBit(Math.max(2, bucketCapacity * 2 - 1)) << 1;
+        this.buckets = new Bucket[bucketCount];
+        for (int i = 0; i < bucketCount; i++) {
+            buckets[i] = new Bucket(slots);
+        }
+        this.currentSince = System.currentTimeMillis();
+    }
+
+    synchronized void add(long high, long low) {
+        if (high == 0 && low == 0) {
+            low = 1;
+        }
+        rotateIfDue();
+        for (Bucket bucket : buckets) {
+            if (bucket.contains(high, low)) {
+                return;
+            }
+        }
+        if (buckets[current].size >= bucketCapacity) {
+            rotate();
+        }
+        buckets[current].add(high, low);
+    }
+
+    synchronized boolean contains(long high, long low) {
+        if (high == 0 && low == 0) {
+            low = 1;
+        }
+        rotateIfDue();
+        for (Bucket bucket : buckets) {
+            if (bucket.contains(high, low)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void rotateIfDue() {
+        long now = System.currentTimeMillis();
+        if (now - currentSince >= bucketMillis) {
+            // after a long quiet spell every bucket may be stale; clearing them all once is enough
+            long periods = Math.min((now - currentSince) / bucketMillis, buckets.length);
+            for (long i = 0; i < periods; i++) {
+                rotate();
+            }
+            currentSince = now;
+        }
+    }
+
+    private void rotate() {
+        current = (current + 1) % buckets.length;
+        buckets[current].clear();
+        currentSince = System.currentTimeMillis();
+    }
+
+    private static final class Bucket {
+        private final long[] table;
+        private final int mask;
+        private int size;
+
+        Bucket(int slots) {
+            this.table = new long[slots * 2];
+            this.mask = slots - 1;
+        }
+
+        boolean contains(long high, long low) {
+            if (size == 0) {
+                return false;
+            }
+            for (int slot = slotOf(high, low); ; slot = (slot + 1) & mask) {
+                long h = table[slot * 2];
+                long l = table[slot * 2 + 1];
+                if (h == high && l == low) {
+                    return true;
+                }
+                if (h == 0 && l == 0) {
+                    return false;
+                }
+            }
+        }
+
+        void add(long high, long low) {
+            int slot = slotOf(high, low);
+            while (table[slot * 2] != 0 || table[slot * 2 + 1] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot * 2] = high;
+            table[slot * 2 + 1] = low;
+            size++;
+        }
+
+        void clear() {
+            if (size > 0) {
+                Arrays.fill(table, 0);
+                size = 0;
+            }
+        }
+
+        private int slotOf(long high, long low) {
+            return (int) IdBits.mix(high ^ Long.rotateLeft(low, 32)) & mask;
+        }
+    }
+}
@@ -0,0 +1,336 @@
+package dedup;
+
+import config.AppConfig;
+import id.TimeOrderedId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.params.SetParams;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * DeduplicationService on Redis, shared by every consumer instance.
+ *
+ * Flow:
+ * 1. isDuplicate(messageId) → false  → process message
+ * 2. broadcast succeeds
+ * 3. markSeen(messageId)             → write key with TTL
+ * 4. isDuplicate(messageId) → true   → skip on any retry
+ *
+ * Redis key: "seen:{messageId}", TTL: configurable (default 24h).
+ * Time-ordered IDs are keyed by their 16-byte binary form (21-byte key
+ * instead of 41 for a UUID); UUIDs are keyed by their text as before.
+ *
+ * Claim mode (dedup.mode=claim) replaces check-then-mark, which costs two
+ * round trips per message and lets two consumers both pass the check:
+ * 1. claim(ids)   → one pipeline of CLAIM_SCRIPT for a whole batch: each key
+ *                   is set to "P" (pending, pendingTtlMs) if absent, so only
+ *                   one consumer gets CLAIMED for a message
+ * 2. broadcast the CLAIMED ones
+ * 3. settle(done, released) → one pipeline: done keys become "1" with the
+ *                   full TTL, released ones (failed, to be retried) are deleted
+ * A claim whose consumer dies expires after pendingTtlMs and can be taken again.
+ *
+ * With dedup.local.enabled a LocalDedupTier answers first, from memory:
+ *   - an ID this instance committed within the recent window is a
+ *     DUPLICATE / isDuplicate, without asking Redis
+ *   - only with dedup.local.single.instance as well: a first delivery (not
+ *     redelivered) whose ID the Bloom filter has never seen is taken as new
+ *     without asking Redis either. A Bloom miss only proves this instance
+ *     never committed the ID, so with several instances a re-published copy
+ *     another one is handling would get through. Any later copy of an ID in
+ *     the same claim() batch is IN_PROGRESS, as the claim script would have
+ *     answered, since a locally taken first copy left no pending marker
+ *   - everything else goes to Redis as usual
+ * While Redis is down the local tier keeps catching redeliveries of recent
+ * messages instead of letting them all through, and commits that couldn't
+ * be written are queued (up to UNSYNCED_LIMIT) and written with the next
+ * commit that gets through.
+ *
+ * Pooled connections are validated by the idle evictor instead of a PING on
+ * every borrow; a connection that breaks anyway fails its call, which is
+ * allowed through like any other Redis error.
+ */
+public class RedisDeduplicationService implements DeduplicationService {
+
+    private static final Logger log = LoggerFactory.getLogger(RedisDeduplicationService.class);
+    private static final byte[] KEY_PREFIX = "seen:".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] SEEN = {'1'};
+
+    private static final int UNSYNCED_LIMIT = 100_000;
+    private static final int UNSYNCED_FLUSH = 1000;
+
+    /** 1 = claimed by the caller, 0 = already processed, -1 = claimed by someone else. */
+    private static final String CLAIM_SCRIPT =
+            "if redis.call('SET', KEYS[1], 'P', 'NX', 'PX', ARGV[1]) then return 1 end\n"
+            + "if redis.call('GET', KEYS[1]) == '1' then return 0 end\n"
+            + "return -1";
+
+    private final JedisPool jedisPool;
+    private final int ttlSeconds;
+    private final byte[] pendingTtlMs;
+    private volatile byte[] claimSha;
+
+    /** Null unless dedup.local.enabled. */
+    private final LocalDedupTier local;
+    /** dedup.local.single.instance: the local tier may take first deliveries as new. */
+    private final boolean localFirstDeliveries;
+    private final Queue<String> unsynced = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger unsyncedCount = new AtomicInteger();
+
+    public RedisDeduplicationService(AppConfig config) {
+        JedisPoolConfig poolConfig = new JedisPoolConfig();
+        poolConfig.setMaxTotal(16);
+        poolConfig.setMaxIdle(8);
+        poolConfig.setMinIdle(2);
+        // validate idle connections in the background rather than PING on every borrow
+        poolConfig.setTestOnBorrow(false);
+        poolConfig.setTestWhileIdle(true);
+        poolConfig.setTimeBetweenEvictionRuns(Duration.ofSeconds(30));
+        poolConfig.setMinEvictableIdleTime(Duration.ofSeconds(60));
+
+        String password = config.getRedisPassword();
+        if (password != null && !password.isEmpty()) {
+            this.jedisPool = new JedisPool(poolConfig, config.getRedisHost(),
+                    config.getRedisPort(), 2000, password);
+        } else {
+            this.jedisPool = new JedisPool(poolConfig, config.getRedisHost(),
+                    config.getRedisPort(), 2000);
+        }
+
+        this.ttlSeconds = config.getDedupTtlSeconds();
+        this.pendingTtlMs = Long.toString(config.getDedupPendingTtlMs()).getBytes(StandardCharsets.US_ASCII);
+        this.localFirstDeliveries = config.isDedupLocalEnabled() && config.isDedupLocalSingleInstance();
+        this.local = config.isDedupLocalEnabled()
+                ? new LocalDedupTier(config.getDedupLocalRecentCapacity(), config.getDedupLocalRecentWindowMs(),
+                        localFirstDeliveries ? config.getDedupLocalBloomCapacity() : 0)
+                : null;
+        log.info("RedisDeduplicationService ready. Redis: {}:{}, local tier: {}",
+                config.getRedisHost(), config.getRedisPort(),
+                local == null ? "off" : localFirstDeliveries ? "on, single instance" : "on");
+    }
+
+    /**
+     * Recent commits of this instance are answered without Redis (and, single
+     * instance, first deliveries it has never seen).
+     * On Redis failure, returns false (allow through — better duplicate than drop).
+     */
+    @Override
+    public boolean isDuplicate(String messageId, boolean redelivered) {
+        if (messageId == null || messageId.isEmpty()) return false;
+        if (local != null) {
+            if (local.recentlyCommitted(messageId)) return true;
+            if (localFirstDeliveries && !redelivered && local.neverCommitted(messageId)) return false;
+        }
+        try (Jedis jedis = jedisPool.getResource()) {
+            return jedis.exists(keyOf(messageId));
+        } catch (Exception e) {
+            log.error("Redis error in isDuplicate for '{}'. Allowing through. Error: {}", messageId, e.getMessage());
+            return false;
+        }
+    }
+
+    /** Uses NX (set only if not exists) to handle concurrent threads safely. */
+    @Override
+    public void markSeen(String messageId) {
+        if (messageId == null || messageId.isEmpty()) return;
+        if (local != null) {
+            local.committed(messageId);
+        }
+        try (Jedis jedis = jedisPool.getResource()) {
+            if (unsyncedCount.get() == 0) {
+                jedis.set(keyOf(messageId), SEEN, SetParams.setParams().ex(ttlSeconds).nx());
+            } else {
+                Pipeline pipeline = jedis.pipelined();
+                pipeline.set(keyOf(messageId), SEEN, SetParams.setParams().ex(ttlSeconds).nx());
+                List<String> resent = resendUnsynced(pipeline);
+                try {
+                    pipeline.sync();
+                } catch (Exception e) {
+                    queueUnsynced(resent);
+                    throw e;
+                }
+            }
+        } catch (Exception e) {
+            log.error("Redis error in markSeen for '{}': {}", messageId, e.getMessage());
+            queueUnsynced(Collections.singletonList(messageId));
+        }
+    }
+
+    /**
+     * Claims a batch of messages in one round trip.
+     * With the local tier on, recently committed ids are DUPLICATE without
+     * Redis; single instance, first deliveries it has never seen are CLAIMED
+     * without it too (later copies in the batch IN_PROGRESS). The rest are
+     * claimed there. On Redis failure those count as CLAIMED (allow through —
+     * better duplicate than drop).
+     */
+    @Override
+    public Claim[] claim(List<String> messageIds, boolean[] redelivered) {
+        Claim[] claims = new Claim[messageIds.size()];
+        Arrays.fill(claims, Claim.CLAIMED);
+        if (messageIds.isEmpty()) return claims;
+
+        // positions that still need Redis
+        int[] remote = new int[claims.length];
+        int remoteCount = 0;
+        // a copy claimed here leaves no pending marker in Redis for a later copy to find
+        Set<String> inBatch = localFirstDeliveries ? new HashSet<>() : null;
+        for (int i = 0; i < claims.length; i++) {
+            String messageId = messageIds.get(i);
+            if (messageId == null || messageId.isEmpty()) {
+                continue;
+            }
+            if (local != null) {
+                if (local.recentlyCommitted(messageId)) {
+                    claims[i] = Claim.DUPLICATE;
+                    continue;
+                }
+            }
+            if (localFirstDeliveries) {
+                if (!inBatch.add(messageId)) {
+                    claims[i] = Claim.IN_PROGRESS;
+                    continue;
+                }
+                if (!redelivered[i] && local.neverCommitted(messageId)) {
+                    continue;
+                }
+            }
+            remote[remoteCount++] = i;
+        }
+        if (remoteCount == 0) return claims;
+
+        List<byte[]> args = Collections.singletonList(pendingTtlMs);
+        try (Jedis jedis = jedisPool.getResource()) {
+            // a Redis restart forgets loaded scripts; load it and run the batch again
+            for (int attempt = 0; attempt < 2; attempt++) {
+                if (claimSha == null) {
+                    claimSha = jedis.scriptLoad(CLAIM_SCRIPT.getBytes(StandardCharsets.UTF_8));
+                }
+                Pipeline pipeline = jedis.pipelined();
+                List<Response<Object>> responses = new ArrayList<>(remoteCount);
+                for (int r = 0; r < remoteCount; r++) {
+                    responses.add(pipeline.evalsha(claimSha,
+                            Collections.singletonList(keyOf(messageIds.get(remote[r]))), args));
+                }
+                pipeline.sync();
+                try {
+                    for (int r = 0; r < remoteCount; r++) {
+                        long result = (Long) responses.get(r).get();
+                        claims[remote[r]] = result == 1 ? Claim.CLAIMED : result == 0 ? Claim.DUPLICATE : Claim.IN_PROGRESS;
+                    }
+                    return claims;
+                } catch (JedisDataException e) {
+                    if (attempt > 0 || e.getMessage() == null || !e.getMessage().startsWith("NOSCRIPT")) {
+                        throw e;
+                    }
+                    claimSha = null;
+                }
+            }
+        } catch (Exception e) {
+            log.error("Redis error claiming {} messages. Allowing through. Error: {}", remoteCount, e.getMessage());
+        }
+        for (int r = 0; r < remoteCount; r++) {
+            claims[remote[r]] = Claim.CLAIMED;
+        }
+        return claims;
+    }
+
+    /** One round trip: processed keys become "1", released ones are deleted. */
+    @Override
+    public void settle(List<String> processedIds, List<String> releasedIds) {
+        if (processedIds.isEmpty() && releasedIds.isEmpty()) return;
+        if (local != null) {
+            for (String messageId : processedIds) {
+                if (messageId != null && !messageId.isEmpty()) {
+                    local.committed(messageId);
+                }
+            }
+        }
+        List<String> resent = Collections.emptyList();
+        try (Jedis jedis = jedisPool.getResource()) {
+            Pipeline pipeline = jedis.pipelined();
+            SetParams seen = SetParams.setParams().ex(ttlSeconds);
+            for (String messageId : processedIds) {
+                if (messageId != null && !messageId.isEmpty()) {
+                    pipeline.set(keyOf(messageId), SEEN, seen);
+                }
+            }
+            resent = resendUnsynced(pipeline);
+            List<byte[]> released = new ArrayList<>(releasedIds.size());
+            for (String messageId : releasedIds) {
+                if (messageId != null && !messageId.isEmpty()) {
+                    released.add(keyOf(messageId));
+                }
+            }
+            if (!released.isEmpty()) {
+                pipeline.del(released.toArray(new byte[0][]));
+            }
+            pipeline.sync();
+        } catch (Exception e) {
+            // unsettled claims expire after the pending TTL
+            log.error("Redis error settling {} claims: {}", processedIds.size() + releasedIds.size(), e.getMessage());
+            queueUnsynced(resent);
+            queueUnsynced(processedIds);
+        }
+    }
+
+    /** Adds up to UNSYNCED_FLUSH queued commits to the pipeline; queue them again if it fails. */
+    private List<String> resendUnsynced(Pipeline pipeline) {
+        if (unsyncedCount.get() == 0) return Collections.emptyList();
+        List<String> resent = new ArrayList<>();
+        // no NX: a claim left pending by the failed settle must become "1" too
+        SetParams seen = SetParams.setParams().ex(ttlSeconds);
+        String messageId;
+        while (resent.size() < UNSYNCED_FLUSH && (messageId = unsynced.poll()) != null) {
+            unsyncedCount.decrementAndGet();
+            pipeline.set(keyOf(messageId), SEEN, seen);
+            resent.add(messageId);
+        }
+        return resent;
+    }
+
+    /** Kept only with the local tier on; without it a failed commit is dropped, as before. */
+    private void queueUnsynced(List<String> messageIds) {
+        if (local == null) return;
+        for (String messageId : messageIds) {
+            if (messageId == null || messageId.isEmpty()) continue;
+            if (unsyncedCount.incrementAndGet() > UNSYNCED_LIMIT) {
+                unsyncedCount.decrementAndGet();
+                return;
+            }
+            unsynced.add(messageId);
+        }
+    }
+
+    private static byte[] keyOf(String messageId) {
+        byte[] id = TimeOrderedId.isTimeOrdered(messageId)
+                ? TimeOrderedId.toBytes(messageId)
+                : messageId.getBytes(StandardCharsets.UTF_8);
+        byte[] key = Arrays.copyOf(KEY_PREFIX, KEY_PREFIX.length + id.length);
+        System.arraycopy(id, 0, key, KEY_PREFIX.length, id.length);
+        return key;
+    }
+
+    @Override
+    public void close() {
+        jedisPool.close();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,66 @@
+package dedup;
+
+import java.util.Arrays;
+
+/**
+ * A Bloom filter over 128-bit IDs that never fills up: IDs go into the
+ * current generation, lookups check the current and the previous one, and
+ * once the current generation holds capacity IDs the previous one is
+ * cleared and they swap. An ID is therefore remembered for at least the
+ * capacity IDs added after it.
+ *
+ * About 10 bits per ID and 7 probes, so roughly 1% of new IDs get a "maybe".
+ * A "no" is always right for anything within that horizon.
+ */
+class RotatingBloomFilter {
+
+    private static final int BITS_PER_ID = 10;
+    private static final int PROBES = 7;
+
+    private final int capacity;
+    private final long bitMask;
+    private long[] current;
+    private long[] previous;
+    private int added;
+
+    RotatingBloomFilter(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        long bits = Long.highestOneBit(Math.max(64L, (long) this.capacity * BITS_PER_ID - 1)) << 1;
+        this.bitMask = bits - 1;
+        this.current = new long[(int) (bits >>> 6)];
+        this.previous = new long[current.length];
+    }
+
+    synchronized void add(long high, long low) {
+        if (added >= capacity) {
+            long[] cleared = previous;
+            Arrays.fill(cleared, 0);
+            previous = current;
+            current = cleared;
+            added = 0;
+        }
+        long h1 = IdBits.mix(high);
+        long h2 = IdBits.mix(low) | 1;
+        for (int i = 0; i < PROBES; i++) {
+            long bit = (h1 + i * h2) & bitMask;
+            current[(int) (bit >>> 6)] |= 1L << bit;
+        }
+        added++;
+    }
+
+    synchronized boolean mightContain(long high, long low) {
+        long h1 = IdBits.mix(high);
+        long h2 = IdBits.mix(low) | 1;
+        return contains(current, h1, h2) || contains(previous, h1, h2);
+    }
+
+    private boolean contains(long[] bits, long h1, long h2) {
+        for (int i = 0; i < PROBES; i++) {
+            long bit = (h1 + i * h2) & bitMask;
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
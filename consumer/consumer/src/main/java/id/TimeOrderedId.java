@@ -0,0 +1,102 @@
+package id;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Decoding half of the server's time-ordered message ID (common id.TimeOrderedId).
+ * Keep the two in sync.
+ *
+ *   high 64 bits: 44-bit epoch millis | 20-bit node
+ *   low  64 bits: 24-bit thread slot  | 40-bit per-thread sequence
+ *
+ * String form: 22 chars of 6 bits from "-0-9A-Z_a-z" (ASCII-ordered).
+ * Binary form: the two longs big-endian, 16 bytes.
+ *
+ * Envelopes from servers still on MESSAGE_ID_SCHEME=uuid carry plain UUIDs;
+ * isTimeOrdered() tells the two apart.
+ */
+public final class TimeOrderedId {
+
+    public static final int STRING_LENGTH = 22;
+    public static final int BINARY_LENGTH = 16;
+
+    private static final int NODE_BITS = 20;
+    private static final int NODE_MASK = (1 << NODE_BITS) - 1;
+
+    private static final char[] ALPHABET =
+            "-0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ_abcdefghijklmnopqrstuvwxyz".toCharArray();
+    private static final byte[] VALUES = new byte[128];
+
+    static {
+        Arrays.fill(VALUES, (byte) -1);
+        for (int i = 0; i < ALPHABET.length; i++) {
+            VALUES[ALPHABET[i]] = (byte) i;
+        }
+    }
+
+    private TimeOrderedId() {}
+
+    public static boolean isTimeOrdered(String id) {
+        if (id == null || id.length() != STRING_LENGTH) {
+            return false;
+        }
+        // 22 * 6 = 132 bits, so the first char only carries the top 2
+        if (value(id.charAt(0)) > 3) {
+            return false;
+        }
+        for (int i = 1; i < STRING_LENGTH; i++) {
+            if (value(id.charAt(i)) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** String form of the two halves, e.g. from a binary envelope. */
+    public static String toString(long high, long low) {
+        char[] chars = new char[STRING_LENGTH];
+        for (int i = 0; i < STRING_LENGTH; i++) {
+            int position = (STRING_LENGTH - 1 - i) * 6;
+            int bits;
+            if (position >= 64) {
+                bits = (int) ((high >>> (position - 64)) & 0x3F);
+            } else if (position + 6 <= 64) {
+                bits = (int) ((low >>> position) & 0x3F);
+            } else {
+                bits = (int) (((low >>> position) | (high << (64 - position))) & 0x3F);
+            }
+            chars[i] = ALPHABET[bits];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Binary form of a string ID.
+     * @throws IllegalArgumentException if the ID is not in this scheme
+     */
+    public static byte[] toBytes(String id) {
+        if (!isTimeOrdered(id)) {
+            throw new IllegalArgumentException("Not a time-ordered ID: " + id);
+        }
+        long high = 0;
+        long low = 0;
+        for (int i = 0; i < STRING_LENGTH; i++) {
+            high = (high << 6) | (low >>> 58);
+            low = (low << 6) | value(id.charAt(i));
+        }
+        return ByteBuffer.allocate(BINARY_LENGTH).putLong(high).putLong(low).array();
+    }
+
+    public static long epochMillisOf(byte[] binary) {
+        return ByteBuffer.wrap(binary).getLong() >>> NODE_BITS;
+    }
+
+    public static int nodeOf(byte[] binary) {
+        return (int) (ByteBuffer.wrap(binary).getLong() & NODE_MASK);
+    }
+
+    private static int value(char c) {
+        return c < 128 ? VALUES[c] : -1;
+    }
+}
@@ -12,6 +12,8 @@ public class ConsumerMetrics {
     private final AtomicLong messagesProcessed = new AtomicLong(0);
     private final AtomicLong messagesFailedAllRetries = new AtomicLong(0);
     private final AtomicLong duplicatesSkipped = new AtomicLong(0);
+    private final AtomicLong acksSent = new AtomicLong(0);
+    private final AtomicLong deliveriesAcked = new AtomicLong(0);
     private volatile long lastHeartbeatMs = System.currentTimeMillis();
     private volatile boolean healthy = true;
 
@@ -32,6 +34,12 @@ public class ConsumerMetrics {
         duplicatesSkipped.incrementAndGet();
     }
 
+    /** One basicAck frame that settled the given number of deliveries. */
+    public void recordAcks(int deliveries) {
+        acksSent.incrementAndGet();
+        deliveriesAcked.addAndGet(deliveries);
+    }
+
     public void setHealthy(boolean healthy) {
         this.healthy = healthy;
     }
@@ -44,6 +52,8 @@ public class ConsumerMetrics {
     public long getMessagesProcessed() { return messagesProcessed.get(); }
     public long getMessagesFailedAllRetries() { return messagesFailedAllRetries.get(); }
     public long getDuplicatesSkipped() { return duplicatesSkipped.get(); }
+    public long getAcksSent() { return acksSent.get(); }
+    public long getDeliveriesAcked() { return deliveriesAcked.get(); }
     public long getLastHeartbeatMs() { return lastHeartbeatMs; }
     public boolean isHealthy() { return healthy; }
 
@@ -6,6 +6,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import websocket.WebSocketBroadcaster;
 
+import java.util.Arrays;
+import java.util.List;
+
 /**
  * Routes a consumed message to the WebSocketBroadcaster with retry logic.
  *
@@ -15,6 +18,10 @@ import websocket.WebSocketBroadcaster;
  * - Validate the message has a roomId
  * - Attempt broadcast, retry on retryable failures
  * - Return ACK / NACK / DISCARD so ConsumerThread knows what to tell RabbitMQ
+ *
+ * process() handles one message and retries it in place; processRun() hands a
+ * run of a room's messages to the broadcaster together, once, and leaves the
+ * retry to the caller's RoomLane.
  */
 public class RoomManager {
 
@@ -77,10 +84,63 @@ public class RoomManager {
         return ProcessResult.NACK;
     }
 
+    /**
+     * Broadcasts a run of one room's messages in a single attempt.
+     * Nothing after the first retryable failure counts as done: the caller
+     * retries from there, in order.
+     * @return per message: ACK, DISCARD, or NACK if it should be retried
+     */
+    public ProcessResult[] processRun(List<ChatMessage> messages) {
+        ProcessResult[] results = new ProcessResult[messages.size()];
+        int from = 0;
+        while (from < messages.size()) {
+            ChatMessage first = messages.get(from);
+            String roomId = first.getRoomId();
+            if (roomId == null || roomId.isEmpty()) {
+                log.warn("Message '{}' has no roomId — discarding.", first.getMessageId());
+                results[from++] = ProcessResult.DISCARD;
+                continue;
+            }
+            int to = from + 1;
+            while (to < messages.size() && roomId.equals(messages.get(to).getRoomId())) {
+                to++;
+            }
+
+            WebSocketBroadcaster.BroadcastException[] failures =
+                    broadcaster.broadcastAll(roomId, messages.subList(from, to));
+            boolean failed = false;
+            for (int k = 0; k < failures.length; k++) {
+                ChatMessage message = messages.get(from + k);
+                WebSocketBroadcaster.BroadcastException e = failures[k];
+                if (e == null) {
+                    results[from + k] = ProcessResult.ACK;
+                } else if (!e.isRetryable()) {
+                    log.error("Non-retryable broadcast failure for message '{}': {}",
+                            message.getMessageId(), e.getMessage());
+                    results[from + k] = ProcessResult.DISCARD;
+                } else {
+                    if (!failed) {
+                        log.warn("Broadcast failed for message '{}', retrying it and the {} after it. Reason: {}",
+                                message.getMessageId(), messages.size() - from - k - 1, e.getMessage());
+                    }
+                    results[from + k] = ProcessResult.NACK;
+                    failed = true;
+                }
+            }
+            if (failed) {
+                // later runs would overtake the failed message
+                Arrays.fill(results, to, results.length, ProcessResult.NACK);
+                break;
+            }
+            from = to;
+        }
+        return results;
+    }
+
     public enum ProcessResult {
         /** Broadcast succeeded → basicAck */
         ACK,
-        /** All retries exhausted → basicNack(requeue=true) */
+        /** All retries exhausted → basicNack(requeue=true), or held on the room's lane when pipelined */
         NACK,
         /** Invalid message or non-retryable error → basicAck to remove from queue */
         DISCARD
@@ -0,0 +1,218 @@
+package websocket;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces broadcasts from all consumer threads into batched POSTs to
+ * Part 1's /internal/broadcast/batch endpoint.
+ *
+ * Flow:
+ * 1. submitAll() queues a run of one room's (roomId, payload) entries as one
+ *    group and returns a future per entry; submit() is a run of one
+ * 2. The flusher thread takes the first group, then keeps collecting groups
+ *    until the next wouldn't fit in maxEntries or lingerMs has passed
+ * 3. The batch is sent with sendAsync, so the next batch can build up while
+ *    this one is in flight
+ * 4. Each future is completed with its entry's counts, or exceptionally if the
+ *    whole request failed
+ *
+ * A group is never split across requests, so a room's run shares one request
+ * and one linger, and Part 1 delivers it in order. A run longer than
+ * maxEntries is queued maxEntries at a time, each part once the one before
+ * it has been delivered.
+ */
+public class BatchBroadcastClient implements BroadcastTransport {
+
+    private static final Logger log = LoggerFactory.getLogger(BatchBroadcastClient.class);
+
+    private final URI batchUri;
+    private final HttpClient httpClient;
+    private final int maxEntries;
+    private final long lingerNanos;
+    private final BlockingQueue<List<Pending>> queue = new LinkedBlockingQueue<>();
+    private final Thread flusher;
+
+    /** A group that didn't fit in the last batch; only touched by the flusher. */
+    private List<Pending> carried;
+
+    private volatile boolean running = true;
+
+    public BatchBroadcastClient(String batchUrl, HttpClient httpClient, int maxEntries, long lingerMs) {
+        this.batchUri = URI.create(batchUrl);
+        this.httpClient = httpClient;
+        this.maxEntries = maxEntries;
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMs);
+        this.flusher = new Thread(this::flushLoop, "broadcast-batcher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    @Override
+    public CompletableFuture<BroadcastBatchCodec.Delivery> submit(String roomId, byte[] payload) {
+        return submitAll(roomId, Collections.singletonList(payload)).get(0);
+    }
+
+    @Override
+    public List<CompletableFuture<BroadcastBatchCodec.Delivery>> submitAll(String roomId, List<byte[]> payloads) {
+        List<Pending> run = new ArrayList<>(payloads.size());
+        List<CompletableFuture<BroadcastBatchCodec.Delivery>> acks = new ArrayList<>(payloads.size());
+        for (byte[] payload : payloads) {
+            Pending pending = new Pending(roomId, payload);
+            run.add(pending);
+            acks.add(pending.future);
+        }
+        enqueue(run, 0);
+        return acks;
+    }
+
+    private void enqueue(List<Pending> run, int from) {
+        if (!running) {
+            fail(run.subList(from, run.size()), new IllegalStateException("Batch broadcaster is closed"));
+            return;
+        }
+        int to = Math.min(run.size(), from + maxEntries);
+        List<Pending> group = run.subList(from, to);
+        queue.add(group);
+        if (to < run.size()) {
+            group.get(group.size() - 1).future.whenComplete((delivery, error) -> {
+                if (error != null) {
+                    fail(run.subList(to, run.size()), error);
+                } else {
+                    enqueue(run, to);
+                }
+            });
+        }
+    }
+
+    private void flushLoop() {
+        while (running || !queue.isEmpty() || carried != null) {
+            List<Pending> batch = new ArrayList<>(maxEntries);
+            try {
+                List<Pending> first = carried != null ? carried : queue.poll(100, TimeUnit.MILLISECONDS);
+                carried = null;
+                if (first == null) {
+                    continue;
+                }
+                batch.addAll(first);
+
+                long deadline = System.nanoTime() + lingerNanos;
+                while (batch.size() < maxEntries) {
+                    long remaining = deadline - System.nanoTime();
+                    List<Pending> next = remaining > 0
+                            ? queue.poll(remaining, TimeUnit.NANOSECONDS)
+                            : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    if (batch.size() + next.size() > maxEntries) {
+                        carried = next;
+                        break;
+                    }
+                    batch.addAll(next);
+                }
+                send(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fail(batch, e);
+                if (carried != null) {
+                    fail(carried, e);
+                    carried = null;
+                }
+                break;
+            }
+        }
+    }
+
+    private static void fail(List<Pending> pendings, Throwable error) {
+        pendings.forEach(p -> p.future.completeExceptionally(error));
+    }
+
+    private void send(List<Pending> batch) {
+        List<String> roomIds = new ArrayList<>(batch.size());
+        List<byte[]> payloads = new ArrayList<>(batch.size());
+        for (Pending pending : batch) {
+            roomIds.add(pending.roomId);
+            payloads.add(pending.payload);
+        }
+
+        byte[] body;
+        try {
+            body = BroadcastBatchCodec.encodeRequest(roomIds, payloads);
+        } catch (RuntimeException e) {
+            fail(batch, e);
+            return;
+        }
+
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(batchUri)
+                .header("Content-Type", BroadcastBatchCodec.CONTENT_TYPE)
+                .timeout(Duration.ofSeconds(10))
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                .build();
+
+        httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray())
+                .whenComplete((response, error) -> {
+                    if (error != null) {
+                        fail(batch, error);
+                        return;
+                    }
+                    if (response.statusCode() != 200) {
+                        Exception failure = new IllegalStateException("Part 1 returned HTTP " + response.statusCode());
+                        fail(batch, failure);
+                        return;
+                    }
+                    try {
+                        BroadcastBatchCodec.Delivery[] deliveries =
+                                BroadcastBatchCodec.decodeResponse(response.body(), batch.size());
+                        for (int i = 0; i < deliveries.length; i++) {
+                            batch.get(i).future.complete(deliveries[i]);
+                        }
+                        log.debug("Batch of {} broadcasts delivered.", batch.size());
+                    } catch (IllegalArgumentException e) {
+                        fail(batch, e);
+                    }
+                });
+    }
+
+    /**
+     * Stops accepting entries and gives the flusher a moment to send what is queued.
+     */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            flusher.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        List<Pending> leftover;
+        while ((leftover = queue.poll()) != null) {
+            fail(leftover, new IllegalStateException("Batch broadcaster is closed"));
+        }
+    }
+
+    private static class Pending {
+        private final String roomId;
+        private final byte[] payload;
+        private final CompletableFuture<BroadcastBatchCodec.Delivery> future = new CompletableFuture<>();
+
+        Pending(String roomId, byte[] payload) {
+            this.roomId = roomId;
+            this.payload = payload;
+        }
+    }
+}
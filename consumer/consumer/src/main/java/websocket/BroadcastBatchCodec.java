@@ -0,0 +1,98 @@
+package websocket;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Binary format of Part 1's batched broadcast endpoint (/internal/broadcast/batch).
+ * Mirrors http.BroadcastBatchCodec on the server. All integers are big-endian.
+ *
+ * Request:
+ *   byte   version (1)
+ *   int    entryCount
+ *   entryCount × {
+ *     short  roomIdLength,  roomId bytes (UTF-8)
+ *     int    payloadLength, payload bytes (UTF-8 text sent to clients as-is)
+ *   }
+ *
+ * Response:
+ *   byte   version (1)
+ *   int    entryCount
+ *   entryCount × { int sent, int failed }
+ */
+public final class BroadcastBatchCodec {
+
+    public static final String CONTENT_TYPE = "application/vnd.chatflow.broadcast-batch";
+    public static final byte VERSION = 1;
+
+    private BroadcastBatchCodec() {}
+
+    public static byte[] encodeRequest(List<String> roomIds, List<byte[]> payloads) {
+        int size = 1 + 4;
+        for (int i = 0; i < roomIds.size(); i++) {
+            size += 2 + roomIds.get(i).length() * 3 + 4 + payloads.get(i).length;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(size);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(VERSION);
+            out.writeInt(roomIds.size());
+            for (int i = 0; i < roomIds.size(); i++) {
+                byte[] roomId = roomIds.get(i).getBytes(StandardCharsets.UTF_8);
+                if (roomId.length > 0xFFFF) {
+                    throw new IllegalArgumentException("roomId too long: " + roomId.length + " bytes");
+                }
+                out.writeShort(roomId.length);
+                out.write(roomId);
+                out.writeInt(payloads.get(i).length);
+                out.write(payloads.get(i));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // in-memory stream, can't happen
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes the per-entry counts.
+     * @return one Delivery per request entry, in request order
+     */
+    public static Delivery[] decodeResponse(byte[] body, int expectedEntries) {
+        try {
+            ByteBuffer buf = ByteBuffer.wrap(body);
+            byte version = buf.get();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported batch version: " + version);
+            }
+            int count = buf.getInt();
+            if (count != expectedEntries) {
+                throw new IllegalArgumentException("Expected " + expectedEntries + " results, got " + count);
+            }
+            Delivery[] deliveries = new Delivery[count];
+            for (int i = 0; i < count; i++) {
+                deliveries[i] = new Delivery(buf.getInt(), buf.getInt());
+            }
+            return deliveries;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated batch response");
+        }
+    }
+
+    public static class Delivery {
+        private final int sent;
+        private final int failed;
+
+        public Delivery(int sent, int failed) {
+            this.sent = sent;
+            this.failed = failed;
+        }
+
+        public int getSent() { return sent; }
+        public int getFailed() { return failed; }
+    }
+}
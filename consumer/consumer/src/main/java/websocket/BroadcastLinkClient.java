@@ -0,0 +1,280 @@
+package websocket;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Persistent WebSocket links to Part 1's BroadcastLinkServer.
+ *
+ * Flow:
+ * 1. submit() sends all of a room's broadcasts on the same link, picked by the
+ *    room ID's hash, and gives each broadcast a correlation ID
+ * 2. The frame is queued behind the link's previous send, so frames are
+ *    pipelined without waiting for acks (java.net.http allows one send at a time)
+ * 3. Part 1 answers every frame with an ack carrying the same correlation ID,
+ *    which completes the caller's future with the delivery counts
+ * 4. If a link closes, every broadcast still waiting for an ack on it fails,
+ *    and the next submit on that link reconnects
+ * 5. A broadcast whose ack hasn't arrived within ACK_TIMEOUT_MS fails with a
+ *    TimeoutException and gives its window slot back, so a half-open link or a
+ *    lost ack can't stall the caller or eat into the window for good
+ *
+ * Part 1 handles a link's frames one after another, so a room's broadcasts are
+ * delivered in the order they were submitted, and submitAll() sends a whole
+ * run without waiting for any ack. In-flight broadcasts per link are bounded
+ * by maxInFlightPerLink.
+ */
+public class BroadcastLinkClient implements BroadcastTransport {
+
+    private static final Logger log = LoggerFactory.getLogger(BroadcastLinkClient.class);
+
+    private static final long RECONNECT_DELAY_MS = 1000;
+    private static final long WINDOW_WAIT_MS = 1000;
+    // same deadline the HTTP transports put on a request
+    private static final long ACK_TIMEOUT_MS = 10_000;
+
+    private final URI linkUri;
+    private final HttpClient httpClient;
+    private final Link[] links;
+    private final AtomicLong nextCorrelationId = new AtomicLong();
+
+    private volatile boolean closed;
+
+    public BroadcastLinkClient(String linkUrl, HttpClient httpClient, int linkCount, int maxInFlightPerLink) {
+        this.linkUri = URI.create(linkUrl);
+        this.httpClient = httpClient;
+        this.links = new Link[linkCount];
+        for (int i = 0; i < linkCount; i++) {
+            links[i] = new Link(i, maxInFlightPerLink);
+        }
+    }
+
+    @Override
+    public CompletableFuture<BroadcastBatchCodec.Delivery> submit(String roomId, byte[] payload) {
+        if (closed) {
+            // don't let a late caller open a new connection on a closed client
+            return CompletableFuture.failedFuture(new IOException("Broadcast links are closed"));
+        }
+        return linkFor(roomId).send(roomId, payload);
+    }
+
+    @Override
+    public List<CompletableFuture<BroadcastBatchCodec.Delivery>> submitAll(String roomId, List<byte[]> payloads) {
+        List<CompletableFuture<BroadcastBatchCodec.Delivery>> acks = new ArrayList<>(payloads.size());
+        CompletableFuture<BroadcastBatchCodec.Delivery> previous = null;
+        for (byte[] payload : payloads) {
+            if (previous != null && previous.isCompletedExceptionally()) {
+                // refused before it was sent (window full, too large): don't let the rest overtake it
+                previous = previous.thenApply(delivery -> delivery);
+            } else {
+                previous = submit(roomId, payload);
+            }
+            acks.add(previous);
+        }
+        return acks;
+    }
+
+    private Link linkFor(String roomId) {
+        return links[Math.floorMod(roomId.hashCode(), links.length)];
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        for (Link link : links) {
+            link.close();
+        }
+    }
+
+    /**
+     * One WebSocket connection plus the broadcasts sent on it that Part 1
+     * has not acked yet.
+     */
+    private class Link implements WebSocket.Listener {
+        private final int index;
+        private final Semaphore window;
+        private final ConcurrentHashMap<Long, CompletableFuture<BroadcastBatchCodec.Delivery>> pending =
+                new ConcurrentHashMap<>();
+        private final ByteArrayOutputStream partial = new ByteArrayOutputStream();
+
+        private CompletableFuture<WebSocket> connecting;
+        private CompletableFuture<WebSocket> sendTail = CompletableFuture.completedFuture(null);
+        private long lastConnectFailureNanos;
+
+        Link(int index, int maxInFlight) {
+            this.index = index;
+            this.window = new Semaphore(maxInFlight);
+        }
+
+        CompletableFuture<BroadcastBatchCodec.Delivery> send(String roomId, byte[] payload) {
+            CompletableFuture<BroadcastBatchCodec.Delivery> future = new CompletableFuture<>();
+            try {
+                if (!window.tryAcquire(WINDOW_WAIT_MS, TimeUnit.MILLISECONDS)) {
+                    future.completeExceptionally(new IOException("Broadcast link " + index + " saturated"));
+                    return future;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                future.completeExceptionally(e);
+                return future;
+            }
+            future.whenComplete((delivery, error) -> window.release());
+
+            long correlationId = nextCorrelationId.incrementAndGet();
+            ByteBuffer frame;
+            try {
+                frame = BroadcastLinkCodec.encodeBroadcast(correlationId, roomId, payload);
+            } catch (IllegalArgumentException e) {
+                future.completeExceptionally(e);
+                return future;
+            }
+            pending.put(correlationId, future);
+            future.orTimeout(ACK_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                    .whenComplete((delivery, error) -> {
+                        if (error instanceof TimeoutException) {
+                            pending.remove(correlationId, future);
+                            log.warn("Broadcast link {}: no ack for correlation ID {} within {} ms",
+                                    index, correlationId, ACK_TIMEOUT_MS);
+                        }
+                    });
+
+            CompletableFuture<WebSocket> sent;
+            synchronized (this) {
+                // the previous send's outcome doesn't matter, only that it has finished
+                sent = sendTail.handle((ws, error) -> null)
+                        .thenCompose(ignored -> connection())
+                        .thenCompose(ws -> ws.sendBinary(frame, true));
+                sendTail = sent;
+            }
+            sent.whenComplete((ws, error) -> {
+                if (error != null) {
+                    fail(correlationId, error);
+                }
+            });
+            return future;
+        }
+
+        private synchronized CompletableFuture<WebSocket> connection() {
+            if (connecting != null && !connecting.isDone()) {
+                return connecting;
+            }
+            if (connecting != null && !connecting.isCompletedExceptionally()) {
+                WebSocket ws = connecting.join();
+                if (!ws.isOutputClosed() && !ws.isInputClosed()) {
+                    return connecting;
+                }
+            }
+            if (lastConnectFailureNanos != 0
+                    && System.nanoTime() - lastConnectFailureNanos < TimeUnit.MILLISECONDS.toNanos(RECONNECT_DELAY_MS)) {
+                return CompletableFuture.failedFuture(new IOException("Broadcast link " + index + " is down"));
+            }
+
+            partial.reset();
+            connecting = httpClient.newWebSocketBuilder()
+                    .connectTimeout(Duration.ofSeconds(5))
+                    .buildAsync(linkUri, this);
+            connecting.whenComplete((ws, error) -> {
+                if (error != null) {
+                    synchronized (this) {
+                        lastConnectFailureNanos = System.nanoTime();
+                    }
+                    log.warn("Broadcast link {} to {} failed to connect: {}", index, linkUri, error.getMessage());
+                } else {
+                    log.info("Broadcast link {} connected to {}", index, linkUri);
+                }
+            });
+            return connecting;
+        }
+
+        @Override
+        public void onOpen(WebSocket webSocket) {
+            webSocket.request(1);
+        }
+
+        @Override
+        public CompletionStage<?> onBinary(WebSocket webSocket, ByteBuffer data, boolean last) {
+            // acks are tiny, but a message may still arrive in several parts
+            ByteBuffer frame = data;
+            if (!last || partial.size() > 0) {
+                byte[] chunk = new byte[data.remaining()];
+                data.get(chunk);
+                partial.write(chunk, 0, chunk.length);
+                frame = last ? ByteBuffer.wrap(partial.toByteArray()) : null;
+            }
+            if (frame != null) {
+                partial.reset();
+                try {
+                    BroadcastLinkCodec.Ack ack = BroadcastLinkCodec.decodeAck(frame);
+                    CompletableFuture<BroadcastBatchCodec.Delivery> future = pending.remove(ack.getCorrelationId());
+                    if (future != null) {
+                        future.complete(ack.getDelivery());
+                    }
+                } catch (IllegalArgumentException e) {
+                    log.warn("Malformed ack on broadcast link {}: {}", index, e.getMessage());
+                }
+            }
+            webSocket.request(1);
+            return null;
+        }
+
+        @Override
+        public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+            webSocket.request(1);
+            return null;
+        }
+
+        @Override
+        public CompletionStage<?> onClose(WebSocket webSocket, int statusCode, String reason) {
+            log.warn("Broadcast link {} closed by Part 1: {} {}", index, statusCode, reason);
+            failAll(new IOException("Broadcast link " + index + " closed"));
+            return null;
+        }
+
+        @Override
+        public void onError(WebSocket webSocket, Throwable error) {
+            log.warn("Broadcast link {} error: {}", index, error.getMessage());
+            failAll(error);
+        }
+
+        private void fail(long correlationId, Throwable error) {
+            CompletableFuture<BroadcastBatchCodec.Delivery> future = pending.remove(correlationId);
+            if (future != null) {
+                future.completeExceptionally(error);
+            }
+        }
+
+        private void failAll(Throwable error) {
+            for (Long correlationId : pending.keySet()) {
+                fail(correlationId, error);
+            }
+        }
+
+        void close() {
+            CompletableFuture<WebSocket> current;
+            synchronized (this) {
+                current = connecting;
+            }
+            if (current != null && current.isDone() && !current.isCompletedExceptionally()) {
+                current.join().sendClose(WebSocket.NORMAL_CLOSURE, "consumer shutting down");
+            }
+            failAll(new IOException("Broadcast link closed"));
+        }
+    }
+}
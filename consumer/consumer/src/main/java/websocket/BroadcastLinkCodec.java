@@ -0,0 +1,70 @@
+package websocket;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Frame format of the persistent broadcast link to Part 1 (BroadcastLinkClient).
+ * Mirrors http.BroadcastLinkCodec on the server. Every frame is one binary
+ * WebSocket message; integers are big-endian.
+ *
+ * Broadcast (consumer → Part 1):
+ *   byte   version (1)
+ *   long   correlationId
+ *   short  roomIdLength, roomId bytes (UTF-8)
+ *   rest   payload bytes (UTF-8 text sent to clients as-is)
+ *
+ * Ack (Part 1 → consumer):
+ *   byte   version (1)
+ *   long   correlationId
+ *   int    sent
+ *   int    failed
+ */
+public final class BroadcastLinkCodec {
+
+    public static final byte VERSION = 1;
+
+    private BroadcastLinkCodec() {}
+
+    public static ByteBuffer encodeBroadcast(long correlationId, String roomId, byte[] payload) {
+        byte[] room = roomId.getBytes(StandardCharsets.UTF_8);
+        if (room.length > 0xFFFF) {
+            throw new IllegalArgumentException("roomId too long: " + room.length + " bytes");
+        }
+        ByteBuffer buf = ByteBuffer.allocate(1 + 8 + 2 + room.length + payload.length);
+        buf.put(VERSION);
+        buf.putLong(correlationId);
+        buf.putShort((short) room.length);
+        buf.put(room);
+        buf.put(payload);
+        buf.flip();
+        return buf;
+    }
+
+    public static Ack decodeAck(ByteBuffer frame) {
+        try {
+            byte version = frame.get();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported link version: " + version);
+            }
+            long correlationId = frame.getLong();
+            return new Ack(correlationId, new BroadcastBatchCodec.Delivery(frame.getInt(), frame.getInt()));
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated ack frame");
+        }
+    }
+
+    public static class Ack {
+        private final long correlationId;
+        private final BroadcastBatchCodec.Delivery delivery;
+
+        public Ack(long correlationId, BroadcastBatchCodec.Delivery delivery) {
+            this.correlationId = correlationId;
+            this.delivery = delivery;
+        }
+
+        public long getCorrelationId() { return correlationId; }
+        public BroadcastBatchCodec.Delivery getDelivery() { return delivery; }
+    }
+}
@@ -0,0 +1,41 @@
+package websocket;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * One way of getting a broadcast to one Part 1 node.
+ * Implemented by JsonBroadcastClient, BatchBroadcastClient and BroadcastLinkClient.
+ */
+public interface BroadcastTransport {
+
+    /**
+     * Hands the broadcast to Part 1.
+     * @param payload UTF-8 JSON that Part 1 sends to the room's clients as-is
+     * @return completes with Part 1's delivery counts, or exceptionally if the call failed
+     */
+    CompletableFuture<BroadcastBatchCodec.Delivery> submit(String roomId, byte[] payload);
+
+    /**
+     * Hands a run of one room's broadcasts to Part 1, to be delivered in the
+     * given order. By default each one is submitted once the one before it
+     * has been acked, and fails without being sent if that one failed;
+     * transports that keep a room's broadcasts in order on the wire send the
+     * whole run at once.
+     * @return one future per payload, as for submit()
+     */
+    default List<CompletableFuture<BroadcastBatchCodec.Delivery>> submitAll(String roomId, List<byte[]> payloads) {
+        List<CompletableFuture<BroadcastBatchCodec.Delivery>> acks = new ArrayList<>(payloads.size());
+        CompletableFuture<BroadcastBatchCodec.Delivery> previous = null;
+        for (byte[] payload : payloads) {
+            previous = previous == null
+                    ? submit(roomId, payload)
+                    : previous.thenCompose(delivery -> submit(roomId, payload));
+            acks.add(previous);
+        }
+        return acks;
+    }
+
+    void close();
+}
@@ -0,0 +1,72 @@
+package websocket;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * One POST per message to Part 1's /internal/broadcast.
+ * Body: { "roomId": "room1", "message": "<serialized message JSON>" }
+ */
+public class JsonBroadcastClient implements BroadcastTransport {
+
+    private final URI broadcastUri;
+    private final HttpClient httpClient;
+    private final ObjectMapper objectMapper;
+
+    public JsonBroadcastClient(String broadcastUrl, HttpClient httpClient, ObjectMapper objectMapper) {
+        this.broadcastUri = URI.create(broadcastUrl);
+        this.httpClient = httpClient;
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public CompletableFuture<BroadcastBatchCodec.Delivery> submit(String roomId, byte[] payload) {
+        String requestBody;
+        try {
+            Map<String, String> body = new HashMap<>();
+            body.put("roomId", roomId);
+            body.put("message", new String(payload, StandardCharsets.UTF_8));
+            requestBody = objectMapper.writeValueAsString(body);
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(broadcastUri)
+                .header("Content-Type", "application/json")
+                .timeout(Duration.ofSeconds(10))
+                .POST(HttpRequest.BodyPublishers.ofString(requestBody))
+                .build();
+
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                .thenApply(response -> {
+                    if (response.statusCode() != 200) {
+                        // Part 1 might be temporarily overloaded
+                        throw new IllegalStateException(
+                                "Part 1 returned HTTP " + response.statusCode() + ": " + response.body());
+                    }
+                    try {
+                        JsonNode result = objectMapper.readTree(response.body());
+                        return new BroadcastBatchCodec.Delivery(result.path("sent").asInt(), result.path("failed").asInt());
+                    } catch (IOException e) {
+                        throw new IllegalStateException("Unreadable Part 1 response: " + response.body());
+                    }
+                });
+    }
+
+    @Override
+    public void close() {
+        // nothing held open, HttpClient is shared
+    }
+}
@@ -1,100 +1,269 @@
 package websocket;
 
+import cluster.ClusterMembership;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import config.AppConfig;
 import model.ChatMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.net.URI;
 import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
 import java.time.Duration;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
- * Broadcasts a message by calling Part 1's internal HTTP endpoint.
+ * Broadcasts a message by calling Part 1's internal endpoints.
  *
  * Part 1 owns the WebSocket connections. This class is the bridge:
- * it serializes the message and POSTs it to Part 1, which then
+ * it serializes the message and hands it to Part 1, which then
  * iterates its roomMapping and sends to all connected clients.
  *
- * POST http://part1-host:8081/internal/broadcast
- * Body: { "roomId": "room1", "message": "<serialized message JSON>" }
+ * How a message reaches a node depends on part1.broadcast.mode:
+ *   json   → JsonBroadcastClient, one POST per message to /internal/broadcast
+ *   binary → BatchBroadcastClient, many messages per POST to /internal/broadcast/batch
+ *   link   → BroadcastLinkClient, pipelined over persistent WebSocket links, acked by correlation ID
  *
- * Thread safety: HttpClient is thread-safe and shared across all consumer threads.
+ * Which nodes it reaches:
+ *   - by default, the single node behind the configured Part 1 URL
+ *   - with part1.cluster.enabled, every node that ClusterMembership says has
+ *     members in the room, in parallel; nodes without members are skipped.
+ *     Transports are kept per node URL, so a node restarted on the same
+ *     address reuses its transport; one no broadcast has used for
+ *     NODE_IDLE_MINUTES (the node left, or came back elsewhere) is closed.
+ *
+ * broadcast() blocks until every target node has answered for this message,
+ * or until the transport gives up on it (10s for every transport).
+ * broadcastAll() hands a run of one room's messages to each node's transport
+ * together (BroadcastTransport.submitAll) and waits once for all of them, so
+ * a busy room has more than one message in flight.
+ *
+ * Thread safety: HttpClient and the transports are thread-safe and shared
+ * across all consumer threads.
  */
 public class WebSocketBroadcaster {
 
     private static final Logger log = LoggerFactory.getLogger(WebSocketBroadcaster.class);
 
-    private final String broadcastUrl;
+    private static final long NODE_IDLE_MINUTES = 10;
+
+    private final AppConfig config;
+    private final String mode;
     private final HttpClient httpClient;
     private final ObjectMapper objectMapper;
 
+    // single-node mode
+    private final BroadcastTransport transport;
+
+    // cluster mode: one transport per Part 1 node URL, created on first use, closed once idle
+    private final ClusterMembership membership;
+    private final ConcurrentHashMap<String, NodeTransport> nodeTransports = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService nodeEvictor;
+
     public WebSocketBroadcaster(AppConfig config) {
-        this.broadcastUrl = config.getPart1BroadcastUrl();
+        this.config = config;
+        this.mode = config.getPart1BroadcastMode().toLowerCase();
         this.httpClient = HttpClient.newBuilder()
                 .connectTimeout(Duration.ofSeconds(5))
                 .build();
         this.objectMapper = new ObjectMapper();
-        log.info("WebSocketBroadcaster initialized. Will call: {}", broadcastUrl);
+
+        if (config.isPart1ClusterEnabled()) {
+            this.membership = new ClusterMembership(config);
+            this.transport = null;
+            this.nodeEvictor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "broadcast-node-evictor");
+                t.setDaemon(true);
+                return t;
+            });
+            nodeEvictor.scheduleWithFixedDelay(this::evictIdleNodes, 1, 1, TimeUnit.MINUTES);
+            log.info("WebSocketBroadcaster initialized in {} mode. Targets: nodes from Redis membership", mode);
+        } else {
+            this.membership = null;
+            this.nodeEvictor = null;
+            this.transport = createTransport(config.getPart1BroadcastUrl(),
+                    config.getPart1BroadcastBatchUrl(), config.getPart1BroadcastLinkUrl());
+            log.info("WebSocketBroadcaster initialized in {} mode. Will call: {}", mode,
+                    targetUrl(config.getPart1BroadcastUrl(), config.getPart1BroadcastBatchUrl(),
+                            config.getPart1BroadcastLinkUrl()));
+        }
     }
 
     /**
-     * Posts the message to Part 1's broadcast endpoint.
+     * Delivers the message to every Part 1 node that hosts the room.
      *
-     * @throws BroadcastException if the HTTP call fails or Part 1 returns a non-200 response.
+     * @throws BroadcastException if any target node can't be reached or returns an error.
      */
     public void broadcast(String roomId, ChatMessage message) throws BroadcastException {
-        // Serialize the message payload (this is what Part 1 will send to WebSocket clients)
-        String messageJson;
-        try {
-            messageJson = objectMapper.writeValueAsString(message);
-        } catch (Exception e) {
-            throw new BroadcastException("Failed to serialize message: " + e.getMessage(), false);
+        BroadcastException failure = broadcastAll(roomId, Collections.singletonList(message))[0];
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Delivers a run of the room's messages, in order, to every Part 1 node
+     * that hosts the room, and waits once for all of them.
+     *
+     * @return per message, null if every target node delivered it, or why it failed
+     */
+    public BroadcastException[] broadcastAll(String roomId, List<ChatMessage> messages) {
+        BroadcastException[] failures = new BroadcastException[messages.size()];
+
+        // Serialize the message payloads (this is what Part 1 will send to WebSocket clients)
+        List<byte[]> payloads = new ArrayList<>(messages.size());
+        List<Integer> sent = new ArrayList<>(messages.size());
+        for (int i = 0; i < messages.size(); i++) {
+            try {
+                payloads.add(objectMapper.writeValueAsBytes(messages.get(i)));
+                sent.add(i);
+            } catch (Exception e) {
+                failures[i] = new BroadcastException("Failed to serialize message: " + e.getMessage(), false);
+            }
+        }
+        if (payloads.isEmpty()) {
+            return failures;
+        }
+
+        List<List<CompletableFuture<BroadcastBatchCodec.Delivery>>> acks = new ArrayList<>();
+        if (membership == null) {
+            acks.add(transport.submitAll(roomId, payloads));
+        } else {
+            List<ClusterMembership.Node> nodes;
+            try {
+                nodes = membership.nodesFor(roomId);
+            } catch (IllegalStateException e) {
+                return failAll(failures, sent, new BroadcastException(e.getMessage(), true));
+            }
+            if (nodes.isEmpty()) {
+                log.debug("No node has members in room '{}', nothing to broadcast.", roomId);
+                return failures;
+            }
+            for (ClusterMembership.Node node : nodes) {
+                // node IDs are new on every Part 1 start; the URL is what stays the same
+                NodeTransport nodeTransport = nodeTransports.computeIfAbsent(
+                        targetUrl(node.getBroadcastUrl(), node.getBatchUrl(), node.getLinkUrl()),
+                        url -> new NodeTransport(
+                                createTransport(node.getBroadcastUrl(), node.getBatchUrl(), node.getLinkUrl())));
+                nodeTransport.lastUsedNanos = System.nanoTime();
+                acks.add(nodeTransport.transport.submitAll(roomId, payloads));
+            }
         }
 
-        // Build the request body
-        String requestBody;
         try {
-            Map<String, String> body = new HashMap<>();
-            body.put("roomId", roomId);
-            body.put("message", messageJson);
-            requestBody = objectMapper.writeValueAsString(body);
-        } catch (Exception e) {
-            throw new BroadcastException("Failed to build request body: " + e.getMessage(), false);
+            CompletableFuture.allOf(acks.stream().flatMap(List::stream).toArray(CompletableFuture[]::new))
+                    .handle((ignored, error) -> null)
+                    .get();
+        } catch (ExecutionException e) {
+            // handle() above never completes exceptionally
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return failAll(failures, sent, new BroadcastException("Interrupted waiting for Part 1", true));
+        }
+
+        for (List<CompletableFuture<BroadcastBatchCodec.Delivery>> nodeAcks : acks) {
+            for (int k = 0; k < nodeAcks.size(); k++) {
+                int i = sent.get(k);
+                if (failures[i] == null && nodeAcks.get(k).isCompletedExceptionally()) {
+                    failures[i] = failure(roomId, nodeAcks.get(k));
+                }
+            }
         }
+        log.debug("Broadcast of {} message(s) to room '{}' answered by {} node(s).",
+                payloads.size(), roomId, acks.size());
+        return failures;
+    }
 
-        // POST to Part 1
+    private static BroadcastException failure(String roomId, CompletableFuture<?> ack) {
+        Throwable cause;
         try {
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(broadcastUrl))
-                    .header("Content-Type", "application/json")
-                    .timeout(Duration.ofSeconds(10))
-                    .POST(HttpRequest.BodyPublishers.ofString(requestBody))
-                    .build();
-
-            HttpResponse<String> response = httpClient.send(request,
-                    HttpResponse.BodyHandlers.ofString());
-
-            if (response.statusCode() == 200) {
-                log.debug("Broadcast to room '{}' succeeded. Part 1 response: {}",
-                        roomId, response.body());
-            } else {
-                // Non-200 from Part 1 — retryable (Part 1 might be temporarily overloaded)
-                throw new BroadcastException(
-                        "Part 1 returned HTTP " + response.statusCode() + ": " + response.body(),
-                        true);
+            ack.join();
+            return null;
+        } catch (CompletionException e) {
+            cause = e.getCause() != null ? e.getCause() : e;
+        } catch (RuntimeException e) {
+            cause = e;
+        }
+        if (cause instanceof TimeoutException) {
+            // no ack within the transport's deadline; the node may or may not have delivered
+            return new BroadcastException("Part 1 did not ack broadcast to room '" + roomId + "' in time", true);
+        }
+        // Network failure, non-200, link closed, malformed response — all retryable.
+        // A retry goes to every node again, so nodes that already delivered may deliver twice.
+        return new BroadcastException("Call to Part 1 failed: " + cause.getMessage(), true);
+    }
+
+    private static BroadcastException[] failAll(BroadcastException[] failures, List<Integer> sent,
+                                                BroadcastException failure) {
+        for (int i : sent) {
+            failures[i] = failure;
+        }
+        return failures;
+    }
+
+    private BroadcastTransport createTransport(String broadcastUrl, String batchUrl, String linkUrl) {
+        switch (mode) {
+            case "binary":
+                return new BatchBroadcastClient(batchUrl, httpClient,
+                        config.getPart1BroadcastBatchMaxEntries(), config.getPart1BroadcastBatchLingerMs());
+            case "link":
+                return new BroadcastLinkClient(linkUrl, httpClient,
+                        config.getPart1BroadcastLinkCount(), config.getPart1BroadcastLinkMaxInFlight());
+            default:
+                return new JsonBroadcastClient(broadcastUrl, httpClient, objectMapper);
+        }
+    }
+
+    /**
+     * Closes transports to nodes nothing has been broadcast to for a while.
+     * A broadcast that picked one up just before it closed fails and is retried on a new one.
+     */
+    private void evictIdleNodes() {
+        long cutoff = System.nanoTime() - TimeUnit.MINUTES.toNanos(NODE_IDLE_MINUTES);
+        nodeTransports.forEach((url, nodeTransport) -> {
+            if (nodeTransport.lastUsedNanos - cutoff < 0 && nodeTransports.remove(url, nodeTransport)) {
+                log.info("Closing broadcast transport to {}, unused for {} minutes", url, NODE_IDLE_MINUTES);
+                nodeTransport.transport.close();
             }
+        });
+    }
+
+    private String targetUrl(String broadcastUrl, String batchUrl, String linkUrl) {
+        switch (mode) {
+            case "binary": return batchUrl;
+            case "link":   return linkUrl;
+            default:       return broadcastUrl;
+        }
+    }
+
+    public void close() {
+        if (transport != null) {
+            transport.close();
+        }
+        if (nodeEvictor != null) {
+            nodeEvictor.shutdownNow();
+        }
+        nodeTransports.values().forEach(nodeTransport -> nodeTransport.transport.close());
+        if (membership != null) {
+            membership.close();
+        }
+    }
+
+    private static class NodeTransport {
+        private final BroadcastTransport transport;
+        private volatile long lastUsedNanos = System.nanoTime();
 
-        } catch (BroadcastException e) {
-            throw e; // rethrow as-is
-        } catch (Exception e) {
-            // Network failure, timeout, connection refused — all retryable
-            throw new BroadcastException("HTTP call to Part 1 failed: " + e.getMessage(), true);
+        NodeTransport(BroadcastTransport transport) {
+            this.transport = transport;
         }
     }
 
@@ -113,4 +282,4 @@ public class WebSocketBroadcaster {
 
         public boolean isRetryable() { return retryable; }
     }
-}
\ No newline at end of file
+}
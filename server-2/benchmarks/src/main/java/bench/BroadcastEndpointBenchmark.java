@@ -0,0 +1,122 @@
+package bench;
+
+import http.HttpExecutionMode;
+import http.HttpServerManager;
+import metrics.ServerMetrics;
+import org.java_websocket.WebSocket;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import websocket.RoomBroadcaster;
+import websocket.RoomRegistry;
+
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Broadcast endpoint under many concurrent consumer POSTs, platform pool vs
+ * virtual threads.
+ *
+ * The room's members are stub connections whose sendFrame blocks for
+ * sendMicros, standing in for the blocking WebSocket writes the servlet does.
+ * The pool is kept small (maxThreads) the way it would be sized on a
+ * 2-vCPU box; 256 benchmark threads POST at the same time.
+ *
+ * Throughput gives requests/ms, SampleTime gives the latency percentiles.
+ * VIRTUAL only differs from PLATFORM on a Java 21+ JVM.
+ *
+ * Run: java -jar benchmarks/target/benchmarks.jar BroadcastEndpointBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Threads(256)
+@Fork(1)
+public class BroadcastEndpointBenchmark {
+
+    private static final int PORT = 18081;
+    private static final int ROOM_MEMBERS = 20;
+
+    @Param({"PLATFORM", "VIRTUAL"})
+    public HttpExecutionMode mode;
+
+    @Param({"16"})
+    public int maxThreads;
+
+    @Param({"200"})
+    public long sendMicros;
+
+    private HttpServerManager server;
+    private HttpClient client;
+    private HttpRequest request;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        ServerMetrics metrics = new ServerMetrics();
+        RoomRegistry registry = new RoomRegistry();
+        for (int i = 0; i < ROOM_MEMBERS; i++) {
+            registry.join(blockingConnection(sendMicros), "7");
+        }
+        server = new HttpServerManager(PORT, mode, maxThreads,
+                new RoomBroadcaster(registry, null, metrics), null, metrics);
+        server.start();
+
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        String body = "{\"roomId\":\"7\",\"message\":\"{\\\"message\\\":\\\"Sounds good!\\\"}\"}";
+        request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:" + PORT + "/internal/broadcast"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        server.stop();
+    }
+
+    @Benchmark
+    public int broadcast() throws Exception {
+        HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+        return response.statusCode();
+    }
+
+    /** A connection that is always open and takes sendMicros to accept a frame. */
+    private static WebSocket blockingConnection(long sendMicros) {
+        return (WebSocket) Proxy.newProxyInstance(
+                WebSocket.class.getClassLoader(), new Class<?>[]{WebSocket.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "isOpen":
+                            return true;
+                        case "sendFrame":
+                            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(sendMicros));
+                            return null;
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        default:
+                            return null;
+                    }
+                });
+    }
+}
@@ -0,0 +1,85 @@
+package bench;
+
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.enums.Role;
+import org.java_websocket.framing.Framedata;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import websocket.EncodedTextFrame;
+import websocket.SharedFrameDraft;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of turning one broadcast into wire bytes for every member of a room.
+ *
+ *   perRecipient - what conn.send(message) does: createFrames + createBinaryFrame per socket
+ *   sharedFrame  - EncodedTextFrame built once, SharedFrameDraft hands out views per socket
+ *
+ * Each member gets its own draft instance, the same way every WebSocketImpl
+ * holds its own copyInstance() of the server's draft.
+ *
+ * Run: java -jar benchmarks/target/benchmarks.jar BroadcastFrameBenchmark -prof gc
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BroadcastFrameBenchmark {
+
+    @Param({"10", "100", "1000", "10000"})
+    public int members;
+
+    private String message;
+    private Draft_6455[] plainDrafts;
+    private SharedFrameDraft[] sharedDrafts;
+
+    @Setup
+    public void setup() {
+        message = "{\"messageId\":\"3f1c9a2e-8d4b-4f7a-9c1e-2b6d8a0f5e13\",\"roomId\":\"7\","
+                + "\"userId\":\"48213\",\"username\":\"user48213\",\"message\":\"Sounds good!\","
+                + "\"timestamp\":\"2026-02-14T18:21:07.412Z\",\"messageType\":\"TEXT\","
+                + "\"serverId\":\"server-1a2b3c4d\",\"clientIp\":\"10.0.1.23\"}";
+
+        SharedFrameDraft template = new SharedFrameDraft();
+        plainDrafts = new Draft_6455[members];
+        sharedDrafts = new SharedFrameDraft[members];
+        for (int i = 0; i < members; i++) {
+            plainDrafts[i] = new Draft_6455();
+            plainDrafts[i].setParseMode(Role.SERVER);
+            sharedDrafts[i] = (SharedFrameDraft) template.copyInstance();
+            sharedDrafts[i].setParseMode(Role.SERVER);
+        }
+    }
+
+    @Benchmark
+    public void perRecipient(Blackhole bh) {
+        for (Draft_6455 draft : plainDrafts) {
+            List<Framedata> frames = draft.createFrames(message, false);
+            for (Framedata frame : frames) {
+                bh.consume(draft.createBinaryFrame(frame));
+            }
+        }
+    }
+
+    @Benchmark
+    public void sharedFrame(Blackhole bh) {
+        EncodedTextFrame frame = EncodedTextFrame.of(message);
+        for (SharedFrameDraft draft : sharedDrafts) {
+            bh.consume(draft.createBinaryFrame(frame));
+        }
+    }
+}
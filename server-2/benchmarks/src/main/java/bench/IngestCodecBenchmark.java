@@ -0,0 +1,99 @@
+package bench;
+
+import codec.IngestCodec;
+import id.MessageIdGenerator;
+import id.MessageIdScheme;
+import model.ChatMessage;
+import model.MessageEnvelope;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import util.JsonUtil;
+import validator.MessageValidator;
+import validator.ValidationResult;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of turning one client frame into publishable envelope bytes.
+ *
+ *   legacy    - ObjectMapper → ChatMessage → validate → MessageEnvelope → toJson → getBytes
+ *   streaming       - IngestCodec.decode + encodeEnvelope (JSON)
+ *   streamingBinary - IngestCodec.decode + encodeEnvelopeBinary (EnvelopeCodec)
+ *
+ * Compare gc.alloc.rate.norm (bytes per message) as well as the time.
+ *
+ * Run: java -jar benchmarks/target/benchmarks.jar IngestCodecBenchmark -prof gc
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IngestCodecBenchmark {
+
+    private static final String SERVER_ID = "server-1a2b3c4d";
+    private static final String CLIENT_IP = "10.0.1.23";
+    private static final String ROOM_ID = "7";
+
+    private String frame;
+    private IngestCodec codec;
+    private MessageIdGenerator messageIds;
+
+    @Setup
+    public void setup() {
+        frame = "{\"username\":\"user48213\",\"userId\":\"48213\",\"message\":\"Sounds good, see you at the standup!\","
+                + "\"messageType\":\"TEXT\",\"correlationId\":\"k3x9q1\"}";
+        codec = new IngestCodec();
+        messageIds = MessageIdScheme.TIME_ORDERED.newGenerator(SERVER_ID);
+    }
+
+    @Benchmark
+    public byte[] legacy() throws Exception {
+        ChatMessage chatMessage = JsonUtil.fromJson(frame, ChatMessage.class);
+        ValidationResult result = MessageValidator.validate(chatMessage);
+        if (!result.isValid()) {
+            throw new IllegalStateException(result.getMessage());
+        }
+        MessageEnvelope envelope = new MessageEnvelope(
+                UUID.randomUUID().toString(),
+                ROOM_ID,
+                chatMessage.getUserId(),
+                chatMessage.getUsername(),
+                chatMessage.getMessage(),
+                Instant.now().toString(),
+                chatMessage.getMessageType(),
+                SERVER_ID,
+                CLIENT_IP);
+        return JsonUtil.toJson(envelope).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] streaming() {
+        String error = codec.decode(frame);
+        if (error != null) {
+            throw new IllegalStateException(error);
+        }
+        return codec.encodeEnvelope(messageIds.nextId(), ROOM_ID, System.currentTimeMillis(), SERVER_ID, CLIENT_IP);
+    }
+
+    @Benchmark
+    public byte[] streamingBinary() {
+        String error = codec.decode(frame);
+        if (error != null) {
+            throw new IllegalStateException(error);
+        }
+        return codec.encodeEnvelopeBinary(messageIds.nextId(), ROOM_ID, System.currentTimeMillis(), SERVER_ID, CLIENT_IP);
+    }
+}
@@ -0,0 +1,197 @@
+package bench;
+
+import codec.EnvelopeFormat;
+import id.MessageIdScheme;
+import metrics.ServerMetrics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import rabbitmq.MessagePublisher;
+import websocket.OutboundBuffer;
+import websocket.OverflowPolicy;
+import websocket.ReactorGroup;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loopback WebSocket ingress against the number of reactors (ReactorGroup).
+ *
+ *   handshake - TCP connect + HTTP upgrade + 101, then an RST close
+ *   message   - one chat frame sent on a persistent connection, until its ack
+ *               comes back (the publisher confirms immediately, so this is the
+ *               selector + decoder + codec path only)
+ *
+ * Clients are raw sockets speaking just enough RFC 6455, so the client side
+ * doesn't need a thread per connection. Reactors only help with more than one
+ * core; run it on the instance type in question, e.g.
+ *
+ *   java -jar benchmarks/target/benchmarks.jar IngressReactorBenchmark -p reactors=1,2,4,8 -t 64
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 3, time = 5)
+@Threads(32)
+@Fork(1)
+public class IngressReactorBenchmark {
+
+    private static final int PORT = 18084;
+    private static final byte[] UPGRADE = ("GET /chat/1 HTTP/1.1\r\n"
+            + "Host: localhost\r\n"
+            + "Upgrade: websocket\r\n"
+            + "Connection: Upgrade\r\n"
+            + "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n"
+            + "Sec-WebSocket-Version: 13\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+
+    @Param({"1", "2", "4"})
+    public int reactors;
+
+    private ReactorGroup ingress;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        MessagePublisher confirmAll = new MessagePublisher() {
+            @Override
+            public boolean submit(String routingKey, byte[] body, PublishCallback callback) {
+                callback.onConfirmed();
+                return true;
+            }
+
+            @Override
+            public boolean isConnected() {
+                return true;
+            }
+        };
+        int decoders = Math.max(1, Runtime.getRuntime().availableProcessors() / reactors);
+        ingress = new ReactorGroup(PORT, reactors, decoders, confirmAll, new ServerMetrics(),
+                new OutboundBuffer.Limits(1 << 20, 1000, OverflowPolicy.DROP_OLDEST),
+                MessageIdScheme.TIME_ORDERED, EnvelopeFormat.JSON, null, null, null, null);
+        ingress.start();
+        // the selectors bind asynchronously
+        Thread.sleep(500);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        ingress.stop(1000);
+    }
+
+    @Benchmark
+    public int handshake() throws IOException {
+        try (Socket socket = new Socket()) {
+            // RST on close, so a long run doesn't pile up TIME_WAIT ports
+            socket.setSoLinger(true, 0);
+            socket.connect(new InetSocketAddress("localhost", PORT));
+            return upgrade(socket);
+        }
+    }
+
+    @Benchmark
+    public int message(Connection connection) throws IOException {
+        return connection.roundTrip();
+    }
+
+    /** One persistent client connection per benchmark thread. */
+    @State(Scope.Thread)
+    public static class Connection {
+        private Socket socket;
+        private OutputStream out;
+        private DataInputStream in;
+        private byte[] frame;
+
+        @Setup(Level.Trial)
+        public void connect(IngressReactorBenchmark benchmark) throws IOException {
+            socket = new Socket("localhost", PORT);
+            socket.setTcpNoDelay(true);
+            upgrade(socket);
+            out = socket.getOutputStream();
+            in = new DataInputStream(socket.getInputStream());
+            frame = maskedTextFrame(("{\"username\":\"user48213\",\"userId\":\"48213\","
+                    + "\"message\":\"Sounds good, see you at the standup!\",\"messageType\":\"TEXT\","
+                    + "\"correlationId\":\"k3x9q1\"}").getBytes(StandardCharsets.UTF_8));
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            socket.close();
+        }
+
+        int roundTrip() throws IOException {
+            out.write(frame);
+            out.flush();
+            return readFrame(in);
+        }
+    }
+
+    /** Sends the upgrade request and reads the response headers. @return the response length */
+    private static int upgrade(Socket socket) throws IOException {
+        socket.getOutputStream().write(UPGRADE);
+        InputStream in = socket.getInputStream();
+        int read = 0;
+        int matched = 0;
+        // headers end with \r\n\r\n; the server sends nothing after them until asked
+        while (matched < 4) {
+            int b = in.read();
+            if (b < 0) {
+                throw new IOException("Connection closed during handshake");
+            }
+            read++;
+            matched = (b == '\r' && matched % 2 == 0) || (b == '\n' && matched % 2 == 1) ? matched + 1 : 0;
+        }
+        return read;
+    }
+
+    private static byte[] maskedTextFrame(byte[] payload) {
+        int length = payload.length;
+        int headerLength = length <= 125 ? 2 : 4;
+        byte[] frame = new byte[headerLength + 4 + length];
+        frame[0] = (byte) 0x81;
+        if (length <= 125) {
+            frame[1] = (byte) (0x80 | length);
+        } else {
+            frame[1] = (byte) (0x80 | 126);
+            frame[2] = (byte) (length >>> 8);
+            frame[3] = (byte) length;
+        }
+        byte[] mask = new byte[4];
+        ThreadLocalRandom.current().nextBytes(mask);
+        System.arraycopy(mask, 0, frame, headerLength, 4);
+        for (int i = 0; i < length; i++) {
+            frame[headerLength + 4 + i] = (byte) (payload[i] ^ mask[i & 3]);
+        }
+        return frame;
+    }
+
+    /** Reads one unmasked server frame. @return its payload length */
+    private static int readFrame(DataInputStream in) throws IOException {
+        in.readUnsignedByte();
+        int length = in.readUnsignedByte() & 0x7F;
+        if (length == 126) {
+            length = in.readUnsignedShort();
+        } else if (length == 127) {
+            length = (int) in.readLong();
+        }
+        in.skipNBytes(length);
+        return length;
+    }
+}
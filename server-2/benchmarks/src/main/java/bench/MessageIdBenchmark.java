@@ -0,0 +1,51 @@
+package bench;
+
+import id.MessageIdGenerator;
+import id.MessageIdScheme;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * messageId generation with every WebSocket worker calling at once.
+ *
+ *   UUID         - UUID.randomUUID(), all threads share one SecureRandom
+ *   TIME_ORDERED - TimeOrderedIdGenerator, per-thread slot and sequence
+ *
+ * Run: java -jar benchmarks/target/benchmarks.jar MessageIdBenchmark -prof gc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class MessageIdBenchmark {
+
+    @Param({"UUID", "TIME_ORDERED"})
+    public MessageIdScheme scheme;
+
+    private MessageIdGenerator generator;
+
+    @Setup
+    public void setup() {
+        generator = scheme.newGenerator("server-1a2b3c4d");
+    }
+
+    @Benchmark
+    public String nextId() {
+        return generator.nextId();
+    }
+}
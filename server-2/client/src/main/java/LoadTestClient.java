@@ -19,6 +19,8 @@ public class LoadTestClient {
 
     private static final String SERVER_HOST = "chatflow-lb-1658318388.us-east-1.elb.amazonaws.com";
     private static final int SERVER_PORT = 8080;
+    // -Dcompression.threshold=N offers permessage-deflate; unset (-1) connects uncompressed
+    private static final int COMPRESSION_THRESHOLD = Integer.getInteger("compression.threshold", -1);
 
     public static void main(String[] args) throws Exception {
         System.out.println("----------------------------------------");
@@ -80,7 +82,7 @@ public class LoadTestClient {
         int warmupTotal = WARMUP_THREADS * WARMUP_MESSAGES_PER_THREAD;
         BlockingQueue<MessageRound> warmupQueue = new LinkedBlockingQueue<>(10000);
         MetricsCollector warmupMetrics = new MetricsCollector();
-        ConnectionPool warmupPool = new ConnectionPool(SERVER_HOST, SERVER_PORT, warmupMetrics);
+        ConnectionPool warmupPool = new ConnectionPool(SERVER_HOST, SERVER_PORT, warmupMetrics, COMPRESSION_THRESHOLD);
 
         String[] roomIds = new String[20];
         for (int i = 0; i < 20; i++) {
@@ -161,7 +163,7 @@ public class LoadTestClient {
         BlockingQueue<MessageRound> roundQueue = new LinkedBlockingQueue<>(20000);
         BlockingQueue<MessageRound> retryQueue = new LinkedBlockingQueue<>(5000);
         MetricsCollector metricsCollector = new MetricsCollector();
-        ConnectionPool connectionPool = new ConnectionPool(SERVER_HOST, SERVER_PORT, metricsCollector);
+        ConnectionPool connectionPool = new ConnectionPool(SERVER_HOST, SERVER_PORT, metricsCollector, COMPRESSION_THRESHOLD);
 
         AtomicInteger successCount = new AtomicInteger(0);
         AtomicInteger failureCount = new AtomicInteger(0);
@@ -2,12 +2,17 @@ package generator;
 
 import model.ChatMessage;
 import model.MessageRound;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import java.time.Instant;
 import java.util.Random;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class MessageGenerator implements Runnable {
+    private static final Logger log = LoggerFactory.getLogger(MessageGenerator.class);
+
     private static final String[] MESSAGE_GROUP = {
             "Hello everyone!", "How are you doing?", "Great weather today!",
             "Anyone up for a chat?", "What's new?", "Good morning!",
@@ -45,7 +50,7 @@ public class MessageGenerator implements Runnable {
 
     @Override
     public void run() {
-        System.out.println("Generating messages...");
+        log.info("Generating messages...");
         long startTime = System.currentTimeMillis();
 
         try {
@@ -61,11 +66,11 @@ public class MessageGenerator implements Runnable {
             }
             long endTime = System.currentTimeMillis();
             long duration = endTime - startTime;
-            System.out.println("Generated " + generatedRounds.get() + "rounds, " + "(" + generatedMessages.get() + "messages) in " + duration + "ms");
+            log.info("Generated {} rounds ({} messages) in {}ms",
+                    generatedRounds.get(), generatedMessages.get(), duration);
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
-            e.printStackTrace();
-            System.out.println("Message generation interrupted");
+            log.warn("Message generation interrupted");
         }
     }
 
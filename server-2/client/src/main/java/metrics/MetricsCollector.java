@@ -8,18 +8,26 @@ import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicInteger;
-
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Every sent message gets a correlationId; the server echoes it in its ack
+ * ChatResponse, and the ack is matched to its send through pendingMetrics.
+ * Frames without a known correlationId (room broadcasts, legacy replies)
+ * are not acks and are ignored for latency.
+ */
 public class MetricsCollector {
-    private final Queue<MessageMetric> pendingMetrics;
+    private final Map<String, MessageMetric> pendingMetrics;
     private final Queue<MessageMetric> completedMetrics;
     private final Map<String, AtomicInteger> roomMessageCount;
     private final Map<String, AtomicInteger> messageTypeCount;
     private final Map<Long, AtomicInteger> throughputBuckets;
 
     private final long testStartTime;
+    private final AtomicLong nextCorrelationId = new AtomicLong();
 
     public MetricsCollector() {
-        this.pendingMetrics = new ConcurrentLinkedQueue<>();
+        this.pendingMetrics = new ConcurrentHashMap<>();
         this.completedMetrics = new ConcurrentLinkedQueue<>();
         this.roomMessageCount = new ConcurrentHashMap<>();
         this.messageTypeCount = new ConcurrentHashMap<>();
@@ -27,10 +35,15 @@ public class MetricsCollector {
         this.testStartTime = System.currentTimeMillis();
     }
 
-    public void recordMessageSent(String messageType, String roomId) {
+    /**
+     * Starts timing a message.
+     * @return the correlationId to put on the ChatMessage before sending it
+     */
+    public String recordMessageSent(String messageType, String roomId) {
         long timestamp = System.currentTimeMillis();
-        MessageMetric metric = new MessageMetric(timestamp, messageType, roomId);
-        pendingMetrics.offer(metric);
+        String correlationId = Long.toString(nextCorrelationId.incrementAndGet(), 36);
+        MessageMetric metric = new MessageMetric(timestamp, System.nanoTime(), messageType, roomId);
+        pendingMetrics.put(correlationId, metric);
 
         messageTypeCount.computeIfAbsent(messageType, k -> new AtomicInteger(0)).incrementAndGet();
 
@@ -38,19 +51,30 @@ public class MetricsCollector {
 
         long bucketKey = (timestamp - testStartTime) / 10000; // 10-second buckets
         throughputBuckets.computeIfAbsent(bucketKey, k -> new AtomicInteger(0)).incrementAndGet();
+        return correlationId;
     }
 
-    public void recordAcknowledgment(long ackTime, String status, String roomId) {
-        MessageMetric metric = pendingMetrics.poll();
-        if (metric != null) {
-            metric.setAcknowledgment(ackTime, status);
-            completedMetrics.offer(metric);
+    /**
+     * Completes the message with this correlationId.
+     * @return false if no message with that ID is waiting for an ack
+     */
+    public boolean recordAcknowledgment(String correlationId, long ackNanos, String status,
+                                        Long acceptedAt, Long publishedAt) {
+        if (correlationId == null) {
+            return false;
+        }
+        MessageMetric metric = pendingMetrics.remove(correlationId);
+        if (metric == null) {
+            return false;
         }
+        metric.setAcknowledgment(ackNanos, status, acceptedAt, publishedAt);
+        completedMetrics.offer(metric);
+        return true;
     }
 
     public void writeMetricsToCSV(String filename) throws IOException {
         try (PrintWriter writer = new PrintWriter(new FileWriter(filename))) {
-            writer.println("timestamp,messageType,latency,statusCode,roomId");
+            writer.println("timestamp,messageType,latency,statusCode,roomId,serverLatency");
 
             for (MessageMetric metric : completedMetrics) {
                 writer.println(metric.toCSV());
@@ -75,6 +99,7 @@ public class MetricsCollector {
 
         StatisticalAnalysis stats = new StatisticalAnalysis();
         stats.totalMessages = latencies.size();
+        stats.unacknowledged = pendingMetrics.size();
         stats.minLatency = latencies.get(0);
         stats.maxLatency = latencies.get(latencies.size() - 1);
 
@@ -120,6 +145,7 @@ public class MetricsCollector {
 
     public static class StatisticalAnalysis {
         public int totalMessages;
+        public int unacknowledged;
         public long minLatency;
         public long maxLatency;
         public double meanLatency;
@@ -140,6 +166,7 @@ public class MetricsCollector {
             System.out.println("99th Percentile: " + p99Latency + " ms");
             System.out.println("Min: " + minLatency + " ms");
             System.out.println("Max: " + maxLatency + " ms");
+            System.out.println("Unacknowledged: " + unacknowledged + " messages");
 
             System.out.println("\nMessage Type Distribution:");
             for (Map.Entry<String, Integer> entry : messageTypeDistribution.entrySet()) {
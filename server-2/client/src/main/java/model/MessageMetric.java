@@ -2,23 +2,27 @@ package model;
 
 public class MessageMetric {
     private final long timestamp;
+    private final long sentNanos;
     private final String messageType;
     private final String roomId;
     private long latencyMs;
     private String statusCode;
-    private long acknowledgmentTime;
+    private long serverMs = -1; // accept → broker confirm, -1 if the server didn't report it
 
-    public MessageMetric(long timestamp, String messageType, String roomId) {
+    public MessageMetric(long timestamp, long sentNanos, String messageType, String roomId) {
         this.timestamp = timestamp;
+        this.sentNanos = sentNanos;
         this.messageType = messageType;
         this.roomId = roomId;
         this.statusCode = "PENDING";
     }
 
-    public void setAcknowledgment(long ackTime, String status) {
-        this.acknowledgmentTime = ackTime;
+    public void setAcknowledgment(long ackNanos, String status, Long acceptedAt, Long publishedAt) {
         this.statusCode = status;
-        this.latencyMs = ackTime - timestamp;
+        this.latencyMs = (ackNanos - sentNanos) / 1_000_000;
+        if (acceptedAt != null && publishedAt != null) {
+            this.serverMs = publishedAt - acceptedAt;
+        }
     }
 
     public long getTimestamp() { return timestamp; }
@@ -26,8 +30,9 @@ public class MessageMetric {
     public String getRoomId() { return roomId; }
     public long getLatencyMs() { return latencyMs; }
     public String getStatusCode() { return statusCode; }
+    public long getServerMs() { return serverMs; }
 
     public String toCSV() {
-        return timestamp + "," + messageType + "," + latencyMs + "," + statusCode + "," + roomId;
+        return timestamp + "," + messageType + "," + latencyMs + "," + statusCode + "," + roomId + "," + serverMs;
     }
 }
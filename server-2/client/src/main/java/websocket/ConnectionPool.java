@@ -1,6 +1,8 @@
 package websocket;
 
 import metrics.MetricsCollector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.net.URI;
 import java.util.Map;
@@ -9,6 +11,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class ConnectionPool {
+    private static final Logger log = LoggerFactory.getLogger(ConnectionPool.class);
 
     private final String serverHost;
     private final int serverPort;
@@ -16,14 +19,25 @@ public class ConnectionPool {
     private final AtomicInteger connectionCount;
     private final AtomicInteger reconnectCount;
     private final MetricsCollector metricsCollector;
-
-    public ConnectionPool(String serverHost, int serverPort, MetricsCollector metricsCollector) {
+    private final int compressionThreshold;
+
+    /**
+     * @param compressionThreshold offer permessage-deflate and compress sends of at least
+     *                             this many bytes; negative to connect without compression
+     */
+    public ConnectionPool(String serverHost, int serverPort, MetricsCollector metricsCollector,
+                          int compressionThreshold) {
         this.serverHost = serverHost;
         this.serverPort = serverPort;
         this.connections = new ConcurrentHashMap<>();
         this.connectionCount = new AtomicInteger(0);
         this.reconnectCount = new AtomicInteger(0);
         this.metricsCollector = metricsCollector;
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    public ConnectionPool(String serverHost, int serverPort, MetricsCollector metricsCollector) {
+        this(serverHost, serverPort, metricsCollector, -1);
     }
 
     // UPDATE: Overload for backward compatibility (without metrics)
@@ -52,7 +66,10 @@ public class ConnectionPool {
         //URI serverUri = new URI("ws://" + serverHost + ":" + serverPort + "/chat/" + roomId);
         // without port version, for alb use
         URI serverUri = new URI("ws://" + serverHost + "/chat/" + roomId);
-        PooledWebSocketClient client = new PooledWebSocketClient(serverUri, roomId, metricsCollector);
+        PooledWebSocketClient client = compressionThreshold >= 0
+                ? new PooledWebSocketClient(serverUri, roomId, metricsCollector,
+                        PooledWebSocketClient.compressingDraft(compressionThreshold))
+                : new PooledWebSocketClient(serverUri, roomId, metricsCollector);
 
         client.connect();
         connectionCount.incrementAndGet();
@@ -68,7 +85,7 @@ public class ConnectionPool {
             try {
                 client.close();
             } catch (Exception e) {
-                e.printStackTrace();
+                log.warn("Failed to close connection for room {}: {}", client.getRoomId(), e.getMessage());
             }
         }
         connections.clear();
@@ -3,8 +3,14 @@ package websocket;
 import metrics.MetricsCollector;
 import model.ChatResponse;
 import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.extensions.permessage_deflate.PerMessageDeflateExtension;
 import org.java_websocket.handshake.ServerHandshake;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import util.JsonUtil;
+import util.LogSampler;
 
 import java.net.URI;
 import java.util.concurrent.CountDownLatch;
@@ -13,6 +19,10 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
 public class PooledWebSocketClient extends WebSocketClient {
+    private static final Logger log = LoggerFactory.getLogger(PooledWebSocketClient.class);
+    // shared by every pooled connection, so the whole client logs at most a few frames per second
+    private static final LogSampler receiveLogSampler = new LogSampler(5, 1000);
+
     private final String roomId;
     private final CountDownLatch connectLatch;
     private final AtomicBoolean isReady;
@@ -21,7 +31,11 @@ public class PooledWebSocketClient extends WebSocketClient {
     private final MetricsCollector metrics;
 
     public PooledWebSocketClient(URI serverUri, String roomId, MetricsCollector metrics) {
-        super(serverUri);
+        this(serverUri, roomId, metrics, new Draft_6455());
+    }
+
+    public PooledWebSocketClient(URI serverUri, String roomId, MetricsCollector metrics, Draft draft) {
+        super(serverUri, draft);
         this.roomId = roomId;
         this.connectLatch = new CountDownLatch(1);
         this.isReady = new AtomicBoolean(false);
@@ -36,6 +50,17 @@ public class PooledWebSocketClient extends WebSocketClient {
         this(serverUri, roomId, null);
     }
 
+    /**
+     * Draft that offers permessage-deflate in the handshake. The server only
+     * compresses if it has WS_COMPRESSION_ENABLED; messages we send below
+     * threshold bytes go out uncompressed.
+     */
+    public static Draft compressingDraft(int threshold) {
+        PerMessageDeflateExtension deflate = new PerMessageDeflateExtension();
+        deflate.setThreshold(threshold);
+        return new Draft_6455(deflate);
+    }
+
     @Override
     public void onOpen(ServerHandshake handshake) {
         isReady.set(true);
@@ -45,19 +70,22 @@ public class PooledWebSocketClient extends WebSocketClient {
     @Override
     public void onMessage(String message) {
         messagesReceived.incrementAndGet();
-        System.out.println("Echoed message received: " + message);
+        if (log.isDebugEnabled() && receiveLogSampler.tryAcquire()) {
+            log.debug("Echoed message received in room {}: {}", roomId, message);
+        }
 
-        if (metrics != null) {
-            long ackTime = System.currentTimeMillis();
+        if (metrics != null && message.contains("\"correlationId\"")) {
+            long ackNanos = System.nanoTime();
 
-            // Parse the response to get status
+            // only acks carry a correlationId; room broadcasts are not matched to sends
             try {
                 ChatResponse response = JsonUtil.fromJson(message, ChatResponse.class);
-                String status = response.getStatus(); // "success" or "error"
-                metrics.recordAcknowledgment(ackTime, status, roomId);
+                metrics.recordAcknowledgment(response.getCorrelationId(), ackNanos, response.getStatus(),
+                        response.getAcceptedAt(), response.getPublishedAt());
             } catch (Exception e) {
-                // If parsing fails, still record it
-                metrics.recordAcknowledgment(ackTime, "unknown", roomId);
+                if (receiveLogSampler.tryAcquire()) {
+                    log.warn("Unreadable ack in room {}: {}", roomId, e.getMessage());
+                }
             }
         }
     }
@@ -72,10 +72,11 @@ public class RetryWorker implements Runnable {
 
             for (ChatMessage message : round.getMessages()) {
                 if (metricsCollector != null) {
-                    metricsCollector.recordMessageSent(
+                    // a fresh ID per attempt, so a late ack for a failed attempt can't match the retry
+                    message.setCorrelationId(metricsCollector.recordMessageSent(
                             message.getMessageType(),
                             round.getRoomId()
-                    );
+                    ));
                 }
 
                 String json = JsonUtil.toJson(message);
@@ -4,6 +4,8 @@ import metrics.MetricsCollector;
 import model.ChatMessage;
 import model.ChatResponse;
 import model.MessageRound;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import util.JsonUtil;
 import websocket.ConnectionPool;
 import websocket.PooledWebSocketClient;
@@ -13,6 +15,8 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class SenderWorker implements Runnable {
+    private static final Logger log = LoggerFactory.getLogger(SenderWorker.class);
+
     private final BlockingQueue<MessageRound> roundQueue;
     private final BlockingQueue<MessageRound> retryQueue;
     private final ConnectionPool connectionPool;
@@ -50,8 +54,8 @@ public class SenderWorker implements Runnable {
                 if (round == null) {
                     emptyPollCount++;
                     if (emptyPollCount >= 5) { // 2.5 seconds of empty queue
-                        System.out.println(Thread.currentThread().getName() +
-                                ": Queue empty after " + sentRounds + " rounds, exiting");
+                        log.info("{}: Queue empty after {} rounds, exiting",
+                                Thread.currentThread().getName(), sentRounds);
                         break; // EXIT EARLY - don't wait for quota
                     }
                     continue;
@@ -82,10 +86,11 @@ public class SenderWorker implements Runnable {
 
             for (ChatMessage message : round.getMessages()) {
                 if (metricsCollector != null) {
-                    metricsCollector.recordMessageSent(
+                    // a fresh ID per attempt, so a late ack for a failed attempt can't match the retry
+                    message.setCorrelationId(metricsCollector.recordMessageSent(
                             message.getMessageType(),
                             round.getRoomId()
-                    );
+                    ));
                 }
 
                 String json = JsonUtil.toJson(message);
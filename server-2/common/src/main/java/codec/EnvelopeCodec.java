@@ -0,0 +1,379 @@
+package codec;
+
+import id.TimeOrderedId;
+import model.MessageEnvelope;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary wire format of MessageEnvelope on the RabbitMQ hop
+ * (contentType application/vnd.chatflow.envelope).
+ *
+ * Envelope, version 1:
+ *   byte    version (1)
+ *   byte    flags   (bit 0: messageId is a 16-byte TimeOrderedId, else a string)
+ *   ...     messageId: 16 bytes, or string
+ *   string  roomId
+ *   string  userId
+ *   string  username
+ *   string  message
+ *   varlong timestamp, epoch micros (0 = none)
+ *   byte    messageType (1 TEXT, 2 JOIN, 3 LEAVE, 0 none)
+ *   string  serverId
+ *   byte    clientIp kind (4: four IPv4 bytes follow, 0: string follows)
+ *
+ * string = varint (UTF-8 length + 1), then the bytes; a length of 0 is null.
+ * Varints are unsigned LEB128.
+ *
+ * Batch (AMQP type chat.envelope.batch):
+ *   byte    version (1)
+ *   varint  count
+ *   count x (varint length, envelope bytes)
+ *
+ * The consumer keeps the decoding half (codec.EnvelopeCodec); keep the two in sync.
+ * Decoding throws IllegalArgumentException on anything malformed.
+ */
+public final class EnvelopeCodec {
+
+    public static final String CONTENT_TYPE = "application/vnd.chatflow.envelope";
+    public static final byte VERSION = 1;
+
+    private static final int FLAG_BINARY_ID = 1;
+    private static final int IP_STRING = 0;
+    private static final int IP_V4 = 4;
+    private static final String[] MESSAGE_TYPES = {null, "TEXT", "JOIN", "LEAVE"};
+
+    private EnvelopeCodec() {}
+
+    public static byte[] encode(MessageEnvelope envelope) {
+        return encode(envelope.getMessageId(), envelope.getRoomId(), envelope.getUserId(),
+                envelope.getUsername(), envelope.getMessage(), epochMicrosOf(envelope.getTimestamp()),
+                envelope.getMessageType(), envelope.getServerId(), envelope.getClientIp());
+    }
+
+    /**
+     * Encodes straight from field text (IngestCodec passes views of its parse
+     * buffer). Sizes the output exactly, so the returned array is the only
+     * allocation.
+     */
+    public static byte[] encode(String messageId, CharSequence roomId, CharSequence userId,
+                                CharSequence username, CharSequence message, long epochMicros,
+                                CharSequence messageType, CharSequence serverId, String clientIp) {
+        boolean binaryId = TimeOrderedId.isTimeOrdered(messageId);
+        int typeCode = messageTypeCode(messageType);
+        long ipv4 = parseIpv4(clientIp);
+        boolean rawIp = ipv4 >= 0;
+
+        int size = 2
+                + (binaryId ? TimeOrderedId.BINARY_LENGTH : stringSize(messageId))
+                + stringSize(roomId) + stringSize(userId) + stringSize(username) + stringSize(message)
+                + varintSize(epochMicros) + 1
+                + stringSize(serverId)
+                + 1 + (rawIp ? 4 : stringSize(clientIp));
+
+        Writer out = new Writer(new byte[size]);
+        out.buf[out.pos++] = VERSION;
+        out.buf[out.pos++] = (byte) (binaryId ? FLAG_BINARY_ID : 0);
+        if (binaryId) {
+            byte[] id = TimeOrderedId.toBytes(messageId);
+            System.arraycopy(id, 0, out.buf, out.pos, id.length);
+            out.pos += id.length;
+        } else {
+            out.string(messageId);
+        }
+        out.string(roomId);
+        out.string(userId);
+        out.string(username);
+        out.string(message);
+        out.varint(epochMicros);
+        out.buf[out.pos++] = (byte) typeCode;
+        out.string(serverId);
+        if (rawIp) {
+            out.buf[out.pos++] = IP_V4;
+            out.buf[out.pos++] = (byte) (ipv4 >>> 24);
+            out.buf[out.pos++] = (byte) (ipv4 >>> 16);
+            out.buf[out.pos++] = (byte) (ipv4 >>> 8);
+            out.buf[out.pos++] = (byte) ipv4;
+        } else {
+            out.buf[out.pos++] = IP_STRING;
+            out.string(clientIp);
+        }
+        return out.buf;
+    }
+
+    public static MessageEnvelope decode(byte[] body) {
+        return decode(new Reader(body, 0, body.length));
+    }
+
+    public static byte[] encodeBatch(List<byte[]> envelopes) {
+        int size = 1 + varintSize(envelopes.size());
+        for (byte[] envelope : envelopes) {
+            size += varintSize(envelope.length) + envelope.length;
+        }
+        Writer out = new Writer(new byte[size]);
+        out.buf[out.pos++] = VERSION;
+        out.varint(envelopes.size());
+        for (byte[] envelope : envelopes) {
+            out.varint(envelope.length);
+            System.arraycopy(envelope, 0, out.buf, out.pos, envelope.length);
+            out.pos += envelope.length;
+        }
+        return out.buf;
+    }
+
+    public static List<MessageEnvelope> decodeBatch(byte[] body) {
+        Reader in = new Reader(body, 0, body.length);
+        in.version();
+        int count = in.length();
+        List<MessageEnvelope> envelopes = new ArrayList<>(Math.min(count, 1024));
+        for (int i = 0; i < count; i++) {
+            int length = in.length();
+            envelopes.add(decode(new Reader(body, in.take(length), length)));
+        }
+        return envelopes;
+    }
+
+    private static MessageEnvelope decode(Reader in) {
+        in.version();
+        int flags = in.u8();
+        MessageEnvelope envelope = new MessageEnvelope();
+        if ((flags & FLAG_BINARY_ID) != 0) {
+            int at = in.take(TimeOrderedId.BINARY_LENGTH);
+            envelope.setMessageId(TimeOrderedId.toString(readLong(in.buf, at), readLong(in.buf, at + 8)));
+        } else {
+            envelope.setMessageId(in.string());
+        }
+        envelope.setRoomId(in.string());
+        envelope.setUserId(in.string());
+        envelope.setUsername(in.string());
+        envelope.setMessage(in.string());
+        long micros = in.varint();
+        envelope.setTimestamp(micros == 0 ? null
+                : Instant.ofEpochSecond(micros / 1_000_000, (micros % 1_000_000) * 1000).toString());
+        int typeCode = in.u8();
+        if (typeCode >= MESSAGE_TYPES.length) {
+            throw new IllegalArgumentException("Unknown messageType code " + typeCode);
+        }
+        envelope.setMessageType(MESSAGE_TYPES[typeCode]);
+        envelope.setServerId(in.string());
+        int ipKind = in.u8();
+        if (ipKind == IP_V4) {
+            int at = in.take(4);
+            envelope.setClientIp((in.buf[at] & 0xFF) + "." + (in.buf[at + 1] & 0xFF) + "."
+                    + (in.buf[at + 2] & 0xFF) + "." + (in.buf[at + 3] & 0xFF));
+        } else if (ipKind == IP_STRING) {
+            envelope.setClientIp(in.string());
+        } else {
+            throw new IllegalArgumentException("Unknown clientIp kind " + ipKind);
+        }
+        return envelope;
+    }
+
+    private static long epochMicrosOf(String timestamp) {
+        if (timestamp == null) {
+            return 0;
+        }
+        Instant instant = Instant.parse(timestamp);
+        return instant.getEpochSecond() * 1_000_000 + instant.getNano() / 1000;
+    }
+
+    private static int messageTypeCode(CharSequence messageType) {
+        if (messageType == null) {
+            return 0;
+        }
+        for (int i = 1; i < MESSAGE_TYPES.length; i++) {
+            if (MESSAGE_TYPES[i].contentEquals(messageType)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown messageType " + messageType);
+    }
+
+    /** Dotted-quad IPv4 as an unsigned int, or -1 if the text is anything else. */
+    private static long parseIpv4(String ip) {
+        if (ip == null) {
+            return -1;
+        }
+        long value = 0;
+        int part = 0;
+        int digits = 0;
+        int dots = 0;
+        for (int i = 0; i < ip.length(); i++) {
+            char c = ip.charAt(i);
+            if (c >= '0' && c <= '9' && digits < 3) {
+                part = part * 10 + (c - '0');
+                digits++;
+            } else if (c == '.' && digits > 0 && dots < 3) {
+                if (part > 255) return -1;
+                value = (value << 8) | part;
+                part = 0;
+                digits = 0;
+                dots++;
+            } else {
+                return -1;
+            }
+        }
+        if (dots != 3 || digits == 0 || part > 255) {
+            return -1;
+        }
+        return (value << 8) | part;
+    }
+
+    private static int stringSize(CharSequence s) {
+        if (s == null) {
+            return 1;
+        }
+        int length = utf8Length(s);
+        return varintSize(length + 1) + length;
+    }
+
+    private static int utf8Length(CharSequence s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length()
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length++; // written as '?', like String.getBytes(UTF_8)
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private static int varintSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static long readLong(byte[] buf, int at) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (buf[at + i] & 0xFF);
+        }
+        return value;
+    }
+
+    private static final class Writer {
+        private final byte[] buf;
+        private int pos;
+
+        Writer(byte[] buf) {
+            this.buf = buf;
+        }
+
+        void varint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buf[pos++] = (byte) value;
+        }
+
+        void string(CharSequence s) {
+            if (s == null) {
+                buf[pos++] = 0;
+                return;
+            }
+            varint(utf8Length(s) + 1);
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    buf[pos++] = (byte) c;
+                } else if (c < 0x800) {
+                    buf[pos++] = (byte) (0xC0 | (c >> 6));
+                    buf[pos++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < s.length()
+                        && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, s.charAt(++i));
+                    buf[pos++] = (byte) (0xF0 | (cp >> 18));
+                    buf[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                    buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                    buf[pos++] = (byte) (0x80 | (cp & 0x3F));
+                } else if (Character.isSurrogate(c)) {
+                    buf[pos++] = '?';
+                } else {
+                    buf[pos++] = (byte) (0xE0 | (c >> 12));
+                    buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    buf[pos++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+        }
+    }
+
+    private static final class Reader {
+        private final byte[] buf;
+        private final int end;
+        private int pos;
+
+        Reader(byte[] buf, int offset, int length) {
+            this.buf = buf;
+            this.pos = offset;
+            this.end = offset + length;
+        }
+
+        void version() {
+            int version = u8();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported envelope version " + version);
+            }
+        }
+
+        int u8() {
+            return buf[take(1)] & 0xFF;
+        }
+
+        /** Advances past count bytes and returns where they start. */
+        int take(int count) {
+            if (count < 0 || count > end - pos) {
+                throw new IllegalArgumentException("Truncated envelope");
+            }
+            int at = pos;
+            pos += count;
+            return at;
+        }
+
+        long varint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = u8();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint");
+        }
+
+        int length() {
+            long value = varint();
+            if (value > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Length out of range");
+            }
+            return (int) value;
+        }
+
+        String string() {
+            int length = length();
+            if (length == 0) {
+                return null;
+            }
+            int at = take(length - 1);
+            return new String(buf, at, length - 1, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package codec;
+
+/**
+ * How envelopes are serialized on the RabbitMQ hop. The AMQP contentType
+ * says which one a message uses, so both can be in flight during a rollout:
+ * upgrade consumers first, then switch servers to BINARY.
+ */
+public enum EnvelopeFormat {
+    /** MessageEnvelope as JSON (batches: a JSON array). */
+    JSON("application/json"),
+    /** EnvelopeCodec's binary layout (batches: EnvelopeCodec.encodeBatch). */
+    BINARY(EnvelopeCodec.CONTENT_TYPE);
+
+    private final String contentType;
+
+    EnvelopeFormat(String contentType) {
+        this.contentType = contentType;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+}
@@ -0,0 +1,375 @@
+package codec;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import model.ChatMessage;
+import util.JsonUtil;
+import validator.MessageValidator;
+import validator.ValidationResult;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+
+/**
+ * Single-pass ingest path: client frame in, validated envelope bytes out.
+ *
+ * decode() walks the frame with Jackson's streaming parser and copies the
+ * five known string fields into one reusable char buffer, then runs the
+ * MessageValidator rules over those views. encodeEnvelope() writes the
+ * MessageEnvelope JSON straight into a reusable UTF-8 buffer, so a valid
+ * message costs the parser, one final byte[] copy and nothing else -
+ * no ChatMessage, no MessageEnvelope, no intermediate Strings.
+ *
+ * Anything the fast path doesn't model exactly (unknown field, non-string
+ * value, top-level null, malformed JSON) is handed to the old
+ * ObjectMapper + MessageValidator path, so error texts stay byte-for-byte
+ * what clients got before.
+ *
+ * Not thread-safe. Keep one per thread (see forThread()).
+ */
+public class IngestCodec {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final ThreadLocal<IngestCodec> PER_THREAD = ThreadLocal.withInitial(IngestCodec::new);
+    private static final byte[] HEX = ascii("0123456789abcdef");
+
+    private static final byte[] MESSAGE_ID = ascii("{\"messageId\":");
+    private static final byte[] ROOM_ID = ascii(",\"roomId\":");
+    private static final byte[] USER_ID = ascii(",\"userId\":");
+    private static final byte[] USERNAME = ascii(",\"username\":");
+    private static final byte[] MESSAGE = ascii(",\"message\":");
+    private static final byte[] TIMESTAMP = ascii(",\"timestamp\":\"");
+    private static final byte[] MESSAGE_TYPE = ascii("Z\",\"messageType\":");
+    private static final byte[] SERVER_ID = ascii(",\"serverId\":");
+    private static final byte[] CLIENT_IP = ascii(",\"clientIp\":");
+    private static final byte[] NULL = ascii("null");
+
+    private final Field username = new Field();
+    private final Field userId = new Field();
+    private final Field message = new Field();
+    private final Field messageType = new Field();
+    private final Field correlationId = new Field();
+
+    private char[] scratch = new char[1024];
+    private int scratchLength;
+    private String correlationIdString;
+
+    private byte[] out = new byte[2048];
+    private int outLength;
+
+    // "yyyy-MM-ddTHH:mm:ss." for the last second we encoded
+    private final byte[] secondPrefix = new byte[20];
+    private long prefixSecond = Long.MIN_VALUE;
+
+    public static IngestCodec forThread() {
+        return PER_THREAD.get();
+    }
+
+    /**
+     * Parses and validates one client frame.
+     * @return null if the message is valid, otherwise the error text to send back
+     */
+    public String decode(String frame) {
+        reset();
+        try (JsonParser parser = JSON_FACTORY.createParser(frame)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return decodeSlow(frame);
+            }
+            JsonToken token;
+            while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+                Field field = fieldNamed(parser.currentName());
+                if (field == null) {
+                    return decodeSlow(frame);
+                }
+                token = parser.nextToken();
+                if (token == JsonToken.VALUE_STRING) {
+                    field.set(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+                } else if (token == JsonToken.VALUE_NULL) {
+                    field.clear();
+                } else {
+                    // numbers/booleans get coerced by databind, objects and arrays fail there;
+                    // either way its answer is the one clients expect
+                    return decodeSlow(frame);
+                }
+            }
+            if (token != JsonToken.END_OBJECT) {
+                return decodeSlow(frame);
+            }
+        } catch (IOException e) {
+            return decodeSlow(frame);
+        }
+        return MessageValidator.check(username.orNull(), userId.orNull(), message.orNull(),
+                messageType.orNull(), correlationId.orNull());
+    }
+
+    private String decodeSlow(String frame) {
+        reset();
+        ChatMessage chatMessage;
+        try {
+            chatMessage = JsonUtil.fromJson(frame, ChatMessage.class);
+        } catch (JsonProcessingException e) {
+            return "Invalid JSON format: " + e.getMessage();
+        }
+        if (chatMessage != null) {
+            username.set(chatMessage.getUsername());
+            userId.set(chatMessage.getUserId());
+            message.set(chatMessage.getMessage());
+            messageType.set(chatMessage.getMessageType());
+            correlationId.set(chatMessage.getCorrelationId());
+        }
+        ValidationResult result = MessageValidator.validate(chatMessage);
+        return result.isValid() ? null : result.getMessage();
+    }
+
+    private Field fieldNamed(String name) {
+        switch (name) {
+            case "username": return username;
+            case "userId": return userId;
+            case "message": return message;
+            case "messageType": return messageType;
+            case "correlationId": return correlationId;
+            default: return null;
+        }
+    }
+
+    private void reset() {
+        scratchLength = 0;
+        correlationIdString = null;
+        username.clear();
+        userId.clear();
+        message.clear();
+        messageType.clear();
+        correlationId.clear();
+    }
+
+    /**
+     * The correlationId of the last decoded frame, or null if it had none
+     * (or could not be parsed far enough to tell).
+     */
+    public String getCorrelationId() {
+        if (correlationIdString == null && correlationId.present) {
+            correlationIdString = correlationId.toString();
+        }
+        return correlationIdString;
+    }
+
+    /**
+     * Materializes the last decoded frame. Only needed for clients that still
+     * get their message echoed back instead of an ack.
+     */
+    public ChatMessage toChatMessage() {
+        ChatMessage chatMessage = new ChatMessage(username.asString(), userId.asString(),
+                message.asString(), messageType.asString());
+        chatMessage.setCorrelationId(getCorrelationId());
+        return chatMessage;
+    }
+
+    /**
+     * Builds the MessageEnvelope JSON for the last decoded (valid) frame.
+     * Same fields and order as JsonUtil.toJson(envelope), with a millisecond
+     * ISO-8601 timestamp.
+     */
+    public byte[] encodeEnvelope(String messageId, String roomId, long epochMillis,
+                                 String serverId, String clientIp) {
+        outLength = 0;
+        write(MESSAGE_ID);
+        writeString(messageId);
+        write(ROOM_ID);
+        writeString(roomId);
+        write(USER_ID);
+        writeString(userId.orNull());
+        write(USERNAME);
+        writeString(username.orNull());
+        write(MESSAGE);
+        writeString(message.orNull());
+        write(TIMESTAMP);
+        writeTimestamp(epochMillis);
+        write(MESSAGE_TYPE);
+        writeString(messageType.orNull());
+        write(SERVER_ID);
+        writeString(serverId);
+        write(CLIENT_IP);
+        writeString(clientIp);
+        ensure(1);
+        out[outLength++] = '}';
+        return Arrays.copyOf(out, outLength);
+    }
+
+    /**
+     * Same envelope in EnvelopeCodec's binary layout.
+     */
+    public byte[] encodeEnvelopeBinary(String messageId, String roomId, long epochMillis,
+                                       String serverId, String clientIp) {
+        return EnvelopeCodec.encode(messageId, roomId, userId.orNull(), username.orNull(), message.orNull(),
+                epochMillis * 1000, messageType.orNull(), serverId, clientIp);
+    }
+
+    private void writeTimestamp(long epochMillis) {
+        long second = Math.floorDiv(epochMillis, 1000);
+        if (second != prefixSecond) {
+            String prefix = LocalDateTime.ofEpochSecond(second, 0, ZoneOffset.UTC).toString();
+            // LocalDateTime drops ":00" seconds, so pad back to the fixed layout
+            if (prefix.length() == 16) {
+                prefix += ":00";
+            }
+            for (int i = 0; i < 19; i++) {
+                secondPrefix[i] = (byte) prefix.charAt(i);
+            }
+            secondPrefix[19] = '.';
+            prefixSecond = second;
+        }
+        int millis = (int) Math.floorMod(epochMillis, 1000L);
+        ensure(23);
+        System.arraycopy(secondPrefix, 0, out, outLength, 20);
+        outLength += 20;
+        out[outLength++] = (byte) ('0' + millis / 100);
+        out[outLength++] = (byte) ('0' + millis / 10 % 10);
+        out[outLength++] = (byte) ('0' + millis % 10);
+    }
+
+    private void writeString(CharSequence value) {
+        if (value == null) {
+            write(NULL);
+            return;
+        }
+        int length = value.length();
+        // worst case per char: 6 bytes for a \\u00XX escape
+        ensure(length * 6 + 2);
+        byte[] buf = out;
+        int pos = outLength;
+        buf[pos++] = '"';
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                if (c >= 0x20 && c != '"' && c != '\\') {
+                    buf[pos++] = (byte) c;
+                } else {
+                    pos = writeEscape(buf, pos, c);
+                }
+            } else if (c < 0x800) {
+                buf[pos++] = (byte) (0xC0 | (c >> 6));
+                buf[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, value.charAt(++i));
+                buf[pos++] = (byte) (0xF0 | (cp >> 18));
+                buf[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                buf[pos++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // unpaired surrogate: String.getBytes(UTF_8) writes '?' too
+                buf[pos++] = '?';
+            } else {
+                buf[pos++] = (byte) (0xE0 | (c >> 12));
+                buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buf[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        buf[pos++] = '"';
+        outLength = pos;
+    }
+
+    private static int writeEscape(byte[] buf, int pos, char c) {
+        buf[pos++] = '\\';
+        switch (c) {
+            case '"': buf[pos++] = '"'; break;
+            case '\\': buf[pos++] = '\\'; break;
+            case '\n': buf[pos++] = 'n'; break;
+            case '\r': buf[pos++] = 'r'; break;
+            case '\t': buf[pos++] = 't'; break;
+            case '\b': buf[pos++] = 'b'; break;
+            case '\f': buf[pos++] = 'f'; break;
+            default:
+                buf[pos++] = 'u';
+                buf[pos++] = '0';
+                buf[pos++] = '0';
+                buf[pos++] = HEX[c >> 4];
+                buf[pos++] = HEX[c & 0xF];
+        }
+        return pos;
+    }
+
+    private void write(byte[] bytes) {
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, out, outLength, bytes.length);
+        outLength += bytes.length;
+    }
+
+    private void ensure(int extra) {
+        if (outLength + extra > out.length) {
+            out = Arrays.copyOf(out, Math.max(out.length * 2, outLength + extra));
+        }
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * One decoded string field: a window into the codec's scratch buffer.
+     * Valid until the next decode().
+     */
+    private final class Field implements CharSequence {
+        private boolean present;
+        private int start;
+        private int length;
+
+        void set(char[] chars, int offset, int count) {
+            if (scratchLength + count > scratch.length) {
+                scratch = Arrays.copyOf(scratch, Math.max(scratch.length * 2, scratchLength + count));
+            }
+            System.arraycopy(chars, offset, scratch, scratchLength, count);
+            start = scratchLength;
+            length = count;
+            scratchLength += count;
+            present = true;
+        }
+
+        void set(String value) {
+            if (value == null) {
+                clear();
+                return;
+            }
+            char[] chars = value.toCharArray();
+            set(chars, 0, chars.length);
+        }
+
+        void clear() {
+            present = false;
+            length = 0;
+        }
+
+        CharSequence orNull() {
+            return present ? this : null;
+        }
+
+        String asString() {
+            return present ? toString() : null;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return scratch[start + index];
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            return toString().substring(from, to);
+        }
+
+        @Override
+        public String toString() {
+            return new String(scratch, start, length);
+        }
+    }
+}
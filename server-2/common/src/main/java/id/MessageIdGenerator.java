@@ -0,0 +1,10 @@
+package id;
+
+/**
+ * Source of MessageEnvelope.messageId values. Implementations are shared by
+ * every WebSocket worker thread, so nextId() must be thread-safe.
+ */
+public interface MessageIdGenerator {
+
+    String nextId();
+}
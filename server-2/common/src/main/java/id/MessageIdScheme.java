@@ -0,0 +1,26 @@
+package id;
+
+import java.util.UUID;
+
+/**
+ * Which MessageIdGenerator the server stamps envelopes with.
+ * Consumers accept both, so the scheme can be switched per node.
+ */
+public enum MessageIdScheme {
+    /** 36-char random UUIDs, as before. Every call goes through the shared SecureRandom. */
+    UUID {
+        @Override
+        public MessageIdGenerator newGenerator(String serverId) {
+            return () -> java.util.UUID.randomUUID().toString();
+        }
+    },
+    /** 22-char time-ordered IDs (see TimeOrderedId); no shared state on the hot path. */
+    TIME_ORDERED {
+        @Override
+        public MessageIdGenerator newGenerator(String serverId) {
+            return new TimeOrderedIdGenerator(TimeOrderedId.nodeOf(serverId));
+        }
+    };
+
+    public abstract MessageIdGenerator newGenerator(String serverId);
+}
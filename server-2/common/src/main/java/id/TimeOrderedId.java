@@ -0,0 +1,130 @@
+package id;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Layout and encodings of the 128-bit time-ordered message ID.
+ *
+ *   high 64 bits: 44-bit epoch millis | 20-bit node
+ *   low  64 bits: 24-bit thread slot  | 40-bit per-thread sequence
+ *
+ * Binary form: the two longs big-endian, 16 bytes.
+ * String form: 22 chars, 6 bits each, from an alphabet in ASCII order
+ * ("-0-9A-Z_a-z"), so string order matches time order and the ID is safe
+ * in URLs and Redis keys as-is.
+ *
+ * The consumer keeps a copy of the decoding half (id.TimeOrderedId);
+ * keep the two in sync.
+ */
+public final class TimeOrderedId {
+
+    public static final int STRING_LENGTH = 22;
+    public static final int BINARY_LENGTH = 16;
+
+    static final int NODE_BITS = 20;
+    static final int NODE_MASK = (1 << NODE_BITS) - 1;
+    static final int SEQUENCE_BITS = 40;
+    static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    static final int SLOT_MASK = (1 << 24) - 1;
+
+    private static final char[] ALPHABET =
+            "-0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ_abcdefghijklmnopqrstuvwxyz".toCharArray();
+    private static final byte[] VALUES = new byte[128];
+
+    static {
+        Arrays.fill(VALUES, (byte) -1);
+        for (int i = 0; i < ALPHABET.length; i++) {
+            VALUES[ALPHABET[i]] = (byte) i;
+        }
+    }
+
+    private TimeOrderedId() {}
+
+    /**
+     * Node ID for a server instance. serverIds look like "server-1a2b3c4d"
+     * (random hex), so the low 20 bits of that hex are used directly;
+     * anything else is hashed.
+     */
+    public static int nodeOf(String serverId) {
+        int dash = serverId.lastIndexOf('-');
+        String suffix = serverId.substring(dash + 1);
+        try {
+            return (int) (Long.parseLong(suffix, 16) & NODE_MASK);
+        } catch (NumberFormatException e) {
+            return serverId.hashCode() & NODE_MASK;
+        }
+    }
+
+    static long high(long epochMillis, int node) {
+        return (epochMillis << NODE_BITS) | node;
+    }
+
+    public static String toString(long high, long low) {
+        char[] chars = new char[STRING_LENGTH];
+        for (int i = 0; i < STRING_LENGTH; i++) {
+            chars[i] = ALPHABET[sixBits(high, low, (STRING_LENGTH - 1 - i) * 6)];
+        }
+        return new String(chars);
+    }
+
+    public static byte[] toBytes(long high, long low) {
+        return ByteBuffer.allocate(BINARY_LENGTH).putLong(high).putLong(low).array();
+    }
+
+    /** True if the ID is in this scheme's string form (as opposed to a UUID). */
+    public static boolean isTimeOrdered(String id) {
+        if (id == null || id.length() != STRING_LENGTH) {
+            return false;
+        }
+        // 22 * 6 = 132 bits, so the first char only carries the top 2
+        if (value(id.charAt(0)) > 3) {
+            return false;
+        }
+        for (int i = 1; i < STRING_LENGTH; i++) {
+            if (value(id.charAt(i)) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Binary form of a string ID.
+     * @throws IllegalArgumentException if the ID is not in this scheme
+     */
+    public static byte[] toBytes(String id) {
+        if (!isTimeOrdered(id)) {
+            throw new IllegalArgumentException("Not a time-ordered ID: " + id);
+        }
+        long high = 0;
+        long low = 0;
+        for (int i = 0; i < STRING_LENGTH; i++) {
+            high = (high << 6) | (low >>> 58);
+            low = (low << 6) | value(id.charAt(i));
+        }
+        return toBytes(high, low);
+    }
+
+    public static long epochMillisOf(byte[] binary) {
+        return ByteBuffer.wrap(binary).getLong() >>> NODE_BITS;
+    }
+
+    public static int nodeOf(byte[] binary) {
+        return (int) (ByteBuffer.wrap(binary).getLong() & NODE_MASK);
+    }
+
+    private static int sixBits(long high, long low, int position) {
+        if (position >= 64) {
+            return (int) ((high >>> (position - 64)) & 0x3F);
+        }
+        if (position + 6 <= 64) {
+            return (int) ((low >>> position) & 0x3F);
+        }
+        return (int) (((low >>> position) | (high << (64 - position))) & 0x3F);
+    }
+
+    private static int value(char c) {
+        return c < 128 ? VALUES[c] : -1;
+    }
+}
@@ -0,0 +1,55 @@
+package id;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates TimeOrderedIds without any shared mutable state per call.
+ *
+ * Each thread claims a slot once (the only atomic operation) and then
+ * counts its own sequence, so two threads never touch the same cache line
+ * and uniqueness doesn't depend on the clock: (node, slot, sequence) is
+ * unique on its own, the timestamp is there for ordering.
+ */
+public class TimeOrderedIdGenerator implements MessageIdGenerator {
+
+    private final int node;
+    private final AtomicInteger nextSlot = new AtomicInteger();
+    private final ThreadLocal<ThreadState> state = ThreadLocal.withInitial(this::newThreadState);
+
+    public TimeOrderedIdGenerator(int node) {
+        this.node = node & TimeOrderedId.NODE_MASK;
+    }
+
+    @Override
+    public String nextId() {
+        ThreadState s = state.get();
+        return TimeOrderedId.toString(high(), s.nextLow());
+    }
+
+    /** The same ID in its 16-byte binary form. */
+    public byte[] nextBytes() {
+        ThreadState s = state.get();
+        return TimeOrderedId.toBytes(high(), s.nextLow());
+    }
+
+    private long high() {
+        return TimeOrderedId.high(System.currentTimeMillis(), node);
+    }
+
+    private ThreadState newThreadState() {
+        return new ThreadState(nextSlot.getAndIncrement() & TimeOrderedId.SLOT_MASK);
+    }
+
+    private static final class ThreadState {
+        private final long slotBits;
+        private long sequence;
+
+        ThreadState(int slot) {
+            this.slotBits = (long) slot << TimeOrderedId.SEQUENCE_BITS;
+        }
+
+        long nextLow() {
+            return slotBits | (sequence++ & TimeOrderedId.SEQUENCE_MASK);
+        }
+    }
+}
@@ -11,6 +11,7 @@ public class ChatMessage {
     private String userId;
     private String message;
     private String messageType; // TEXT | JOIN | LEAVE
+    private String correlationId; // optional, echoed back in the ack ChatResponse
 
     public ChatMessage() {}
 
@@ -33,6 +34,9 @@ public class ChatMessage {
     public String getMessageType() { return messageType; }
     public void setMessageType(String messageType) { this.messageType = messageType; }
 
+    public String getCorrelationId() { return correlationId; }
+    public void setCorrelationId(String correlationId) { this.correlationId = correlationId; }
+
     @Override
     public String toString() {
         return "ChatMessage{" +
@@ -1,10 +1,39 @@
 package model;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * What the server sends back on the sender's own connection.
+ *
+ * When the client's ChatMessage carried a correlationId, the reply is a
+ * lightweight ack: the same correlationId plus the epoch-millis times the
+ * server accepted the message and the broker confirmed it, without echoing
+ * the original message. With SPOOL_ENABLED, a message the server had to
+ * spool is acked once it is in the node's local spool instead, and reaches
+ * the broker when the spool drains. Null fields are left out of the JSON.
+ *
+ * With room history on, a client also gets one REPLAY response right after
+ * joining, once the recent broadcasts it missed have been queued: how many
+ * were replayed, the room sequence number of the last one, and whether the
+ * replay covered everything since the client's ?since= point.
+ *
+ * A RETRY response means the message was turned away before being published
+ * because the broker is pushing back; nothing was sent, and the client should
+ * resend it after retryAfterMillis.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public class ChatResponse {
     private String status;
     private String serverTimestamp;
     private ChatMessage originalMessage;
     private String error;
+    private String correlationId;
+    private Long acceptedAt;
+    private Long publishedAt;
+    private Integer replayed;
+    private Long lastSeq;
+    private Boolean complete;
+    private Long retryAfterMillis;
 
     public ChatResponse(){
     }
@@ -21,6 +50,34 @@ public class ChatResponse {
         this.error = error;
     }
 
+    /** Ack for a message that carried a correlationId; publishedAt is when the broker confirmed (or the spool took) it. */
+    public static ChatResponse ack(String correlationId, long acceptedAt, long publishedAt) {
+        ChatResponse response = new ChatResponse();
+        response.status = "SUCCESS";
+        response.correlationId = correlationId;
+        response.acceptedAt = acceptedAt;
+        response.publishedAt = publishedAt;
+        return response;
+    }
+
+    /** Summary sent after the join replay; lastSeq can be passed back as ?since= on reconnect. */
+    public static ChatResponse replay(int replayed, long lastSeq, boolean complete) {
+        ChatResponse response = new ChatResponse();
+        response.status = "REPLAY";
+        response.replayed = replayed;
+        response.lastSeq = lastSeq;
+        response.complete = complete;
+        return response;
+    }
+
+    /** The message was not accepted because the broker is applying back-pressure; resend after the delay. */
+    public static ChatResponse retryLater(String correlationId, long retryAfterMillis, String reason) {
+        ChatResponse response = new ChatResponse("RETRY", reason);
+        response.correlationId = correlationId;
+        response.retryAfterMillis = retryAfterMillis;
+        return response;
+    }
+
     public String getStatus() {
         return status;
     }
@@ -52,4 +109,60 @@ public class ChatResponse {
     public void setError(String error) {
         this.error = error;
     }
+
+    public String getCorrelationId() {
+        return correlationId;
+    }
+
+    public void setCorrelationId(String correlationId) {
+        this.correlationId = correlationId;
+    }
+
+    public Long getAcceptedAt() {
+        return acceptedAt;
+    }
+
+    public void setAcceptedAt(Long acceptedAt) {
+        this.acceptedAt = acceptedAt;
+    }
+
+    public Long getPublishedAt() {
+        return publishedAt;
+    }
+
+    public void setPublishedAt(Long publishedAt) {
+        this.publishedAt = publishedAt;
+    }
+
+    public Integer getReplayed() {
+        return replayed;
+    }
+
+    public void setReplayed(Integer replayed) {
+        this.replayed = replayed;
+    }
+
+    public Long getLastSeq() {
+        return lastSeq;
+    }
+
+    public void setLastSeq(Long lastSeq) {
+        this.lastSeq = lastSeq;
+    }
+
+    public Boolean getComplete() {
+        return complete;
+    }
+
+    public void setComplete(Boolean complete) {
+        this.complete = complete;
+    }
+
+    public Long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+
+    public void setRetryAfterMillis(Long retryAfterMillis) {
+        this.retryAfterMillis = retryAfterMillis;
+    }
 }
@@ -5,7 +5,7 @@ package model;
  */
 public class MessageEnvelope {
 
-    /** UUID assigned at publish time. Used by Redis for deduplication. */
+    /** Assigned at publish time (see id.MessageIdScheme). Used by Redis for deduplication. */
     private String messageId;
 
     /** The chat room this message belongs to. Mirrors the RabbitMQ routing key. */
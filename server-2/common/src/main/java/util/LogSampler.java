@@ -0,0 +1,51 @@
+package util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Rate limiter for per-message log lines.
+ *
+ * Allows at most maxPerInterval log events per interval and counts the rest,
+ * so hot paths can keep a debug trail without writing a line per message:
+ *
+ *   if (log.isDebugEnabled() && sampler.tryAcquire()) {
+ *       log.debug("Received message in room {}", roomId);
+ *   }
+ *
+ * tryAcquire() is lock-free; the interval is reset by whichever caller
+ * first notices it has expired.
+ */
+public class LogSampler {
+
+    private final long intervalNanos;
+    private final long maxPerInterval;
+    private final AtomicLong windowStart;
+    private final AtomicLong usedInWindow = new AtomicLong();
+    private final LongAdder suppressed = new LongAdder();
+
+    public LogSampler(long maxPerInterval, long intervalMillis) {
+        this.maxPerInterval = maxPerInterval;
+        this.intervalNanos = intervalMillis * 1_000_000L;
+        this.windowStart = new AtomicLong(System.nanoTime());
+    }
+
+    /** @return true if the caller may log this event */
+    public boolean tryAcquire() {
+        long now = System.nanoTime();
+        long start = windowStart.get();
+        if (now - start >= intervalNanos && windowStart.compareAndSet(start, now)) {
+            usedInWindow.set(0);
+        }
+        if (usedInWindow.incrementAndGet() <= maxPerInterval) {
+            return true;
+        }
+        suppressed.increment();
+        return false;
+    }
+
+    /** Number of events dropped since the last call. */
+    public long drainSuppressed() {
+        return suppressed.sumThenReset();
+    }
+}
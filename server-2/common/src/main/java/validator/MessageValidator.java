@@ -2,79 +2,97 @@ package validator;
 
 import model.ChatMessage;
 
-import java.time.Instant;
-
 public class MessageValidator {
+
+    private static final ValidationResult VALID = new ValidationResult(true, "Valid");
+
     public static ValidationResult validate(ChatMessage message) {
         if (message == null) {
             return new ValidationResult(false, "Message cannot be null.");
         }
 
-        ValidationResult usernameResult = validateUsername(message.getUsername());
-        if (!usernameResult.isValid()) {
-            return usernameResult;
-        }
+        String error = check(message.getUsername(), message.getUserId(), message.getMessage(),
+                message.getMessageType(), message.getCorrelationId());
+        return error == null ? VALID : new ValidationResult(false, error);
+    }
 
-        ValidationResult userIdResult = validateUserId(message.getUserId());
-        if (!userIdResult.isValid()) {
-            return userIdResult;
+    /**
+     * The same rules as validate(), on raw field text. Used by IngestCodec,
+     * which validates straight from the parser's buffers.
+     * @return the first failing rule's message, or null if the message is valid
+     */
+    public static String check(CharSequence username, CharSequence userId, CharSequence message,
+                               CharSequence messageType, CharSequence correlationId) {
+        String error = validateUsername(username);
+        if (error != null) {
+            return error;
         }
-
-        ValidationResult messageResult = validateMessage(message.getMessage());
-        if (!messageResult.isValid()) {
-            return messageResult;
+        error = validateUserId(userId);
+        if (error != null) {
+            return error;
         }
-
-        ValidationResult typeResult = validateMessageType(message.getMessageType());
-        if (!typeResult.isValid()) {
-            return typeResult;
+        error = validateMessage(message);
+        if (error != null) {
+            return error;
         }
-
-        return new ValidationResult(true, "Valid");
+        error = validateMessageType(messageType);
+        if (error != null) {
+            return error;
+        }
+        return validateCorrelationId(correlationId);
     }
 
-    private static ValidationResult validateUsername(String username) {
-        if (username == null || username.isEmpty()) {
-            return new ValidationResult(false, "Username cannot be null or empty.");
+    private static String validateUsername(CharSequence username) {
+        if (username == null || username.length() == 0) {
+            return "Username cannot be null or empty.";
         }
         if (username.length() < 3 || username.length() >20) {
-            return new ValidationResult(false, "Username must be between 3 and 20 characters.");
+            return "Username must be between 3 and 20 characters.";
         }
-        return new ValidationResult(true, "Valid");
+        return null;
     }
 
-    private static ValidationResult validateUserId(String userId) {
-        if (userId == null || userId.isEmpty()) {
-            return new ValidationResult(false, "UserId cannot be null or empty.");
+    private static String validateUserId(CharSequence userId) {
+        if (userId == null || userId.length() == 0) {
+            return "UserId cannot be null or empty.";
         }
         try {
-            int id = Integer.parseInt(userId);
+            int id = Integer.parseInt(userId, 0, userId.length(), 10);
             if (id < 1 || id > 100000) {
-                return new ValidationResult(false, "UserId must be between 1 and 100000.");
+                return "UserId must be between 1 and 100000.";
             }
         } catch (NumberFormatException e) {
-            return new ValidationResult(false, "UserId must be a number.");
+            return "UserId must be a number.";
         }
-        return new ValidationResult(true, "Valid");
+        return null;
     }
 
-    private static ValidationResult validateMessage(String message) {
-        if (message == null || message.isEmpty()) {
-            return new ValidationResult(false, "Message cannot be null or empty.");
+    private static String validateMessage(CharSequence message) {
+        if (message == null || message.length() == 0) {
+            return "Message cannot be null or empty.";
         }
         if (message.length() < 1 || message.length() > 500) {
-            return new ValidationResult(false, "Message must be between 1 and 500 characters.");
+            return "Message must be between 1 and 500 characters.";
+        }
+        return null;
+    }
+
+    private static String validateCorrelationId(CharSequence correlationId) {
+        // optional, but it is echoed back verbatim so keep it short
+        if (correlationId != null && correlationId.length() > 64) {
+            return "CorrelationId must be at most 64 characters.";
         }
-        return new ValidationResult(true, "Valid");
+        return null;
     }
 
-    private static ValidationResult validateMessageType(String messageType) {
-        if (messageType == null || messageType.isEmpty()) {
-            return new ValidationResult(false, "Message type cannot be null or empty.");
+    private static String validateMessageType(CharSequence messageType) {
+        if (messageType == null || messageType.length() == 0) {
+            return "Message type cannot be null or empty.";
         }
-        if (!messageType.equals("JOIN") && !messageType.equals("LEAVE") && !messageType.equals("TEXT")) {
-            return new ValidationResult(false, "Message type must be or \"JOIN\", \"TEXT\" or \"LEAVE\".");
+        if (!"JOIN".contentEquals(messageType) && !"LEAVE".contentEquals(messageType)
+                && !"TEXT".contentEquals(messageType)) {
+            return "Message type must be or \"JOIN\", \"TEXT\" or \"LEAVE\".";
         }
-        return new ValidationResult(true, "Valid");
+        return null;
     }
 }
@@ -1,24 +1,60 @@
+import cluster.MembershipPublisher;
+import codec.EnvelopeFormat;
+import http.BroadcastLinkServer;
+import http.HttpExecutionMode;
 import http.HttpServerManager;
+import id.MessageIdScheme;
+import metrics.ServerMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rabbitmq.AsyncPublisher;
+import rabbitmq.BatchingPublisher;
+import rabbitmq.MessagePublisher;
+import rabbitmq.PublishFlowControl;
 import rabbitmq.RabbitMQConnectionManager;
-import websocket.ChatWebSocketServer;
+import rabbitmq.SpoolingPublisher;
+import redis.clients.jedis.JedisPool;
+import spool.SegmentSpool;
+import websocket.ChatDeflateExtension;
+import websocket.HeartbeatManager;
+import websocket.OutboundBuffer;
+import websocket.OverflowPolicy;
+import websocket.ReactorGroup;
+import websocket.RoomBroadcaster;
+import websocket.RoomHistory;
+
+import java.net.InetAddress;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Part 1 entry point.
  *
- * Starts two servers:
- *   - ChatWebSocketServer on port 8080  → browser clients connect here
+ * Starts three servers:
+ *   - ReactorGroup         on port 8080 → browser clients connect here (one or more ChatWebSocketServer reactors)
  *   - BroadcastHttpServer  on port 8081 → Part 2 consumer calls here to broadcast
+ *   - BroadcastLinkServer  on port 8083 → Part 2 consumer's persistent broadcast links
  *
- * Shutdown hook gracefully stops both servers and closes RabbitMQ connections.
+ * Shutdown hook gracefully stops the servers and closes RabbitMQ connections.
  */
 public class Main {
 
+    private static final Logger log = LoggerFactory.getLogger(Main.class);
+
     private static final int WEBSOCKET_PORT = 8080;
     private static final int BROADCAST_HTTP_PORT = 8081;
+    private static final int BROADCAST_LINK_PORT = 8083;
+    private static final int RABBITMQ_CONNECTIONS = 2;
+    private static final int PUBLISHER_THREADS = 4;
+    private static final int PUBLISH_QUEUE_CAPACITY = 10000;
+    private static final int STATS_LOG_INTERVAL_SECONDS = 30;
 
     public static void main(String[] args) throws Exception {
 
-        System.out.println("=== Chat Server (Part 1) Starting ===");
+        log.info("=== Chat Server (Part 1) Starting ===");
 
         String rabbitHost = System.getenv().getOrDefault("RABBITMQ_HOST", "172.31.47.205");
 
@@ -27,47 +63,212 @@ public class Main {
                 5672,
                 "admin",
                 "rabbitmq",
-                10
+                RABBITMQ_CONNECTIONS
         );
 
-        ChatWebSocketServer webSocketServer = new ChatWebSocketServer(
-                WEBSOCKET_PORT, rabbitMQConnectionManager);
+        // json (default) or binary; switch to binary once every consumer understands it
+        EnvelopeFormat envelopeFormat = EnvelopeFormat.valueOf(
+                System.getenv().getOrDefault("ENVELOPE_FORMAT", "json").toUpperCase());
+
+        ServerMetrics serverMetrics = new ServerMetrics();
+
+        AsyncPublisher publisher = new AsyncPublisher(
+                rabbitMQConnectionManager, PUBLISHER_THREADS, PUBLISH_QUEUE_CAPACITY, envelopeFormat, serverMetrics);
+        publisher.start();
+
+        // optional per-room micro-batching, off unless PUBLISH_BATCH_MAX_MESSAGES > 1
+        int batchMaxMessages = Integer.parseInt(
+                System.getenv().getOrDefault("PUBLISH_BATCH_MAX_MESSAGES", "1"));
+        long batchWindowMicros = Long.parseLong(
+                System.getenv().getOrDefault("PUBLISH_BATCH_WINDOW_MICROS", "2000"));
+        BatchingPublisher batchingPublisher = batchMaxMessages > 1
+                ? new BatchingPublisher(publisher, batchMaxMessages, batchWindowMicros,
+                        PUBLISH_QUEUE_CAPACITY, envelopeFormat)
+                : null;
+        MessagePublisher livePublisher = batchingPublisher != null ? batchingPublisher : publisher;
+
+        // opt-in local mmap spool that takes messages while the broker is down or lagging, drained once it
+        // recovers. A spooled message is acked to the client once it is on this node's disk, not broker-confirmed
+        SpoolingPublisher spoolingPublisher = null;
+        if (Boolean.parseBoolean(System.getenv().getOrDefault("SPOOL_ENABLED", "false"))) {
+            SegmentSpool spool = new SegmentSpool(
+                    Path.of(System.getenv().getOrDefault("SPOOL_DIR", "spool")),
+                    Integer.parseInt(System.getenv().getOrDefault("SPOOL_SEGMENT_MB", "64")) << 20,
+                    Integer.parseInt(System.getenv().getOrDefault("SPOOL_MAX_SEGMENTS", "16")));
+            spoolingPublisher = new SpoolingPublisher(livePublisher, rabbitMQConnectionManager, spool, envelopeFormat,
+                    Long.parseLong(System.getenv().getOrDefault("SPOOL_LAG_THRESHOLD", "5000")), serverMetrics);
+            spoolingPublisher.start();
+        }
+        MessagePublisher ingressPublisher = spoolingPublisher != null ? spoolingPublisher : livePublisher;
+        SpoolingPublisher spooling = spoolingPublisher;
+
+        // turn messages away with a RETRY while the broker blocks us or too many publishes are in flight;
+        // the high-water mark sits below PUBLISH_QUEUE_CAPACITY so ingress pauses before the queue rejects.
+        // With the spool on, a blocked broker is the spool's job; ingress pauses instead while it drains its backlog
+        PublishFlowControl flowControl = null;
+        if (Boolean.parseBoolean(System.getenv().getOrDefault("PUBLISH_FLOW_CONTROL_ENABLED", "true"))) {
+            flowControl = new PublishFlowControl(spooling != null ? spooling::isDraining : rabbitMQConnectionManager::isBlocked,
+                    Long.parseLong(System.getenv().getOrDefault("PUBLISH_HIGH_WATER", "8000")),
+                    Long.parseLong(System.getenv().getOrDefault("PUBLISH_LOW_WATER", "4000")),
+                    Long.parseLong(System.getenv().getOrDefault("PUBLISH_RETRY_AFTER_MS", "1000")));
+        }
+
+        // per-connection cap on broadcast backlog, so slow clients can't grow the heap
+        OutboundBuffer.Limits outboundLimits = new OutboundBuffer.Limits(
+                Long.parseLong(System.getenv().getOrDefault("OUTBOUND_MAX_BYTES", "1048576")),
+                Integer.parseInt(System.getenv().getOrDefault("OUTBOUND_MAX_MESSAGES", "1000")),
+                OverflowPolicy.valueOf(System.getenv().getOrDefault("OUTBOUND_OVERFLOW_POLICY", "DROP_OLDEST")));
+
+        // time_ordered (default) or uuid; consumers dedup either form
+        MessageIdScheme messageIdScheme = MessageIdScheme.valueOf(
+                System.getenv().getOrDefault("MESSAGE_ID_SCHEME", "time_ordered").toUpperCase());
+
+        // opt-in permessage-deflate for clients that offer it; broadcasts are compressed once per room
+        ChatDeflateExtension.Settings compression = null;
+        if (Boolean.parseBoolean(System.getenv().getOrDefault("WS_COMPRESSION_ENABLED", "false"))) {
+            compression = new ChatDeflateExtension.Settings(
+                    Integer.parseInt(System.getenv().getOrDefault("WS_COMPRESSION_THRESHOLD", "256")),
+                    Integer.parseInt(System.getenv().getOrDefault("WS_COMPRESSION_LEVEL", "6")),
+                    Boolean.parseBoolean(System.getenv().getOrDefault("WS_COMPRESSION_CLIENT_NO_CONTEXT_TAKEOVER", "false")));
+            log.info("WebSocket compression enabled: {}", compression);
+        }
+
+        boolean clusterMembershipEnabled = Boolean.parseBoolean(
+                System.getenv().getOrDefault("CLUSTER_MEMBERSHIP_ENABLED", "false"));
+        long membershipSyncIntervalMs = Long.parseLong(
+                System.getenv().getOrDefault("MEMBERSHIP_SYNC_INTERVAL_MS", "1000"));
+
+        // last N broadcasts per room, replayed on join (?since= for resume); 0 turns it off
+        int roomHistorySize = Integer.parseInt(System.getenv().getOrDefault("ROOM_HISTORY_SIZE", "100"));
+        RoomHistory roomHistory = null;
+        if (roomHistorySize > 0) {
+            // with membership on, broadcasts for a room stop coming here about a sync interval after it empties
+            roomHistory = new RoomHistory(roomHistorySize,
+                    clusterMembershipEnabled ? membershipSyncIntervalMs : Long.MAX_VALUE);
+        }
+
+        // liveness on a timing wheel: pings spread evenly over the interval, dead sockets evicted;
+        // HEARTBEAT_WHEEL_ENABLED=false falls back to the library's all-at-once checker
+        HeartbeatManager heartbeat = null;
+        if (Boolean.parseBoolean(System.getenv().getOrDefault("HEARTBEAT_WHEEL_ENABLED", "true"))) {
+            heartbeat = new HeartbeatManager(
+                    Long.parseLong(System.getenv().getOrDefault("HEARTBEAT_INTERVAL_MS", "30000")),
+                    Long.parseLong(System.getenv().getOrDefault("HEARTBEAT_TIMEOUT_MS", "75000")),
+                    Long.parseLong(System.getenv().getOrDefault("HEARTBEAT_HANDSHAKE_TIMEOUT_MS", "10000")),
+                    Integer.parseInt(System.getenv().getOrDefault("HEARTBEAT_WHEEL_SLOTS", "512")),
+                    serverMetrics);
+        }
+
+        // reactors > 1 binds the port once per reactor with SO_REUSEPORT (Linux) to spread accepts and I/O over cores
+        int reactors = Integer.parseInt(System.getenv().getOrDefault("WS_REACTORS", "1"));
+        int decodersPerReactor = Integer.parseInt(System.getenv().getOrDefault("WS_DECODERS_PER_REACTOR",
+                String.valueOf(Math.max(1, Runtime.getRuntime().availableProcessors() / reactors))));
+
+        ReactorGroup webSocketServer = new ReactorGroup(
+                WEBSOCKET_PORT, reactors, decodersPerReactor, ingressPublisher, serverMetrics, outboundLimits,
+                messageIdScheme, envelopeFormat, compression, roomHistory, heartbeat, flowControl);
 
         try {
             webSocketServer.start();
             Thread.sleep(1000);
         } catch (Exception e) {
-            System.err.println("Failed to start WebSocket server: " + e.getMessage());
-            e.printStackTrace();
+            log.error("Failed to start WebSocket server: {}", e.getMessage(), e);
         }
 
+        RoomBroadcaster roomBroadcaster = new RoomBroadcaster(webSocketServer.getRoomRegistry(), roomHistory, serverMetrics);
+
+        // platform (default) or virtual; virtual absorbs bursts of concurrent POSTs without a big pool
+        HttpExecutionMode httpExecutionMode = HttpExecutionMode.valueOf(
+                System.getenv().getOrDefault("HTTP_EXECUTION_MODE", "platform").toUpperCase());
+        int httpMaxThreads = Integer.parseInt(System.getenv().getOrDefault("HTTP_MAX_THREADS", "200"));
+
         HttpServerManager broadcastHttpServer = new HttpServerManager(
-                BROADCAST_HTTP_PORT, webSocketServer.getRoomMapping());
+                BROADCAST_HTTP_PORT, httpExecutionMode, httpMaxThreads,
+                roomBroadcaster, rabbitMQConnectionManager, serverMetrics);
         broadcastHttpServer.start();
-        System.out.println("Broadcast HTTP server started on port " + BROADCAST_HTTP_PORT);
+        log.info("Broadcast HTTP server started on port {}", BROADCAST_HTTP_PORT);
 
-        System.out.println("=== Chat Server Running ===");
-        System.out.println("  WebSocket:  ws://localhost:" + WEBSOCKET_PORT);
-        System.out.println("  Broadcast:  http://localhost:" + BROADCAST_HTTP_PORT + "/internal/broadcast");
+        BroadcastLinkServer broadcastLinkServer = new BroadcastLinkServer(BROADCAST_LINK_PORT, roomBroadcaster);
+        broadcastLinkServer.start();
+
+        // with several nodes behind the ALB, tell consumers which rooms live here
+        MembershipPublisher membershipPublisher = null;
+        if (clusterMembershipEnabled) {
+            String advertiseHost = System.getenv().getOrDefault(
+                    "NODE_ADVERTISE_HOST", InetAddress.getLocalHost().getHostAddress());
+            Map<String, String> nodeInfo = Map.of(
+                    "broadcastUrl", "http://" + advertiseHost + ":" + BROADCAST_HTTP_PORT + "/internal/broadcast",
+                    "batchUrl", "http://" + advertiseHost + ":" + BROADCAST_HTTP_PORT + "/internal/broadcast/batch",
+                    "linkUrl", "ws://" + advertiseHost + ":" + BROADCAST_LINK_PORT);
+            JedisPool membershipRedis = new JedisPool(
+                    System.getenv().getOrDefault("REDIS_HOST", "localhost"),
+                    Integer.parseInt(System.getenv().getOrDefault("REDIS_PORT", "6379")));
+            membershipPublisher = new MembershipPublisher(membershipRedis, webSocketServer.getRoomRegistry(),
+                    webSocketServer.getServerId(), nodeInfo, membershipSyncIntervalMs);
+            membershipPublisher.start();
+        }
+        MembershipPublisher clusterMembership = membershipPublisher;
+
+        // one summary line instead of a line per message
+        ScheduledExecutorService statsLogger = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "stats-logger");
+            t.setDaemon(true);
+            return t;
+        });
+        statsLogger.scheduleAtFixedRate(() -> log.info("Stats: connections={} {}",
+                        webSocketServer.getRoomRegistry().getConnectionCount(), serverMetrics.snapshot()),
+                STATS_LOG_INTERVAL_SECONDS, STATS_LOG_INTERVAL_SECONDS, TimeUnit.SECONDS);
+
+        log.info("=== Chat Server Running ===");
+        log.info("  WebSocket:  ws://localhost:{}", WEBSOCKET_PORT);
+        log.info("  Broadcast:  http://localhost:{}/internal/broadcast", BROADCAST_HTTP_PORT);
+        log.info("  Batch:      http://localhost:{}/internal/broadcast/batch", BROADCAST_HTTP_PORT);
+        log.info("  Link:       ws://localhost:{}", BROADCAST_LINK_PORT);
 
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-            System.out.println("Shutdown signal received...");
+            log.info("Shutdown signal received...");
+            statsLogger.shutdownNow();
+            if (clusterMembership != null) {
+                // first, so consumers stop routing broadcasts here
+                clusterMembership.close();
+            }
             try {
                 broadcastHttpServer.stop();
             } catch (Exception e) {
-                System.err.println("Error stopping HTTP server: " + e.getMessage());
+                log.error("Error stopping HTTP server: {}", e.getMessage());
+            }
+            try {
+                broadcastLinkServer.stop(1000);
+            } catch (Exception e) {
+                log.error("Error stopping broadcast link server: {}", e.getMessage());
             }
             try {
                 webSocketServer.stop(1000);
             } catch (Exception e) {
-                System.err.println("Error stopping WebSocket server: " + e.getMessage());
+                log.error("Error stopping WebSocket server: {}", e.getMessage());
+            }
+            if (batchingPublisher != null) {
+                batchingPublisher.close();
+            }
+            try {
+                publisher.close();
+            } catch (Exception e) {
+                log.error("Error stopping publisher: {}", e.getMessage());
+            }
+            if (spooling != null) {
+                // after the publisher, so what it fails on the way down is spooled
+                try {
+                    spooling.close();
+                } catch (Exception e) {
+                    log.error("Error closing spool: {}", e.getMessage());
+                }
             }
             try {
                 rabbitMQConnectionManager.close();
             } catch (Exception e) {
-                System.err.println("Error stopping RabbitMQ server: " + e.getMessage());
+                log.error("Error stopping RabbitMQ server: {}", e.getMessage());
             }
-            System.out.println("=== Chat Server Stopped ===");
+            log.info("=== Chat Server Stopped ===");
         }, "shutdown-hook"));
 
         // Keep main thread alive
@@ -0,0 +1,175 @@
+package cluster;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import util.LogSampler;
+import websocket.RoomRegistry;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes which rooms this node hosts to Redis, so the consumer only
+ * broadcasts to nodes that have members in a room.
+ *
+ * Redis layout (the consumer's ClusterMembership reads the same keys):
+ *   chatflow:node:{nodeId} → hash of this node's broadcastUrl / batchUrl / linkUrl.
+ *                            Expires after ttlSeconds unless refreshed, so it
+ *                            doubles as the node's heartbeat.
+ *   chatflow:room:{roomId} → hash nodeId → member count on that node
+ *   chatflow:membership:changes → pub/sub channel; a room ID published here
+ *                            tells consumers to drop their cached nodes for it
+ *
+ * Every intervalMs the whole local view is written in one pipeline: counts
+ * for occupied rooms, HDEL for rooms that emptied since the last sync, and a
+ * refreshed node key. A crashed node's room entries stay behind, but
+ * without its node key the consumer ignores them.
+ *
+ * A room that gets its first member on this node doesn't wait for the next
+ * sync: it is written at once and announced on the changes channel, so the
+ * consumer starts sending its broadcasts here right away instead of up to a
+ * sync interval plus its cache time later. A room that empties just keeps
+ * getting broadcasts here until both catch up, which costs nothing but the
+ * calls.
+ */
+public class MembershipPublisher {
+
+    private static final Logger log = LoggerFactory.getLogger(MembershipPublisher.class);
+
+    public static final String NODE_KEY_PREFIX = "chatflow:node:";
+    public static final String ROOM_KEY_PREFIX = "chatflow:room:";
+    public static final String CHANGES_CHANNEL = "chatflow:membership:changes";
+
+    private final LogSampler failureLogSampler = new LogSampler(1, 10000);
+    private final JedisPool jedisPool;
+    private final RoomRegistry roomRegistry;
+    private final String nodeId;
+    private final Map<String, String> nodeInfo;
+    private final long intervalMs;
+    private final int ttlSeconds;
+    private final ScheduledExecutorService scheduler;
+
+    // only touched by the scheduler thread (and close() after it stopped)
+    private Set<String> publishedRooms = new HashSet<>();
+
+    public MembershipPublisher(JedisPool jedisPool, RoomRegistry roomRegistry, String nodeId,
+                               Map<String, String> nodeInfo, long intervalMs) {
+        this.jedisPool = jedisPool;
+        this.roomRegistry = roomRegistry;
+        this.nodeId = nodeId;
+        this.nodeInfo = nodeInfo;
+        this.intervalMs = intervalMs;
+        // three missed syncs and the node counts as gone
+        this.ttlSeconds = (int) Math.max(1, TimeUnit.MILLISECONDS.toSeconds(intervalMs * 3));
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "membership-publisher");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public void start() {
+        scheduler.scheduleWithFixedDelay(this::sync, 0, intervalMs, TimeUnit.MILLISECONDS);
+        roomRegistry.setRoomOpenedListener(this::roomOpened);
+        log.info("Publishing room membership for node {} every {}ms: {}", nodeId, intervalMs, nodeInfo);
+    }
+
+    private void sync() {
+        Map<String, Integer> counts = new HashMap<>();
+        roomRegistry.getRooms().forEach((roomId, members) -> {
+            int count = members.size();
+            if (count > 0) {
+                counts.put(roomId, count);
+            }
+        });
+
+        try (Jedis jedis = jedisPool.getResource()) {
+            Pipeline pipeline = jedis.pipelined();
+            String nodeKey = NODE_KEY_PREFIX + nodeId;
+            pipeline.hset(nodeKey, nodeInfo);
+            pipeline.expire(nodeKey, ttlSeconds);
+            for (Map.Entry<String, Integer> room : counts.entrySet()) {
+                String roomKey = ROOM_KEY_PREFIX + room.getKey();
+                pipeline.hset(roomKey, nodeId, Integer.toString(room.getValue()));
+                // a room hash outlives its last node by one TTL at most
+                pipeline.expire(roomKey, ttlSeconds);
+            }
+            for (String roomId : publishedRooms) {
+                if (!counts.containsKey(roomId)) {
+                    pipeline.hdel(ROOM_KEY_PREFIX + roomId, nodeId);
+                }
+            }
+            for (String roomId : counts.keySet()) {
+                if (!publishedRooms.contains(roomId)) {
+                    // opened without roomOpened() getting through
+                    pipeline.publish(CHANGES_CHANNEL, roomId);
+                }
+            }
+            pipeline.sync();
+            publishedRooms = new HashSet<>(counts.keySet());
+        } catch (Exception e) {
+            if (failureLogSampler.tryAcquire()) {
+                log.warn("Failed to publish room membership to Redis: {}", e.getMessage());
+            }
+        }
+    }
+
+    /** A join gave the room its first member here; publish it now rather than on the next sync. */
+    private void roomOpened(String roomId) {
+        try {
+            scheduler.execute(() -> publishOpened(roomId));
+        } catch (RejectedExecutionException e) {
+            // closing
+        }
+    }
+
+    private void publishOpened(String roomId) {
+        int count = roomRegistry.getMembers(roomId).size();
+        if (count == 0) {
+            return;
+        }
+        try (Jedis jedis = jedisPool.getResource()) {
+            Pipeline pipeline = jedis.pipelined();
+            String roomKey = ROOM_KEY_PREFIX + roomId;
+            pipeline.hset(roomKey, nodeId, Integer.toString(count));
+            pipeline.expire(roomKey, ttlSeconds);
+            pipeline.publish(CHANGES_CHANNEL, roomId);
+            pipeline.sync();
+            publishedRooms.add(roomId);
+        } catch (Exception e) {
+            if (failureLogSampler.tryAcquire()) {
+                log.warn("Failed to publish room {} to Redis: {}", roomId, e.getMessage());
+            }
+        }
+    }
+
+    /** Stops syncing and removes this node from Redis so consumers stop sending to it. */
+    public void close() {
+        scheduler.shutdownNow();
+        try {
+            scheduler.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try (Jedis jedis = jedisPool.getResource()) {
+            Pipeline pipeline = jedis.pipelined();
+            for (String roomId : publishedRooms) {
+                pipeline.hdel(ROOM_KEY_PREFIX + roomId, nodeId);
+            }
+            pipeline.del(NODE_KEY_PREFIX + nodeId);
+            pipeline.sync();
+        } catch (Exception e) {
+            log.warn("Failed to remove node {} from Redis: {}", nodeId, e.getMessage());
+        }
+        jedisPool.close();
+    }
+}
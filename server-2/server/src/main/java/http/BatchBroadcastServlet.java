@@ -0,0 +1,55 @@
+package http;
+
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import util.JsonUtil;
+import websocket.EncodedTextFrame;
+import websocket.RoomBroadcaster;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Broadcasts many (roomId, payload) entries in one request.
+ * Body and response use the length-prefixed format in BroadcastBatchCodec;
+ * the response carries sent/failed counts for every entry, in request order.
+ */
+public class BatchBroadcastServlet extends HttpServlet {
+
+    private final RoomBroadcaster roomBroadcaster;
+
+    public BatchBroadcastServlet(RoomBroadcaster roomBroadcaster) {
+        this.roomBroadcaster = roomBroadcaster;
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        List<BroadcastBatchCodec.Entry> entries;
+        try {
+            entries = BroadcastBatchCodec.decodeRequest(req.getInputStream().readAllBytes());
+        } catch (IllegalArgumentException e) {
+            resp.setStatus(400);
+            resp.setContentType("application/json");
+            resp.getWriter().write(JsonUtil.toJson(Map.of("error", "Invalid batch: " + e.getMessage())));
+            return;
+        }
+
+        int[] sent = new int[entries.size()];
+        int[] failed = new int[entries.size()];
+        for (int i = 0; i < entries.size(); i++) {
+            BroadcastBatchCodec.Entry entry = entries.get(i);
+            RoomBroadcaster.Result result = roomBroadcaster.broadcast(
+                    entry.getRoomId(), EncodedTextFrame.ofUtf8(entry.getPayload()));
+            sent[i] = result.getSent();
+            failed[i] = result.getFailed();
+        }
+
+        byte[] body = BroadcastBatchCodec.encodeResponse(sent, failed);
+        resp.setStatus(200);
+        resp.setContentType(BroadcastBatchCodec.CONTENT_TYPE);
+        resp.setContentLength(body.length);
+        resp.getOutputStream().write(body);
+    }
+}
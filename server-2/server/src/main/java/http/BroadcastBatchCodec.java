@@ -0,0 +1,90 @@
+package http;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary format of the batched broadcast endpoint (/internal/broadcast/batch).
+ * All integers are big-endian. The consumer has a mirror of this class.
+ *
+ * Request:
+ *   byte   version (1)
+ *   int    entryCount
+ *   entryCount × {
+ *     short  roomIdLength,  roomId bytes (UTF-8)
+ *     int    payloadLength, payload bytes (UTF-8 text sent to clients as-is)
+ *   }
+ *
+ * Response:
+ *   byte   version (1)
+ *   int    entryCount
+ *   entryCount × { int sent, int failed }
+ */
+public final class BroadcastBatchCodec {
+
+    public static final String CONTENT_TYPE = "application/vnd.chatflow.broadcast-batch";
+    public static final byte VERSION = 1;
+    public static final int MAX_ENTRIES = 10000;
+
+    private BroadcastBatchCodec() {}
+
+    public static List<Entry> decodeRequest(byte[] body) {
+        try {
+            ByteBuffer buf = ByteBuffer.wrap(body);
+            byte version = buf.get();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported batch version: " + version);
+            }
+            int count = buf.getInt();
+            if (count < 0 || count > MAX_ENTRIES) {
+                throw new IllegalArgumentException("Invalid entry count: " + count);
+            }
+
+            List<Entry> entries = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                byte[] roomId = new byte[buf.getShort() & 0xFFFF];
+                buf.get(roomId);
+                int payloadLength = buf.getInt();
+                if (payloadLength < 0 || payloadLength > buf.remaining()) {
+                    throw new IllegalArgumentException("Invalid payload length at entry " + i);
+                }
+                byte[] payload = new byte[payloadLength];
+                buf.get(payload);
+                entries.add(new Entry(new String(roomId, StandardCharsets.UTF_8), payload));
+            }
+            if (buf.hasRemaining()) {
+                throw new IllegalArgumentException("Trailing bytes after " + count + " entries");
+            }
+            return entries;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated batch body");
+        }
+    }
+
+    public static byte[] encodeResponse(int[] sent, int[] failed) {
+        ByteBuffer buf = ByteBuffer.allocate(1 + 4 + sent.length * 8);
+        buf.put(VERSION);
+        buf.putInt(sent.length);
+        for (int i = 0; i < sent.length; i++) {
+            buf.putInt(sent[i]);
+            buf.putInt(failed[i]);
+        }
+        return buf.array();
+    }
+
+    public static class Entry {
+        private final String roomId;
+        private final byte[] payload;
+
+        public Entry(String roomId, byte[] payload) {
+            this.roomId = roomId;
+            this.payload = payload;
+        }
+
+        public String getRoomId() { return roomId; }
+        public byte[] getPayload() { return payload; }
+    }
+}
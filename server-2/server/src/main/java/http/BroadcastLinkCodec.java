@@ -0,0 +1,73 @@
+package http;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Frame format of the persistent broadcast link (BroadcastLinkServer).
+ * Every frame is one binary WebSocket message; integers are big-endian.
+ * The consumer has a mirror of this class.
+ *
+ * Broadcast (consumer → Part 1):
+ *   byte   version (1)
+ *   long   correlationId
+ *   short  roomIdLength, roomId bytes (UTF-8)
+ *   rest   payload bytes (UTF-8 text sent to clients as-is)
+ *
+ * Ack (Part 1 → consumer):
+ *   byte   version (1)
+ *   long   correlationId
+ *   int    sent
+ *   int    failed
+ */
+public final class BroadcastLinkCodec {
+
+    public static final byte VERSION = 1;
+    public static final int ACK_LENGTH = 1 + 8 + 4 + 4;
+
+    private BroadcastLinkCodec() {}
+
+    public static Broadcast decodeBroadcast(ByteBuffer frame) {
+        try {
+            byte version = frame.get();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported link version: " + version);
+            }
+            long correlationId = frame.getLong();
+            byte[] roomId = new byte[frame.getShort() & 0xFFFF];
+            frame.get(roomId);
+            byte[] payload = new byte[frame.remaining()];
+            frame.get(payload);
+            return new Broadcast(correlationId, new String(roomId, StandardCharsets.UTF_8), payload);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated broadcast frame");
+        }
+    }
+
+    public static ByteBuffer encodeAck(long correlationId, int sent, int failed) {
+        ByteBuffer buf = ByteBuffer.allocate(ACK_LENGTH);
+        buf.put(VERSION);
+        buf.putLong(correlationId);
+        buf.putInt(sent);
+        buf.putInt(failed);
+        buf.flip();
+        return buf;
+    }
+
+    public static class Broadcast {
+        private final long correlationId;
+        private final String roomId;
+        private final byte[] payload;
+
+        public Broadcast(long correlationId, String roomId, byte[] payload) {
+            this.correlationId = correlationId;
+            this.roomId = roomId;
+            this.payload = payload;
+        }
+
+        public long getCorrelationId() { return correlationId; }
+        public String getRoomId() { return roomId; }
+        public byte[] getPayload() { return payload; }
+    }
+}
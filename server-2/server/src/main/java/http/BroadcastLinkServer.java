@@ -0,0 +1,80 @@
+package http;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.server.WebSocketServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import websocket.EncodedTextFrame;
+import websocket.RoomBroadcaster;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * Receiving side of the persistent consumer → Part 1 broadcast link.
+ *
+ * A consumer keeps a few WebSocket connections open to this port and
+ * pipelines binary broadcast frames down them (BroadcastLinkCodec). Every
+ * frame is fanned out to the room and answered with an ack carrying the same
+ * correlation ID, so the consumer can keep many broadcasts in flight per
+ * link without any HTTP parsing or servlet dispatch.
+ *
+ * Frames from one link are handled in order on that link's worker thread.
+ */
+public class BroadcastLinkServer extends WebSocketServer {
+
+    private static final Logger log = LoggerFactory.getLogger(BroadcastLinkServer.class);
+
+    private final RoomBroadcaster roomBroadcaster;
+
+    public BroadcastLinkServer(int port, RoomBroadcaster roomBroadcaster) {
+        super(new InetSocketAddress(port));
+        this.roomBroadcaster = roomBroadcaster;
+        setTcpNoDelay(true);
+    }
+
+    @Override
+    public void onOpen(WebSocket conn, ClientHandshake handshake) {
+        log.info("Broadcast link opened from {}", conn.getRemoteSocketAddress());
+    }
+
+    @Override
+    public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+        log.info("Broadcast link from {} closed: {} {}", conn.getRemoteSocketAddress(), code, reason);
+    }
+
+    @Override
+    public void onMessage(WebSocket conn, ByteBuffer frame) {
+        BroadcastLinkCodec.Broadcast broadcast;
+        try {
+            broadcast = BroadcastLinkCodec.decodeBroadcast(frame);
+        } catch (IllegalArgumentException e) {
+            // without a correlation ID there is nothing to ack, so drop the link
+            log.warn("Malformed frame on broadcast link from {}: {}", conn.getRemoteSocketAddress(), e.getMessage());
+            conn.close(1007, "Malformed broadcast frame");
+            return;
+        }
+
+        RoomBroadcaster.Result result = roomBroadcaster.broadcast(
+                broadcast.getRoomId(), EncodedTextFrame.ofUtf8(broadcast.getPayload()));
+        if (conn.isOpen()) {
+            conn.send(BroadcastLinkCodec.encodeAck(broadcast.getCorrelationId(), result.getSent(), result.getFailed()));
+        }
+    }
+
+    @Override
+    public void onMessage(WebSocket conn, String message) {
+        conn.close(1003, "Broadcast link accepts binary frames only");
+    }
+
+    @Override
+    public void onError(WebSocket conn, Exception ex) {
+        log.warn("Broadcast link error: {}", ex.getMessage());
+    }
+
+    @Override
+    public void onStart() {
+        log.info("Broadcast link server started on port {}", getPort());
+    }
+}
@@ -3,21 +3,22 @@ package http;
 import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
-import org.java_websocket.WebSocket;
 import util.JsonUtil;
+import websocket.EncodedTextFrame;
+import websocket.RoomBroadcaster;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 
 public class BroadcastServlet extends HttpServlet {
-    private final ConcurrentHashMap<WebSocket, String> roomMapping;
 
-    public BroadcastServlet(ConcurrentHashMap<WebSocket, String> roomMapping) {
-        this.roomMapping = roomMapping;
+    private final RoomBroadcaster roomBroadcaster;
+
+    public BroadcastServlet(RoomBroadcaster roomBroadcaster) {
+        this.roomBroadcaster = roomBroadcaster;
     }
 
     @Override
@@ -47,28 +48,13 @@ public class BroadcastServlet extends HttpServlet {
             return;
         }
 
-        // broadcast loop
-        int sent = 0;
-        int failed = 0;
-        for (Map.Entry<WebSocket, String> entry : roomMapping.entrySet()) {
-            if (roomId.equals(entry.getValue())) {
-                WebSocket conn = entry.getKey();
-                try {
-                    if (conn.isOpen()) {
-                        conn.send(message);
-                        sent++;
-                    }
-                } catch (Exception e) {
-                    System.err.println("Failed to send to client in room " + roomId + ": " + e.getMessage());
-                    failed++;
-                }
-            }
-        }
+        // encode the frame once, every member gets a view over the same bytes
+        RoomBroadcaster.Result broadcast = roomBroadcaster.broadcast(roomId, EncodedTextFrame.of(message));
 
         // Build response using JsonUtil
         Map<String, Object> result = new HashMap<>();
-        result.put("sent", sent);
-        result.put("failed", failed);
+        result.put("sent", broadcast.getSent());
+        result.put("failed", broadcast.getFailed());
         result.put("roomId", roomId);
         resp.setStatus(200);
         resp.setContentType("application/json");
@@ -3,7 +3,10 @@ package http;
 import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
+import metrics.ServerMetrics;
+import rabbitmq.RabbitMQConnectionManager;
 import util.JsonUtil;
+import websocket.RoomBroadcaster;
 
 import java.io.IOException;
 import java.util.HashMap;
@@ -11,6 +14,17 @@ import java.util.Map;
 
 public class HealthServlet extends HttpServlet {
 
+    private final RabbitMQConnectionManager rabbitMQConnectionManager;
+    private final ServerMetrics metrics;
+    private final RoomBroadcaster roomBroadcaster;
+
+    public HealthServlet(RabbitMQConnectionManager rabbitMQConnectionManager, ServerMetrics metrics,
+                         RoomBroadcaster roomBroadcaster) {
+        this.rabbitMQConnectionManager = rabbitMQConnectionManager;
+        this.metrics = metrics;
+        this.roomBroadcaster = roomBroadcaster;
+    }
+
     @Override
     protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
         resp.setContentType("application/json");
@@ -21,6 +35,15 @@ public class HealthServlet extends HttpServlet {
         health.put("timestamp", java.time.Instant.now().toString());
         health.put("service", "Websocket chat server");
 
+        Map<String, Object> rabbitmq = new HashMap<>();
+        rabbitmq.put("openConnections", rabbitMQConnectionManager.getOpenConnectionCount());
+        rabbitmq.put("reconnectAttempts", rabbitMQConnectionManager.getReconnectAttempts());
+        rabbitmq.put("reconnects", rabbitMQConnectionManager.getReconnectSuccesses());
+        rabbitmq.put("blockedConnections", rabbitMQConnectionManager.getBlockedConnectionCount());
+        health.put("rabbitmq", rabbitmq);
+        health.put("outbound", roomBroadcaster.outboundStats());
+        health.put("metrics", metrics.snapshot());
+
         resp.getWriter().write(JsonUtil.toJson(health));
     }
 }
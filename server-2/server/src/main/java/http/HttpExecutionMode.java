@@ -0,0 +1,14 @@
+package http;
+
+/**
+ * Where the broadcast HTTP server runs servlet dispatch.
+ */
+public enum HttpExecutionMode {
+    /** Jetty's QueuedThreadPool; concurrency is capped by its max thread count. */
+    PLATFORM,
+    /**
+     * Each request on its own virtual thread, so blocking body reads and
+     * WebSocket sends don't pin a pool thread. Needs a Java 21 runtime.
+     */
+    VIRTUAL
+}
@@ -1,33 +1,70 @@
 package http;
 
+import metrics.ServerMetrics;
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
-import org.java_websocket.WebSocket;
+import org.eclipse.jetty.util.VirtualThreads;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rabbitmq.RabbitMQConnectionManager;
+import websocket.RoomBroadcaster;
 
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 
 public class HttpServerManager {
 
+    private static final Logger log = LoggerFactory.getLogger(HttpServerManager.class);
+
     private final Server server;
-    private final ConcurrentHashMap<WebSocket, String> roomMapping;
+    private final RoomBroadcaster roomBroadcaster;
+
+    public HttpServerManager(int port, HttpExecutionMode executionMode, int maxThreads,
+                             RoomBroadcaster roomBroadcaster,
+                             RabbitMQConnectionManager rabbitMQConnectionManager, ServerMetrics metrics) {
+        this.server = new Server(createThreadPool(executionMode, maxThreads));
+        this.roomBroadcaster = roomBroadcaster;
 
-    public HttpServerManager(int port, ConcurrentHashMap<WebSocket, String> roomMapping) {
-        this.server = new Server(port);
-        this.roomMapping = new ConcurrentHashMap<>();
+        ServerConnector connector = new ServerConnector(server);
+        connector.setPort(port);
+        server.addConnector(connector);
 
         ServletContextHandler context = new ServletContextHandler(ServletContextHandler.SESSIONS);
         context.setContextPath("/");
         server.setHandler(context);
 
-        context.addServlet(new ServletHolder(new HealthServlet()), "/health");
-        context.addServlet(new ServletHolder(new BroadcastServlet(this.roomMapping)), "/internal/broadcast");
+        context.addServlet(new ServletHolder(new HealthServlet(rabbitMQConnectionManager, metrics, this.roomBroadcaster)), "/health");
+        context.addServlet(new ServletHolder(new BroadcastServlet(this.roomBroadcaster)), "/internal/broadcast");
+        context.addServlet(new ServletHolder(new BatchBroadcastServlet(this.roomBroadcaster)), "/internal/broadcast/batch");
+    }
+
+    /**
+     * The platform pool always exists: Jetty's selectors and acceptors run on it.
+     * In VIRTUAL mode Jetty hands blocking work (servlet dispatch) to the
+     * virtual-thread executor instead of pool threads.
+     */
+    private static QueuedThreadPool createThreadPool(HttpExecutionMode executionMode, int maxThreads) {
+        QueuedThreadPool threadPool = new QueuedThreadPool(maxThreads);
+        threadPool.setName("broadcast-http");
+
+        if (executionMode == HttpExecutionMode.VIRTUAL) {
+            Executor virtualThreads = VirtualThreads.getDefaultVirtualThreadsExecutor();
+            if (virtualThreads != null) {
+                threadPool.setVirtualThreadsExecutor(virtualThreads);
+                log.info("Broadcast HTTP server dispatching on virtual threads");
+            } else {
+                log.warn("Virtual threads need Java 21+ (running {}); using the platform pool",
+                        System.getProperty("java.version"));
+            }
+        }
+        return threadPool;
     }
 
     public void start() throws Exception {
         server.start();
-        System.out.println("Http server started on port " +
-                server.getURI().getPort());
+        log.info("Http server started on port {}", server.getURI().getPort());
     }
 
     public void stop() throws Exception {
@@ -0,0 +1,182 @@
+package metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters for the Part 1 hot paths.
+ *
+ * These replace the per-message console lines: the WebSocket and broadcast
+ * paths only bump a LongAdder, and the totals are exposed through /health
+ * and a periodic summary log line.
+ */
+public class ServerMetrics {
+
+    private final LongAdder connectionsOpened = new LongAdder();
+    private final LongAdder connectionsClosed = new LongAdder();
+    private final LongAdder connectionsRejected = new LongAdder();
+    private final LongAdder messagesReceived = new LongAdder();
+    private final LongAdder messagesInvalid = new LongAdder();
+    private final LongAdder publishConfirmed = new LongAdder();
+    private final LongAdder publishFailed = new LongAdder();
+    private final LongAdder publishRejected = new LongAdder();
+    private final LongAdder publishThrottled = new LongAdder();
+    private final LongAdder publishWindowWaits = new LongAdder();
+    private final LongAdder publishWindowWaitNanos = new LongAdder();
+    private final LongAccumulator publishWindowWaitMaxNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder broadcastRequests = new LongAdder();
+    private final LongAdder broadcastFramesSent = new LongAdder();
+    private final LongAdder broadcastSendFailures = new LongAdder();
+    private final LongAdder outboundQueuedBytes = new LongAdder();
+    private final LongAdder outboundFramesDropped = new LongAdder();
+    private final LongAdder slowConsumerEvictions = new LongAdder();
+    private final LongAdder deflateCount = new LongAdder();
+    private final LongAdder deflateNanos = new LongAdder();
+    private final LongAdder deflateInputBytes = new LongAdder();
+    private final LongAdder deflateOutputBytes = new LongAdder();
+    private final LongAdder inflateCount = new LongAdder();
+    private final LongAdder inflateNanos = new LongAdder();
+    private final LongAdder compressedFramesSent = new LongAdder();
+    private final LongAdder compressedFramesPlainBytes = new LongAdder();
+    private final LongAdder compressedFramesSentBytes = new LongAdder();
+    private final LongAdder heartbeatPingsSent = new LongAdder();
+    private final LongAdder heartbeatIdleEvictions = new LongAdder();
+    private final LongAdder heartbeatHalfOpenEvictions = new LongAdder();
+    private final LongAdder pingRttCount = new LongAdder();
+    private final LongAdder pingRttNanos = new LongAdder();
+    private final LongAccumulator pingRttMaxNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder spoolAppended = new LongAdder();
+    private final LongAdder spoolDrained = new LongAdder();
+    private final LongAdder spoolFull = new LongAdder();
+    private final LongAdder spoolPendingRecords = new LongAdder();
+    private volatile long spoolOldestPendingAt;
+
+    public void recordConnectionOpened() { connectionsOpened.increment(); }
+    public void recordConnectionClosed() { connectionsClosed.increment(); }
+    public void recordConnectionRejected() { connectionsRejected.increment(); }
+    public void recordMessageReceived() { messagesReceived.increment(); }
+    public void recordMessageInvalid() { messagesInvalid.increment(); }
+    public void recordPublishConfirmed() { publishConfirmed.increment(); }
+    public void recordPublishFailed() { publishFailed.increment(); }
+    public void recordPublishRejected() { publishRejected.increment(); }
+    public void recordPublishThrottled() { publishThrottled.increment(); }
+
+    /** A publisher thread found its channel's confirm window full and waited this long for a slot. */
+    public void recordPublishWindowWait(long nanos) {
+        publishWindowWaits.increment();
+        publishWindowWaitNanos.add(nanos);
+        publishWindowWaitMaxNanos.accumulate(nanos);
+    }
+    public void recordBroadcastRequest() { broadcastRequests.increment(); }
+    public void recordBroadcastFramesSent(int count) { broadcastFramesSent.add(count); }
+    public void recordBroadcastSendFailures(int count) { broadcastSendFailures.add(count); }
+    public void recordOutboundQueuedBytes(long delta) { outboundQueuedBytes.add(delta); }
+    public void recordOutboundFramesDropped(int count) { outboundFramesDropped.add(count); }
+    public void recordSlowConsumerEviction() { slowConsumerEvictions.increment(); }
+
+    /** One deflate run (shared broadcasts are deflated once, however many recipients). */
+    public void recordDeflate(long inputBytes, long outputBytes, long nanos) {
+        deflateCount.increment();
+        deflateInputBytes.add(inputBytes);
+        deflateOutputBytes.add(outputBytes);
+        deflateNanos.add(nanos);
+    }
+
+    public void recordInflate(long nanos) {
+        inflateCount.increment();
+        inflateNanos.add(nanos);
+    }
+
+    /** One compressed frame written to one client: its size uncompressed vs as sent. */
+    public void recordCompressedEgress(long plainFrameBytes, long sentFrameBytes) {
+        compressedFramesSent.increment();
+        compressedFramesPlainBytes.add(plainFrameBytes);
+        compressedFramesSentBytes.add(sentFrameBytes);
+    }
+
+    public void recordHeartbeatPingSent() { heartbeatPingsSent.increment(); }
+    public void recordHeartbeatIdleEviction() { heartbeatIdleEvictions.increment(); }
+    public void recordHeartbeatHalfOpenEviction() { heartbeatHalfOpenEvictions.increment(); }
+
+    /** Time from a heartbeat ping leaving the server to its pong being read. */
+    public void recordPingRtt(long nanos) {
+        pingRttCount.increment();
+        pingRttNanos.add(nanos);
+        pingRttMaxNanos.accumulate(nanos);
+    }
+
+    public void recordSpoolAppended() { spoolAppended.increment(); spoolPendingRecords.increment(); }
+    public void recordSpoolDrained(int count) { spoolDrained.add(count); spoolPendingRecords.add(-count); }
+    public void recordSpoolFull() { spoolFull.increment(); }
+    /** Records left in the spool by a previous run. */
+    public void recordSpoolPending(long count) { spoolPendingRecords.add(count); }
+    public void recordSpoolOldestPendingAt(long epochMillis) { spoolOldestPendingAt = epochMillis; }
+
+    public long getMessagesReceived() { return messagesReceived.sum(); }
+    public long getPublishConfirmed() { return publishConfirmed.sum(); }
+    public long getBroadcastFramesSent() { return broadcastFramesSent.sum(); }
+
+    public Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("connectionsOpened", connectionsOpened.sum());
+        snapshot.put("connectionsClosed", connectionsClosed.sum());
+        snapshot.put("connectionsRejected", connectionsRejected.sum());
+        snapshot.put("messagesReceived", messagesReceived.sum());
+        snapshot.put("messagesInvalid", messagesInvalid.sum());
+        snapshot.put("publishConfirmed", publishConfirmed.sum());
+        snapshot.put("publishFailed", publishFailed.sum());
+        snapshot.put("publishRejected", publishRejected.sum());
+        snapshot.put("publishThrottled", publishThrottled.sum());
+
+        long windowWaits = publishWindowWaits.sum();
+        snapshot.put("publishWindowExhausted", windowWaits);
+        snapshot.put("publishWindowWaitMillis", publishWindowWaitNanos.sum() / 1_000_000);
+        snapshot.put("publishWindowWaitAvgMillis", windowWaits == 0 ? 0.0
+                : round3(publishWindowWaitNanos.sum() / 1_000_000.0 / windowWaits));
+        snapshot.put("publishWindowWaitMaxMillis", round3(publishWindowWaitMaxNanos.get() / 1_000_000.0));
+
+        snapshot.put("broadcastRequests", broadcastRequests.sum());
+        snapshot.put("broadcastFramesSent", broadcastFramesSent.sum());
+        snapshot.put("broadcastSendFailures", broadcastSendFailures.sum());
+        snapshot.put("outboundQueuedBytes", outboundQueuedBytes.sum());
+        snapshot.put("outboundFramesDropped", outboundFramesDropped.sum());
+        snapshot.put("slowConsumerEvictions", slowConsumerEvictions.sum());
+
+        long deflates = deflateCount.sum();
+        long plainBytes = compressedFramesPlainBytes.sum();
+        long inflates = inflateCount.sum();
+        snapshot.put("compressedFramesSent", compressedFramesSent.sum());
+        snapshot.put("compressionEgressRatio", plainBytes == 0 ? 1.0
+                : round3((double) compressedFramesSentBytes.sum() / plainBytes));
+        snapshot.put("compressionEgressBytesSaved", plainBytes - compressedFramesSentBytes.sum());
+        snapshot.put("deflateCount", deflates);
+        snapshot.put("deflateRatio", deflateInputBytes.sum() == 0 ? 1.0
+                : round3((double) deflateOutputBytes.sum() / deflateInputBytes.sum()));
+        snapshot.put("deflateCpuMillis", deflateNanos.sum() / 1_000_000);
+        snapshot.put("deflateAvgMicros", deflates == 0 ? 0.0 : round3(deflateNanos.sum() / 1000.0 / deflates));
+        snapshot.put("inflateCount", inflates);
+        snapshot.put("inflateAvgMicros", inflates == 0 ? 0.0 : round3(inflateNanos.sum() / 1000.0 / inflates));
+
+        long pongs = pingRttCount.sum();
+        snapshot.put("heartbeatPingsSent", heartbeatPingsSent.sum());
+        snapshot.put("heartbeatIdleEvictions", heartbeatIdleEvictions.sum());
+        snapshot.put("heartbeatHalfOpenEvictions", heartbeatHalfOpenEvictions.sum());
+        snapshot.put("pingRttCount", pongs);
+        snapshot.put("pingRttAvgMillis", pongs == 0 ? 0.0 : round3(pingRttNanos.sum() / 1_000_000.0 / pongs));
+        snapshot.put("pingRttMaxMillis", round3(pingRttMaxNanos.get() / 1_000_000.0));
+
+        long oldestPendingAt = spoolOldestPendingAt;
+        snapshot.put("spoolAppended", spoolAppended.sum());
+        snapshot.put("spoolDrained", spoolDrained.sum());
+        snapshot.put("spoolFull", spoolFull.sum());
+        snapshot.put("spoolPendingRecords", spoolPendingRecords.sum());
+        snapshot.put("spoolOldestAgeMillis", oldestPendingAt == 0 ? 0 : System.currentTimeMillis() - oldestPendingAt);
+        return snapshot;
+    }
+
+    private static double round3(double value) {
+        return Math.round(value * 1000) / 1000.0;
+    }
+}
@@ -0,0 +1,318 @@
+package rabbitmq;
+
+import codec.EnvelopeFormat;
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import metrics.ServerMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes envelopes to RabbitMQ off the WebSocket worker threads.
+ *
+ * Flow:
+ * 1. submit() puts the message on a bounded queue (returns false when full)
+ * 2. A dedicated publisher thread drains the queue in batches and publishes
+ *    on its own channel, which is in confirm mode
+ * 3. Every publish is tracked by its sequence number until the broker acks or nacks it
+ * 4. Acks/nacks with multiple=true settle every outstanding sequence number up to the tag
+ * 5. The PublishCallback tells the caller whether the broker accepted the message
+ *
+ * If a channel closes, every message still waiting for a confirm on it is failed,
+ * so nothing is lost silently.
+ *
+ * A publisher thread blocks only when its channel already has
+ * MAX_OUTSTANDING_PER_CHANNEL unconfirmed messages; how often that happens
+ * and how long it waits are recorded in ServerMetrics.
+ */
+public class AsyncPublisher implements MessagePublisher {
+
+    private static final Logger log = LoggerFactory.getLogger(AsyncPublisher.class);
+
+    static final String EXCHANGE_NAME = "chat.exchange";
+    private static final int BATCH_SIZE = 100;
+    private static final int MAX_OUTSTANDING_PER_CHANNEL = 1000;
+
+    private final RabbitMQConnectionManager connectionManager;
+    private final ServerMetrics metrics;
+    private final AMQP.BasicProperties persistentEnvelope;
+    private final BlockingQueue<PublishRequest> queue;
+    private final List<Thread> publisherThreads = new ArrayList<>();
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong confirmed = new AtomicLong();
+    private final AtomicLong nacked = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    private volatile boolean running = true;
+
+    public AsyncPublisher(RabbitMQConnectionManager connectionManager, int threadCount, int queueCapacity,
+                          EnvelopeFormat envelopeFormat, ServerMetrics metrics) {
+        this.connectionManager = connectionManager;
+        this.metrics = metrics;
+        // deliveryMode=2, survives RabbitMQ restart; contentType tells the consumer how to decode
+        this.persistentEnvelope = new AMQP.BasicProperties.Builder()
+                .deliveryMode(2)
+                .contentType(envelopeFormat.getContentType())
+                .build();
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+
+        for (int i = 0; i < threadCount; i++) {
+            Thread thread = new Thread(this::publishLoop, "rabbit-publisher-" + (i + 1));
+            thread.setDaemon(true);
+            publisherThreads.add(thread);
+        }
+    }
+
+    public void start() {
+        publisherThreads.forEach(Thread::start);
+        log.info("AsyncPublisher started. Threads: {}, queue capacity: {}",
+                publisherThreads.size(), queue.remainingCapacity() + queue.size());
+    }
+
+    @Override
+    public boolean submit(String routingKey, byte[] body, PublishCallback callback) {
+        return submit(routingKey, body, persistentEnvelope, callback);
+    }
+
+    /**
+     * Queues a message with explicit AMQP properties. Never blocks.
+     * @return false if the publish queue is full or the publisher is shutting down
+     */
+    public boolean submit(String routingKey, byte[] body, AMQP.BasicProperties props, PublishCallback callback) {
+        if (!running || !queue.offer(new PublishRequest(routingKey, body, props, callback))) {
+            rejected.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return connectionManager.isConnected();
+    }
+
+    private void publishLoop() {
+        List<PublishRequest> batch = new ArrayList<>(BATCH_SIZE);
+        ConfirmChannel confirmChannel = null;
+
+        while (running || !queue.isEmpty()) {
+            try {
+                PublishRequest first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, BATCH_SIZE - 1);
+
+                if (confirmChannel == null || !confirmChannel.isOpen()) {
+                    confirmChannel = openConfirmChannel();
+                }
+
+                for (PublishRequest request : batch) {
+                    if (confirmChannel == null || !confirmChannel.isOpen()) {
+                        fail(request, "RabbitMQ channel unavailable");
+                        continue;
+                    }
+                    confirmChannel.publish(request);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                batch.forEach(request -> fail(request, "Publisher interrupted"));
+                break;
+            } finally {
+                batch.clear();
+            }
+        }
+
+        if (confirmChannel != null) {
+            confirmChannel.close();
+        }
+    }
+
+    private ConfirmChannel openConfirmChannel() {
+        try {
+            Channel channel = connectionManager.createChannel();
+            return new ConfirmChannel(channel);
+        } catch (IOException e) {
+            log.warn("Failed to open confirm channel: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private void fail(PublishRequest request, String reason) {
+        failed.incrementAndGet();
+        notifyFailed(request, reason);
+    }
+
+    // callbacks run on RabbitMQ's connection thread; an exception escaping a
+    // confirm listener would make the client library close the channel
+    private static void notifyConfirmed(PublishRequest request) {
+        try {
+            request.callback.onConfirmed();
+        } catch (RuntimeException e) {
+            log.warn("Publish callback failed: {}", e.getMessage());
+        }
+    }
+
+    private static void notifyFailed(PublishRequest request, String reason) {
+        try {
+            request.callback.onFailed(reason);
+        } catch (RuntimeException e) {
+            log.warn("Publish callback failed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Stops accepting new messages, lets the publisher threads drain the queue
+     * and waits for outstanding confirms before closing their channels.
+     */
+    public void close() throws InterruptedException {
+        running = false;
+        for (Thread thread : publisherThreads) {
+            thread.join(5000);
+        }
+        PublishRequest leftover;
+        while ((leftover = queue.poll()) != null) {
+            fail(leftover, "Publisher shut down");
+        }
+    }
+
+    public int getQueueDepth() { return queue.size(); }
+    public long getPublishedCount() { return published.get(); }
+    public long getConfirmedCount() { return confirmed.get(); }
+    public long getNackedCount() { return nacked.get(); }
+    public long getFailedCount() { return failed.get(); }
+    public long getRejectedCount() { return rejected.get(); }
+
+    /**
+     * A confirm-mode channel owned by one publisher thread, plus the messages
+     * published on it that the broker has not confirmed yet.
+     */
+    private class ConfirmChannel {
+        private final Channel channel;
+        private final ConcurrentNavigableMap<Long, PublishRequest> outstanding = new ConcurrentSkipListMap<>();
+        private final Semaphore window = new Semaphore(MAX_OUTSTANDING_PER_CHANNEL);
+
+        ConfirmChannel(Channel channel) throws IOException {
+            this.channel = channel;
+            channel.confirmSelect();
+            channel.addConfirmListener(
+                    (tag, multiple) -> settle(tag, multiple, true),
+                    (tag, multiple) -> settle(tag, multiple, false));
+            channel.addShutdownListener(cause -> failOutstanding("RabbitMQ channel closed"));
+        }
+
+        boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        void publish(PublishRequest request) throws InterruptedException {
+            // bound in-flight publishes so a slow broker can't grow this map forever
+            if (!window.tryAcquire()) {
+                long waitStart = System.nanoTime();
+                try {
+                    while (!window.tryAcquire(100, TimeUnit.MILLISECONDS)) {
+                        if (!channel.isOpen()) {
+                            fail(request, "RabbitMQ channel closed");
+                            return;
+                        }
+                    }
+                } finally {
+                    metrics.recordPublishWindowWait(System.nanoTime() - waitStart);
+                }
+            }
+
+            long seqNo = channel.getNextPublishSeqNo();
+            outstanding.put(seqNo, request);
+            try {
+                channel.basicPublish(EXCHANGE_NAME, request.routingKey, request.props, request.body);
+                published.incrementAndGet();
+            } catch (IOException | RuntimeException e) {
+                if (outstanding.remove(seqNo) != null) {
+                    window.release();
+                    fail(request, e.getMessage());
+                }
+            }
+        }
+
+        private void settle(long tag, boolean multiple, boolean ack) {
+            if (multiple) {
+                ConcurrentNavigableMap<Long, PublishRequest> settled = outstanding.headMap(tag, true);
+                int count = 0;
+                for (Map.Entry<Long, PublishRequest> entry : settled.entrySet()) {
+                    if (settled.remove(entry.getKey()) != null) {
+                        complete(entry.getValue(), ack);
+                        count++;
+                    }
+                }
+                window.release(count);
+            } else {
+                PublishRequest request = outstanding.remove(tag);
+                if (request != null) {
+                    window.release();
+                    complete(request, ack);
+                }
+            }
+        }
+
+        private void complete(PublishRequest request, boolean ack) {
+            if (ack) {
+                confirmed.incrementAndGet();
+                notifyConfirmed(request);
+            } else {
+                nacked.incrementAndGet();
+                notifyFailed(request, "Broker rejected message");
+            }
+        }
+
+        private void failOutstanding(String reason) {
+            for (Long seqNo : outstanding.keySet()) {
+                PublishRequest request = outstanding.remove(seqNo);
+                if (request != null) {
+                    window.release();
+                    fail(request, reason);
+                }
+            }
+        }
+
+        void close() {
+            try {
+                if (channel.isOpen()) {
+                    channel.waitForConfirms(5000);
+                    channel.close();
+                }
+            } catch (Exception e) {
+                log.warn("Error closing confirm channel: {}", e.getMessage());
+            }
+            failOutstanding("Publisher shut down");
+        }
+    }
+
+    private static class PublishRequest {
+        private final String routingKey;
+        private final byte[] body;
+        private final AMQP.BasicProperties props;
+        private final PublishCallback callback;
+
+        PublishRequest(String routingKey, byte[] body, AMQP.BasicProperties props, PublishCallback callback) {
+            this.routingKey = routingKey;
+            this.body = body;
+            this.props = props;
+            this.callback = callback;
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package rabbitmq;
+
+import codec.EnvelopeCodec;
+import codec.EnvelopeFormat;
+import com.rabbitmq.client.AMQP;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Optional micro-batching in front of AsyncPublisher.
+ *
+ * Envelopes are gathered per routing key (room.{roomId}) and published as one
+ * AMQP message of type chat.envelope.batch. Its body is a JSON array of
+ * envelopes:
+ *   [ {envelope}, {envelope}, ... ]
+ * or, with EnvelopeFormat.BINARY, EnvelopeCodec's length-prefixed batch.
+ *
+ * A room's batch is flushed when it reaches maxMessages or when windowMicros
+ * have passed since its first message, whichever comes first. A batch of one
+ * is published as a plain envelope, so nothing changes for quiet rooms.
+ *
+ * The broker confirms the whole batch at once; every message's callback is
+ * then completed with the same outcome.
+ *
+ * At most maxPending messages may be accepted and not yet confirmed or
+ * failed, counting both those still gathering here and those queued or in
+ * flight in AsyncPublisher. Beyond that submit() returns false, as
+ * AsyncPublisher does when its queue is full. After close() it refuses
+ * everything; a message that slips in while close() runs is published on
+ * its own instead of waiting for a timer that no longer fires.
+ */
+public class BatchingPublisher implements MessagePublisher {
+
+    private static final Logger log = LoggerFactory.getLogger(BatchingPublisher.class);
+
+    public static final String BATCH_TYPE = "chat.envelope.batch";
+
+    private final AsyncPublisher publisher;
+    private final EnvelopeFormat envelopeFormat;
+    private final AMQP.BasicProperties persistentBatch;
+    private final int maxMessages;
+    private final long windowMicros;
+    private final int maxPending;
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final ConcurrentHashMap<String, RoomBatch> batches = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flushScheduler;
+
+    private final AtomicLong batchesPublished = new AtomicLong();
+    private final AtomicLong messagesBatched = new AtomicLong();
+
+    private volatile boolean closed;
+
+    /**
+     * @param maxPending messages accepted but not yet confirmed or failed, beyond which submit() refuses
+     */
+    public BatchingPublisher(AsyncPublisher publisher, int maxMessages, long windowMicros, int maxPending,
+                             EnvelopeFormat envelopeFormat) {
+        this.publisher = publisher;
+        this.envelopeFormat = envelopeFormat;
+        // deliveryMode=2, survives RabbitMQ restart
+        this.persistentBatch = new AMQP.BasicProperties.Builder()
+                .deliveryMode(2)
+                .contentType(envelopeFormat.getContentType())
+                .type(BATCH_TYPE)
+                .build();
+        this.maxMessages = maxMessages;
+        this.windowMicros = windowMicros;
+        this.maxPending = maxPending;
+        this.flushScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "publish-batch-flusher");
+            t.setDaemon(true);
+            return t;
+        });
+        log.info("BatchingPublisher enabled. Max messages: {}, window: {}us, max pending: {}",
+                maxMessages, windowMicros, maxPending);
+    }
+
+    @Override
+    public boolean submit(String routingKey, byte[] body, PublishCallback callback) {
+        if (closed) {
+            return false;
+        }
+        if (pendingCount.incrementAndGet() > maxPending) {
+            pendingCount.decrementAndGet();
+            return false;
+        }
+        RoomBatch batch = batches.computeIfAbsent(routingKey, RoomBatch::new);
+        List<Pending> full = null;
+
+        synchronized (batch) {
+            batch.pending.add(new Pending(body, new CountedCallback(callback)));
+            if (batch.pending.size() >= maxMessages) {
+                full = batch.drain();
+            } else if (batch.pending.size() == 1) {
+                long generation = batch.generation;
+                try {
+                    flushScheduler.schedule(() -> flushOnTimer(batch, generation), windowMicros, TimeUnit.MICROSECONDS);
+                } catch (RejectedExecutionException e) {
+                    // close() is running and has already drained this room
+                    full = batch.drain();
+                }
+            }
+        }
+
+        if (full != null) {
+            publish(routingKey, full);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return publisher.isConnected();
+    }
+
+    private void flushOnTimer(RoomBatch batch, long generation) {
+        List<Pending> ready;
+        synchronized (batch) {
+            // the batch filled up and was flushed by count before the timer fired
+            if (batch.generation != generation || batch.pending.isEmpty()) {
+                return;
+            }
+            ready = batch.drain();
+        }
+        publish(batch.routingKey, ready);
+    }
+
+    private void publish(String routingKey, List<Pending> messages) {
+        if (messages.size() == 1) {
+            Pending only = messages.get(0);
+            if (!publisher.submit(routingKey, only.body, only.callback)) {
+                only.callback.onFailed("Publish queue full");
+            }
+            return;
+        }
+
+        PublishCallback fanOut = new PublishCallback() {
+            @Override
+            public void onConfirmed() {
+                for (Pending pending : messages) {
+                    try {
+                        pending.callback.onConfirmed();
+                    } catch (RuntimeException e) {
+                        log.warn("Publish callback failed: {}", e.getMessage());
+                    }
+                }
+            }
+
+            @Override
+            public void onFailed(String reason) {
+                for (Pending pending : messages) {
+                    try {
+                        pending.callback.onFailed(reason);
+                    } catch (RuntimeException e) {
+                        log.warn("Publish callback failed: {}", e.getMessage());
+                    }
+                }
+            }
+        };
+
+        byte[] body = envelopeFormat == EnvelopeFormat.BINARY ? toBinaryBatch(messages) : toJsonArray(messages);
+        if (publisher.submit(routingKey, body, persistentBatch, fanOut)) {
+            batchesPublished.incrementAndGet();
+            messagesBatched.addAndGet(messages.size());
+        } else {
+            fanOut.onFailed("Publish queue full");
+        }
+    }
+
+    // envelopes are already serialized, so the array is stitched together byte-wise
+    private static byte[] toJsonArray(List<Pending> messages) {
+        int size = messages.size() + 1;
+        for (Pending pending : messages) {
+            size += pending.body.length;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size);
+        out.write('[');
+        for (int i = 0; i < messages.size(); i++) {
+            if (i > 0) out.write(',');
+            out.writeBytes(messages.get(i).body);
+        }
+        out.write(']');
+        return out.toByteArray();
+    }
+
+    private static byte[] toBinaryBatch(List<Pending> messages) {
+        List<byte[]> bodies = new ArrayList<>(messages.size());
+        for (Pending pending : messages) {
+            bodies.add(pending.body);
+        }
+        return EnvelopeCodec.encodeBatch(bodies);
+    }
+
+    /**
+     * Publishes whatever is still waiting in every room.
+     */
+    public void close() {
+        closed = true;
+        flushScheduler.shutdownNow();
+        for (RoomBatch batch : batches.values()) {
+            List<Pending> ready;
+            synchronized (batch) {
+                ready = batch.drain();
+            }
+            if (!ready.isEmpty()) {
+                publish(batch.routingKey, ready);
+            }
+        }
+    }
+
+    public long getBatchesPublished() { return batchesPublished.get(); }
+    public int getPendingCount() { return pendingCount.get(); }
+    public long getMessagesBatched() { return messagesBatched.get(); }
+
+    private static class RoomBatch {
+        private final String routingKey;
+        private List<Pending> pending = new ArrayList<>();
+        private long generation;
+
+        RoomBatch(String routingKey) {
+            this.routingKey = routingKey;
+        }
+
+        List<Pending> drain() {
+            List<Pending> drained = pending;
+            pending = new ArrayList<>();
+            generation++;
+            return drained;
+        }
+    }
+
+    /** Gives the message's place in maxPending back once it is settled. */
+    private class CountedCallback implements PublishCallback {
+        private final PublishCallback callback;
+
+        CountedCallback(PublishCallback callback) {
+            this.callback = callback;
+        }
+
+        @Override
+        public void onConfirmed() {
+            pendingCount.decrementAndGet();
+            callback.onConfirmed();
+        }
+
+        @Override
+        public void onFailed(String reason) {
+            pendingCount.decrementAndGet();
+            callback.onFailed(reason);
+        }
+    }
+
+    private static class Pending {
+        private final byte[] body;
+        private final PublishCallback callback;
+
+        Pending(byte[] body, PublishCallback callback) {
+            this.body = body;
+            this.callback = callback;
+        }
+    }
+}
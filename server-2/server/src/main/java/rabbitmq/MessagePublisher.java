@@ -0,0 +1,26 @@
+package rabbitmq;
+
+/**
+ * What the WebSocket server needs from the publishing pipeline.
+ * Implemented by AsyncPublisher (one AMQP message per envelope) and
+ * BatchingPublisher (several envelopes per AMQP message).
+ */
+public interface MessagePublisher {
+
+    /**
+     * Queues a serialized envelope for publishing. Never blocks.
+     * @return false if the message was not accepted (pipeline full or shutting down)
+     */
+    boolean submit(String routingKey, byte[] body, PublishCallback callback);
+
+    boolean isConnected();
+
+    /**
+     * Called exactly once per accepted message, normally from a publisher or
+     * RabbitMQ connection thread. Implementations must not block.
+     */
+    interface PublishCallback {
+        void onConfirmed();
+        void onFailed(String reason);
+    }
+}
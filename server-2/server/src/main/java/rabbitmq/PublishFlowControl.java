@@ -0,0 +1,102 @@
+package rabbitmq;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Ties ingress to the state of the publishing pipeline.
+ *
+ * Every message the WebSocket server hands to the publisher holds a permit
+ * from tryAcquire() until its PublishCallback fires. No permits are given out
+ * (and the client is told to retry later) while:
+ *   - the pause signal it was given is up: the broker has blocked our
+ *     connections (connection.blocked), or, with the spool on, the spool
+ *     is draining a backlog that new messages would only add to, or
+ *   - the number of messages in flight (queued, batched or waiting for a
+ *     confirm) has reached highWater; once that happens, permits stay
+ *     closed until it drains to lowWater, so ingress doesn't flap around
+ *     a single threshold
+ *
+ * Without this, a blocked or slow broker fills the publish queue, and every
+ * message after that still gets read, parsed and encoded only to fail on its
+ * own with "Server is busy" or a confirm timeout.
+ */
+public class PublishFlowControl {
+
+    private static final Logger log = LoggerFactory.getLogger(PublishFlowControl.class);
+
+    private final BooleanSupplier pauseSignal;
+    private final long highWater;
+    private final long lowWater;
+    private final long retryAfterMillis;
+
+    private final AtomicLong inFlight = new AtomicLong();
+    private volatile boolean overHighWater;
+
+    /**
+     * @param pauseSignal      whether publishing can't take more right now (broker blocked, spool draining)
+     * @param highWater        in-flight messages at which ingress pauses
+     * @param lowWater         in-flight messages at which it resumes
+     * @param retryAfterMillis what paused clients are told to wait before resending
+     */
+    public PublishFlowControl(BooleanSupplier pauseSignal, long highWater, long lowWater, long retryAfterMillis) {
+        if (lowWater >= highWater) {
+            throw new IllegalArgumentException("lowWater must be below highWater");
+        }
+        this.pauseSignal = pauseSignal;
+        this.highWater = highWater;
+        this.lowWater = lowWater;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    /**
+     * Takes a permit for one message, unless ingress is paused.
+     * @return false if the message should be turned away with a retry-after
+     */
+    public boolean tryAcquire() {
+        if (overHighWater || pauseSignal.getAsBoolean()) {
+            return false;
+        }
+        if (inFlight.incrementAndGet() <= highWater) {
+            return true;
+        }
+        overHighWater = true;
+        long depth = inFlight.decrementAndGet();
+        log.warn("Publish pipeline at high-water mark ({} in flight), pausing ingress", highWater);
+        // every release from here on sees the flag; this covers the ones that came before it
+        if (depth <= lowWater) {
+            resume(depth);
+        }
+        return false;
+    }
+
+    /** Returns the permit of a message whose publish has been settled either way. */
+    public void release() {
+        long depth = inFlight.decrementAndGet();
+        if (overHighWater && depth <= lowWater) {
+            resume(depth);
+        }
+    }
+
+    private void resume(long depth) {
+        if (overHighWater) {
+            overHighWater = false;
+            log.info("Publish pipeline drained to {} in flight, resuming ingress", depth);
+        }
+    }
+
+    public boolean isPaused() {
+        return overHighWater || pauseSignal.getAsBoolean();
+    }
+
+    public long getInFlight() {
+        return inFlight.get();
+    }
+
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
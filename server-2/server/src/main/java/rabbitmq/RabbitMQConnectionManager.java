@@ -3,121 +3,236 @@ package rabbitmq;
 import com.rabbitmq.client.Channel;
 import com.rabbitmq.client.Connection;
 import com.rabbitmq.client.ConnectionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
-
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Owns the RabbitMQ connections. Publishers open their own confirm-mode
+ * channels with createChannel(), spread round-robin over the connections.
+ *
+ * When a connection drops, its reconnect runs on a background scheduler with
+ * exponential backoff. Callers never sleep on a lock waiting for it; they see
+ * isConnected() == false or an IOException and can fail or buffer.
+ *
+ * When the broker raises a resource alarm it sends connection.blocked and
+ * stops reading publishes on that connection until connection.unblocked.
+ * isBlocked() reports that, so ingress can stop taking new messages instead
+ * of queueing publishes that can't go anywhere.
+ */
 public class RabbitMQConnectionManager {
 
-    private volatile Connection connection;
-    private volatile BlockingQueue<Channel> channelPool;
+    private static final Logger log = LoggerFactory.getLogger(RabbitMQConnectionManager.class);
 
     private static final int MAX_RETRIES = 5;
     private static final long INITIAL_BACKOFF_MS = 1000;
+    private static final long MAX_BACKOFF_MS = 30000;
 
     private final String host;
     private final int port;
     private final String username;
     private final String password;
-    private final int poolSize;
+    private final int connectionCount;
+
+    private final AtomicReferenceArray<Connection> connections;
+    private final AtomicIntegerArray reconnecting;
+    private final AtomicIntegerArray blocked;
+    private final ScheduledExecutorService reconnectScheduler;
+
+    private final AtomicInteger nextDedicatedConnection = new AtomicInteger();
+
+    private final LongAdder reconnectAttempts = new LongAdder();
+    private final LongAdder reconnectSuccesses = new LongAdder();
+
+    private volatile boolean closing = false;
 
-    public RabbitMQConnectionManager(String host, int port, String username, String password, int poolSize) throws Exception {
+    public RabbitMQConnectionManager(String host, int port, String username, String password,
+                                     int connectionCount) throws Exception {
         this.host = host;
         this.port = port;
         this.username = username;
         this.password = password;
-        this.poolSize = poolSize;
-        connectWithBackoff();
+        this.connectionCount = connectionCount;
+
+        this.connections = new AtomicReferenceArray<>(connectionCount);
+        this.reconnecting = new AtomicIntegerArray(connectionCount);
+        this.blocked = new AtomicIntegerArray(connectionCount);
+        this.reconnectScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "rabbit-reconnect");
+            t.setDaemon(true);
+            return t;
+        });
+
+        for (int i = 0; i < connectionCount; i++) {
+            connectWithBackoff(i);
+        }
+        log.info("RabbitMQ connected successfully. Connections: {}", connectionCount);
     }
 
     /**
-     * Attempts to connect to RabbitMQ with exponential backoff.
+     * Initial connect at startup. Retries with exponential backoff and gives up
+     * after MAX_RETRIES so a misconfigured broker address fails the boot.
      */
-    private void connectWithBackoff() throws Exception {
+    private void connectWithBackoff(int index) throws Exception {
         long backoff = INITIAL_BACKOFF_MS;
 
         for (int attempt = 1; attempt <= MAX_RETRIES; attempt++) {
             try {
-                System.out.println("RabbitMQ connection attempt " + attempt + "/" + MAX_RETRIES);
-
-                ConnectionFactory factory = new ConnectionFactory();
-                factory.setHost(host);
-                factory.setPort(port);
-                factory.setUsername(username);
-                factory.setPassword(password);
-                this.connection = factory.newConnection();
-
-                BlockingQueue<Channel> newPool = new ArrayBlockingQueue<>(poolSize);
-                for (int i = 0; i < poolSize; i++) {
-                    newPool.add(connection.createChannel());
-                }
-                this.channelPool = newPool;
-
-                System.out.println("RabbitMQ connected successfully. Pool size: " + poolSize);
+                log.info("RabbitMQ connection {} attempt {}/{}", index, attempt, MAX_RETRIES);
+                openConnection(index);
                 return;
 
             } catch (IOException | TimeoutException e) {
-                System.err.println("Attempt " + attempt + " failed: " + e.getMessage());
+                log.warn("Attempt {} failed: {}", attempt, e.getMessage());
 
                 if (attempt == MAX_RETRIES) {
                     throw new Exception("RabbitMQ unavailable after " + MAX_RETRIES + " attempts.", e);
                 }
 
-                System.out.println("Retrying in " + backoff + "ms...");
+                log.info("Retrying in {}ms...", backoff);
                 Thread.sleep(backoff);
                 backoff *= 2; // double the wait: 1s → 2s → 4s → 8s → 16s
             }
         }
     }
 
-    private synchronized void reconnect() {
-        // double-check inside synchronized block, another thread may have
-        // already reconnected by the time this thread gets the lock
-        if (isConnected()) {
-            return;
+    private void openConnection(int index) throws IOException, TimeoutException {
+        ConnectionFactory factory = new ConnectionFactory();
+        factory.setHost(host);
+        factory.setPort(port);
+        factory.setUsername(username);
+        factory.setPassword(password);
+        // recovery is handled here, per connection, in the background
+        factory.setAutomaticRecoveryEnabled(false);
+
+        Connection connection = factory.newConnection("chat-server-" + index);
+        blocked.set(index, 0);
+        connection.addBlockedListener(
+                reason -> {
+                    blocked.set(index, 1);
+                    log.warn("RabbitMQ blocked connection {}: {}", index, reason);
+                },
+                () -> {
+                    blocked.set(index, 0);
+                    log.info("RabbitMQ unblocked connection {}", index);
+                });
+        connection.addShutdownListener(cause -> {
+            // a replacement connection starts out unblocked
+            blocked.set(index, 0);
+            if (!closing && !cause.isInitiatedByApplication()) {
+                log.error("RabbitMQ connection {} lost: {}", index, cause.getMessage());
+                scheduleReconnect(index);
+            }
+        });
+        connections.set(index, connection);
+    }
+
+    private void scheduleReconnect(int index) {
+        // only one reconnect in flight per connection
+        if (reconnecting.compareAndSet(index, 0, 1)) {
+            reconnectLater(index, INITIAL_BACKOFF_MS);
         }
+    }
 
-        System.out.println("RabbitMQ connection lost. Attempting reconnect...");
-        try {
-            connectWithBackoff();
-        } catch (Exception e) {
-            System.err.println("Reconnect failed: " + e.getMessage());
+    private void reconnectLater(int index, long delayMs) {
+        if (closing) {
+            return;
         }
+        reconnectScheduler.schedule(() -> {
+            if (closing) {
+                return;
+            }
+            reconnectAttempts.increment();
+            try {
+                openConnection(index);
+                reconnectSuccesses.increment();
+                reconnecting.set(index, 0);
+                log.info("RabbitMQ connection {} re-established.", index);
+            } catch (IOException | TimeoutException e) {
+                long next = Math.min(delayMs * 2, MAX_BACKOFF_MS);
+                log.warn("Reconnect of connection {} failed: {}. Retrying in {}ms...",
+                        index, e.getMessage(), next);
+                reconnectLater(index, next);
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
     }
 
-    public Channel borrowChannel() throws InterruptedException, IOException {
-        Channel channel = channelPool.take();
+    /**
+     * Opens a channel that the caller owns exclusively (e.g. a publisher thread
+     * that puts it into confirm mode). Successive calls are spread round-robin
+     * over the open connections.
+     */
+    public Channel createChannel() throws IOException {
+        for (int i = 0; i < connectionCount; i++) {
+            int index = Math.floorMod(nextDedicatedConnection.getAndIncrement(), connectionCount);
+            Connection connection = connections.get(index);
+            if (connection != null && connection.isOpen()) {
+                return connection.createChannel();
+            }
+        }
+        throw new IOException("RabbitMQ connection is not available");
+    }
 
-        if (!channel.isOpen()) {
-            System.out.println("Channel was closed, replacing...");
-            try {
-                channel = connection.createChannel();
-            } catch (IOException e) {
-                // connection itself is dead — reconnect then try again
-                reconnect();
-                channel = connection.createChannel();
+    public boolean isConnected() {
+        for (int i = 0; i < connectionCount; i++) {
+            Connection connection = connections.get(i);
+            if (connection != null && connection.isOpen()) {
+                return true;
             }
         }
+        return false;
+    }
 
-        return channel;
+    /**
+     * True while the broker has any of the connections blocked (a memory or
+     * disk alarm is usually broker-wide, so they block together).
+     */
+    public boolean isBlocked() {
+        for (int i = 0; i < connectionCount; i++) {
+            if (blocked.get(i) != 0) {
+                return true;
+            }
+        }
+        return false;
     }
 
-    public void returnChannel(Channel channel) {
-        channelPool.offer(channel);
+    public int getBlockedConnectionCount() {
+        int count = 0;
+        for (int i = 0; i < connectionCount; i++) {
+            count += blocked.get(i);
+        }
+        return count;
     }
 
-    public boolean isConnected() {
-        return connection != null && connection.isOpen();
+    public int getOpenConnectionCount() {
+        int open = 0;
+        for (int i = 0; i < connectionCount; i++) {
+            Connection connection = connections.get(i);
+            if (connection != null && connection.isOpen()) open++;
+        }
+        return open;
     }
 
+    public long getReconnectAttempts() { return reconnectAttempts.sum(); }
+    public long getReconnectSuccesses() { return reconnectSuccesses.sum(); }
+
     public void close() throws Exception {
-        for (Channel ch : channelPool) {
-            if (ch.isOpen()) ch.close();
-        }
-        if (connection != null && connection.isOpen()) {
-            connection.close();
+        closing = true;
+        reconnectScheduler.shutdownNow();
+        for (int i = 0; i < connectionCount; i++) {
+            Connection connection = connections.get(i);
+            if (connection != null && connection.isOpen()) {
+                connection.close();
+            }
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,364 @@
+package rabbitmq;
+
+import codec.EnvelopeFormat;
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ShutdownSignalException;
+import metrics.ServerMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import spool.SegmentSpool;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps ingest accepting messages while RabbitMQ is away, by writing them to
+ * a local SegmentSpool instead.
+ *
+ * A message goes to the spool rather than the publisher it wraps when:
+ *   - no connection is open, or the broker has blocked us
+ *   - lagThreshold messages are already waiting for a confirm
+ *   - the spool isn't empty, so it doesn't overtake spooled messages
+ *   - the wrapped publisher turns it down (queue full) or later fails it
+ * A spooled message counts as delivered: the caller's onConfirmed() runs as
+ * soon as it is on disk. Only a full spool fails a message.
+ *
+ * Each record carries the EnvelopeFormat it was written in, so records
+ * spooled before a restart into the other format are still published with
+ * the right contentType.
+ *
+ * The drainer thread replays the spool once the broker is back, in spool
+ * order on a single confirm-mode channel, and commits each batch after the
+ * broker confirms it. A batch that fails is published again, so a message
+ * can reach the broker twice; consumers already dedup on messageId.
+ * While it drains, everything new is spooled too, so a drainer that can't
+ * outrun ingest would never empty the spool; isDraining() is what
+ * PublishFlowControl pauses ingress on until it has caught up.
+ *
+ * Ordering: a message bound for the spool while live publishes are still
+ * unsettled is held in memory until they all settle, and the live ones that
+ * fail are spooled first. So the spool never puts a message ahead of a live
+ * publish submitted before it, and once a submit() has returned with its
+ * message held or spooled, no later one goes live until the hold and the
+ * spool are empty again. The live path checks that without taking holdLock,
+ * so a submit() running at the same time as one being held may still go
+ * live; the two were concurrent, so neither order is wrong. Among live
+ * publishes, order is whatever the wrapped publisher gives (AsyncPublisher
+ * with several threads doesn't keep it). At most lagThreshold messages are
+ * held; beyond that submit() returns false.
+ */
+public class SpoolingPublisher implements MessagePublisher {
+
+    private static final Logger log = LoggerFactory.getLogger(SpoolingPublisher.class);
+
+    private static final int DRAIN_BATCH = 256;
+    private static final long CONFIRM_TIMEOUT_MS = 5000;
+    private static final long IDLE_WAIT_MS = 50;
+    private static final long RETRY_WAIT_MS = 1000;
+    private static final long FORCE_INTERVAL_MS = 1000;
+
+    // SegmentSpool record format byte
+    private static final byte SPOOL_JSON = 1;
+    private static final byte SPOOL_BINARY = 2;
+
+    private final MessagePublisher delegate;
+    private final RabbitMQConnectionManager connectionManager;
+    private final SegmentSpool spool;
+    private final EnvelopeFormat envelopeFormat;
+    private final Map<EnvelopeFormat, AMQP.BasicProperties> persistentEnvelopes = new EnumMap<>(EnvelopeFormat.class);
+    private final long lagThreshold;
+    private final ServerMetrics metrics;
+    private final Thread drainer;
+    private final AtomicLong inFlight = new AtomicLong();
+
+    // spool-bound messages waiting for the live publishes ahead of them to settle
+    private final Object holdLock = new Object();
+    private final List<Held> held = new ArrayList<>();
+    private volatile int heldCount;
+
+    private volatile boolean running = true;
+    private volatile boolean draining;
+
+    /**
+     * @param delegate     the normal publishing pipeline
+     * @param lagThreshold unconfirmed messages in delegate beyond which new ones are spooled
+     */
+    public SpoolingPublisher(MessagePublisher delegate, RabbitMQConnectionManager connectionManager,
+                             SegmentSpool spool, EnvelopeFormat envelopeFormat, long lagThreshold,
+                             ServerMetrics metrics) {
+        this.delegate = delegate;
+        this.connectionManager = connectionManager;
+        this.spool = spool;
+        this.envelopeFormat = envelopeFormat;
+        // same properties AsyncPublisher gives a single envelope, for each format a record may be in
+        for (EnvelopeFormat format : EnvelopeFormat.values()) {
+            persistentEnvelopes.put(format, new AMQP.BasicProperties.Builder()
+                    .deliveryMode(2)
+                    .contentType(format.getContentType())
+                    .build());
+        }
+        this.lagThreshold = lagThreshold;
+        this.metrics = metrics;
+        metrics.recordSpoolPending(spool.getPendingRecords());
+        this.drainer = new Thread(this::drainLoop, "spool-drainer");
+        this.drainer.setDaemon(true);
+    }
+
+    public void start() {
+        drainer.start();
+        log.info("SpoolingPublisher started. Pending records: {}, lag threshold: {}",
+                spool.getPendingRecords(), lagThreshold);
+    }
+
+    @Override
+    public boolean submit(String routingKey, byte[] body, PublishCallback callback) {
+        if (heldCount == 0 && spool.isEmpty() && brokerAvailable() && inFlight.get() < lagThreshold) {
+            inFlight.incrementAndGet();
+            if (delegate.submit(routingKey, body, new LiveCallback(routingKey, body, callback))) {
+                return true;
+            }
+            liveSettled();
+        }
+
+        List<Held> released;
+        synchronized (holdLock) {
+            if (inFlight.get() > 0) {
+                if (heldCount >= lagThreshold) {
+                    return false;
+                }
+                held.add(new Held(routingKey, body, callback));
+                heldCount = held.size();
+                return true;
+            }
+            released = releaseHeld();
+            if (!append(routingKey, body)) {
+                complete(released);
+                return false;
+            }
+        }
+        complete(released);
+        callback.onConfirmed();
+        return true;
+    }
+
+    /** A live publish has settled; once none are left, whatever was held behind them goes to the spool. */
+    private void liveSettled() {
+        if (inFlight.decrementAndGet() > 0 || heldCount == 0) {
+            return;
+        }
+        List<Held> released;
+        synchronized (holdLock) {
+            if (inFlight.get() > 0) {
+                return;
+            }
+            released = releaseHeld();
+        }
+        complete(released);
+    }
+
+    /** Spools every held message in order. Call with holdLock held, and complete() the result after releasing it. */
+    private List<Held> releaseHeld() {
+        if (held.isEmpty()) {
+            return List.of();
+        }
+        List<Held> released = new ArrayList<>(held);
+        held.clear();
+        heldCount = 0;
+        for (Held message : released) {
+            message.spooled = append(message.routingKey, message.body);
+        }
+        return released;
+    }
+
+    private static void complete(List<Held> released) {
+        for (Held message : released) {
+            if (message.spooled) {
+                message.callback.onConfirmed();
+            } else {
+                message.callback.onFailed("Spool full");
+            }
+        }
+    }
+
+    /** The spool stands in for the broker, so ingest stays open while the connections are down. */
+    @Override
+    public boolean isConnected() {
+        return running;
+    }
+
+    private boolean brokerAvailable() {
+        return connectionManager.isConnected() && !connectionManager.isBlocked();
+    }
+
+    private boolean append(String routingKey, byte[] body) {
+        try {
+            if (spool.append(routingKey, spoolFormat(envelopeFormat), body)) {
+                metrics.recordSpoolAppended();
+                return true;
+            }
+            metrics.recordSpoolFull();
+        } catch (IOException | RuntimeException e) {
+            log.warn("Failed to spool message for {}: {}", routingKey, e.getMessage());
+        }
+        return false;
+    }
+
+    private void drainLoop() {
+        Channel channel = null;
+        long lastForce = System.currentTimeMillis();
+
+        while (running) {
+            try {
+                long now = System.currentTimeMillis();
+                metrics.recordSpoolOldestPendingAt(spool.oldestPendingAt());
+                if (now - lastForce >= FORCE_INTERVAL_MS) {
+                    spool.force();
+                    lastForce = now;
+                }
+                if (spool.isEmpty() || !brokerAvailable()) {
+                    draining = false;
+                    Thread.sleep(IDLE_WAIT_MS);
+                    continue;
+                }
+                draining = true;
+
+                SegmentSpool.Batch batch = spool.readBatch(DRAIN_BATCH);
+                if (batch.isEmpty()) {
+                    Thread.sleep(IDLE_WAIT_MS);
+                    continue;
+                }
+                if (channel == null || !channel.isOpen()) {
+                    channel = connectionManager.createChannel();
+                    channel.confirmSelect();
+                }
+                for (SegmentSpool.Record record : batch.getRecords()) {
+                    channel.basicPublish(AsyncPublisher.EXCHANGE_NAME, record.getRoutingKey(),
+                            persistentEnvelopes.get(formatOf(record)), record.getBody());
+                }
+                channel.waitForConfirmsOrDie(CONFIRM_TIMEOUT_MS);
+                spool.commit(batch);
+                metrics.recordSpoolDrained(batch.getRecords().size());
+
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (IOException | TimeoutException | ShutdownSignalException e) {
+                // the batch stays in the spool and is published again on a new channel
+                log.warn("Spool drain failed, retrying in {}ms: {}", RETRY_WAIT_MS, e.getMessage());
+                draining = false;
+                closeQuietly(channel);
+                channel = null;
+                try {
+                    Thread.sleep(RETRY_WAIT_MS);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        draining = false;
+        closeQuietly(channel);
+    }
+
+    private static byte spoolFormat(EnvelopeFormat format) {
+        return format == EnvelopeFormat.BINARY ? SPOOL_BINARY : SPOOL_JSON;
+    }
+
+    private static EnvelopeFormat formatOf(SegmentSpool.Record record) {
+        return record.getFormat() == SPOOL_BINARY ? EnvelopeFormat.BINARY : EnvelopeFormat.JSON;
+    }
+
+    private static void closeQuietly(Channel channel) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            if (channel.isOpen()) {
+                channel.close();
+            }
+        } catch (Exception ignored) {
+        }
+    }
+
+    /**
+     * Stops the drainer and closes the spool; whatever is left is drained
+     * after the next start. Close the wrapped publisher first, so messages
+     * it fails on the way down are spooled rather than lost.
+     */
+    public void close() throws InterruptedException, IOException {
+        List<Held> released;
+        synchronized (holdLock) {
+            released = releaseHeld();
+        }
+        complete(released);
+        running = false;
+        drainer.interrupt();
+        drainer.join(CONFIRM_TIMEOUT_MS);
+        spool.close();
+    }
+
+    /** Whether the drainer is replaying a backlog to a reachable broker. */
+    public boolean isDraining() { return draining; }
+
+    public long getInFlight() { return inFlight.get(); }
+    public int getHeld() { return heldCount; }
+    public long getPendingRecords() { return spool.getPendingRecords(); }
+
+    /** A spool-bound message waiting in memory behind unsettled live publishes. */
+    private static class Held {
+        private final String routingKey;
+        private final byte[] body;
+        private final PublishCallback callback;
+        private boolean spooled;
+
+        Held(String routingKey, byte[] body, PublishCallback callback) {
+            this.routingKey = routingKey;
+            this.body = body;
+            this.callback = callback;
+        }
+    }
+
+    /**
+     * Catches a failed live publish and spools it instead of failing the
+     * caller, ahead of anything held behind it.
+     */
+    private class LiveCallback implements PublishCallback {
+        private final String routingKey;
+        private final byte[] body;
+        private final PublishCallback callback;
+
+        LiveCallback(String routingKey, byte[] body, PublishCallback callback) {
+            this.routingKey = routingKey;
+            this.body = body;
+            this.callback = callback;
+        }
+
+        @Override
+        public void onConfirmed() {
+            liveSettled();
+            callback.onConfirmed();
+        }
+
+        @Override
+        public void onFailed(String reason) {
+            boolean spooled;
+            synchronized (holdLock) {
+                // spooled before it stops counting as in flight, so nothing held can get ahead of it
+                spooled = running && append(routingKey, body);
+            }
+            liveSettled();
+            if (spooled) {
+                callback.onConfirmed();
+            } else {
+                callback.onFailed(reason);
+            }
+        }
+    }
+}
@@ -0,0 +1,402 @@
+package spool;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * An append-only spool of (routing key, format, envelope) records on local
+ * disk, in fixed-size memory-mapped segment files. format is a byte the
+ * caller picks to say how body is encoded; the spool only stores it.
+ *
+ * Segment layout (spool-{id}.seg, zero-filled on creation):
+ *   [int magic][int committed] header, then records back to back:
+ *   [int length][long appendedAt][byte format][short keyLength][key][body]
+ * where length counts everything after itself. A record's length is written
+ * last, so a record cut short by a crash reads as length 0, the end of the
+ * segment. committed is the offset of the first record not yet drained.
+ *
+ * Any number of threads may append(); exactly one thread drains, by calling
+ * readBatch() and, once the batch is safely elsewhere, commit(). A batch that
+ * isn't committed is returned again by the next readBatch(). A segment is
+ * deleted once it is full and fully drained.
+ *
+ * Appends land in the page cache, so they survive a process crash at once;
+ * force() writes them to the device. On open, existing segments are scanned
+ * and everything past their committed offsets is pending again, so a record
+ * drained just before a crash can be drained twice.
+ */
+public class SegmentSpool implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(SegmentSpool.class);
+
+    private static final int MAGIC = 0x53504F32;
+    private static final int HEADER_BYTES = 8;
+    private static final int COMMITTED_OFFSET = 4;
+    private static final int FORMAT_OFFSET = Integer.BYTES + Long.BYTES;
+    private static final int RECORD_OVERHEAD = Integer.BYTES + Long.BYTES + Byte.BYTES + Short.BYTES;
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final int maxSegments;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+
+    private long pendingRecords;
+    private long nextSegmentId;
+    private Segment tail;
+
+    /**
+     * Opens the spool in directory, picking up whatever a previous run left there.
+     * @param segmentBytes size of each segment file
+     * @param maxSegments  segments that may exist at once; append() refuses records beyond that
+     */
+    public SegmentSpool(Path directory, int segmentBytes, int maxSegments) throws IOException {
+        if (segmentBytes <= HEADER_BYTES + RECORD_OVERHEAD) {
+            throw new IllegalArgumentException("segmentBytes too small");
+        }
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.maxSegments = maxSegments;
+        Files.createDirectories(directory);
+        this.lockChannel = FileChannel.open(directory.resolve("spool.lock"),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        this.lock = lockChannel.tryLock();
+        if (lock == null) {
+            lockChannel.close();
+            throw new IOException("Spool directory " + directory + " is in use by another process");
+        }
+        recover();
+    }
+
+    private void recover() throws IOException {
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(directory)) {
+            files = new ArrayList<>(listing.filter(p -> segmentId(p) >= 0).toList());
+        }
+        files.sort((a, b) -> Long.compare(segmentId(a), segmentId(b)));
+
+        for (Path file : files) {
+            long id = segmentId(file);
+            nextSegmentId = id + 1;
+            Segment segment = Segment.open(file, id, segmentBytes);
+            if (segment == null) {
+                log.warn("Ignoring unreadable spool segment {}", file);
+                continue;
+            }
+            segment.limit = segment.scan();
+            segment.sealed = true;
+            if (segment.committed >= segment.limit) {
+                segment.delete();
+                continue;
+            }
+            pendingRecords += segment.countRecords();
+            segments.addLast(segment);
+        }
+        if (!segments.isEmpty()) {
+            // keep appending to the last segment if it has room
+            tail = segments.peekLast();
+            tail.sealed = false;
+            log.info("Spool {} recovered: {} pending records in {} segments",
+                    directory, pendingRecords, segments.size());
+        } else {
+            tail = newSegment();
+        }
+    }
+
+    private static long segmentId(Path file) {
+        String name = file.getFileName().toString();
+        if (!name.startsWith("spool-") || !name.endsWith(".seg")) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(6, name.length() - 4));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private Segment newSegment() throws IOException {
+        long id = nextSegmentId++;
+        Segment segment = Segment.create(directory.resolve("spool-" + id + ".seg"), id, segmentBytes);
+        segments.addLast(segment);
+        return segment;
+    }
+
+    /**
+     * Appends one record.
+     * @param format how body is encoded, handed back by Record.getFormat()
+     * @return false if the spool is full (maxSegments) or the record can never fit in a segment
+     */
+    public synchronized boolean append(String routingKey, byte format, byte[] body) throws IOException {
+        byte[] key = routingKey.getBytes(StandardCharsets.UTF_8);
+        int size = RECORD_OVERHEAD + key.length + body.length;
+        if (size > segmentBytes - HEADER_BYTES || key.length > Short.MAX_VALUE) {
+            return false;
+        }
+        if (tail.limit + size > segmentBytes) {
+            if (segments.size() >= maxSegments) {
+                return false;
+            }
+            tail.sealed = true;
+            tail = newSegment();
+        }
+
+        MappedByteBuffer buffer = tail.buffer;
+        int position = tail.limit;
+        buffer.putLong(position + Integer.BYTES, System.currentTimeMillis());
+        buffer.put(position + FORMAT_OFFSET, format);
+        buffer.putShort(position + FORMAT_OFFSET + Byte.BYTES, (short) key.length);
+        buffer.put(position + RECORD_OVERHEAD, key);
+        buffer.put(position + RECORD_OVERHEAD + key.length, body);
+        buffer.putInt(position, size - Integer.BYTES);
+        tail.limit = position + size;
+        pendingRecords++;
+        return true;
+    }
+
+    /**
+     * Reads up to max records from the oldest pending one on, without
+     * consuming them. Batches never span segments. Drain thread only.
+     */
+    public Batch readBatch(int max) {
+        Segment head;
+        synchronized (this) {
+            head = segments.peekFirst();
+            while (head != null && head.sealed && head.committed >= head.limit && head != tail) {
+                segments.pollFirst();
+                head.delete();
+                head = segments.peekFirst();
+            }
+        }
+        if (head == null) {
+            return new Batch(null, 0, Collections.emptyList());
+        }
+
+        // limit is volatile and written after the record, so everything below it is complete
+        int limit = head.limit;
+        int position = head.committed;
+        MappedByteBuffer buffer = head.buffer;
+        List<Record> records = new ArrayList<>(Math.min(max, 256));
+        while (records.size() < max && position < limit) {
+            int length = buffer.getInt(position);
+            long appendedAt = buffer.getLong(position + Integer.BYTES);
+            byte format = buffer.get(position + FORMAT_OFFSET);
+            int keyLength = buffer.getShort(position + FORMAT_OFFSET + Byte.BYTES);
+            byte[] key = new byte[keyLength];
+            buffer.get(position + RECORD_OVERHEAD, key);
+            byte[] body = new byte[length - (RECORD_OVERHEAD - Integer.BYTES) - keyLength];
+            buffer.get(position + RECORD_OVERHEAD + keyLength, body);
+            records.add(new Record(new String(key, StandardCharsets.UTF_8), format, body, appendedAt));
+            position += Integer.BYTES + length;
+        }
+        return new Batch(head, position, records);
+    }
+
+    /** Marks a batch from readBatch() as drained. Drain thread only. */
+    public void commit(Batch batch) {
+        if (batch.records.isEmpty()) {
+            return;
+        }
+        Segment segment = batch.segment;
+        segment.committed = batch.endOffset;
+        segment.buffer.putInt(COMMITTED_OFFSET, batch.endOffset);
+        synchronized (this) {
+            pendingRecords -= batch.records.size();
+            if (segment.sealed && segment.committed >= segment.limit && segment != tail) {
+                segments.remove(segment);
+                segment.delete();
+            }
+        }
+    }
+
+    /** When the oldest pending record was appended (epoch millis), or 0 if nothing is pending. */
+    public long oldestPendingAt() {
+        Segment head;
+        synchronized (this) {
+            head = segments.peekFirst();
+            while (head != null && head.committed >= head.limit && head != tail) {
+                // drained but not yet deleted; the next one holds the oldest record
+                head = nextAfter(head);
+            }
+        }
+        if (head == null || head.committed >= head.limit) {
+            return 0;
+        }
+        return head.buffer.getLong(head.committed + Integer.BYTES);
+    }
+
+    private Segment nextAfter(Segment segment) {
+        boolean found = false;
+        for (Segment s : segments) {
+            if (found) {
+                return s;
+            }
+            found = s == segment;
+        }
+        return null;
+    }
+
+    public synchronized boolean isEmpty() {
+        return pendingRecords == 0;
+    }
+
+    public synchronized long getPendingRecords() {
+        return pendingRecords;
+    }
+
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    /** Writes appended records through to the storage device. */
+    public void force() {
+        Segment segment;
+        synchronized (this) {
+            segment = tail;
+        }
+        segment.buffer.force();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (Segment segment : segments) {
+            segment.buffer.force();
+            segment.channel.close();
+        }
+        segments.clear();
+        lock.release();
+        lockChannel.close();
+    }
+
+    /** One spooled message. */
+    public static final class Record {
+        private final String routingKey;
+        private final byte format;
+        private final byte[] body;
+        private final long appendedAt;
+
+        Record(String routingKey, byte format, byte[] body, long appendedAt) {
+            this.routingKey = routingKey;
+            this.format = format;
+            this.body = body;
+            this.appendedAt = appendedAt;
+        }
+
+        public String getRoutingKey() { return routingKey; }
+        /** the format passed to append() */
+        public byte getFormat() { return format; }
+        public byte[] getBody() { return body; }
+        public long getAppendedAt() { return appendedAt; }
+    }
+
+    /** Consecutive records from one segment, in append order. */
+    public static final class Batch {
+        private final Segment segment;
+        private final int endOffset;
+        private final List<Record> records;
+
+        Batch(Segment segment, int endOffset, List<Record> records) {
+            this.segment = segment;
+            this.endOffset = endOffset;
+            this.records = records;
+        }
+
+        public List<Record> getRecords() { return records; }
+        public boolean isEmpty() { return records.isEmpty(); }
+    }
+
+    private static final class Segment {
+        private final Path path;
+        private final long id;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private volatile int limit;
+        private volatile boolean sealed;
+        private volatile int committed;
+
+        private Segment(Path path, long id, FileChannel channel, MappedByteBuffer buffer) {
+            this.path = path;
+            this.id = id;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        static Segment create(Path path, long id, int size) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            Segment segment = new Segment(path, id, channel,
+                    channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+            segment.buffer.putInt(COMMITTED_OFFSET, HEADER_BYTES);
+            segment.buffer.putInt(0, MAGIC);
+            segment.committed = HEADER_BYTES;
+            segment.limit = HEADER_BYTES;
+            return segment;
+        }
+
+        /** @return null if the file isn't a segment of this size */
+        static Segment open(Path path, long id, int size) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            if (channel.size() != size) {
+                channel.close();
+                return null;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            Segment segment = new Segment(path, id, channel, buffer);
+            int committed = buffer.getInt(COMMITTED_OFFSET);
+            if (buffer.getInt(0) != MAGIC || committed < HEADER_BYTES || committed > size) {
+                channel.close();
+                return null;
+            }
+            segment.committed = committed;
+            return segment;
+        }
+
+        /** Finds the end of the complete records. */
+        int scan() {
+            int position = HEADER_BYTES;
+            int capacity = buffer.capacity();
+            while (position + RECORD_OVERHEAD <= capacity) {
+                int length = buffer.getInt(position);
+                if (length < RECORD_OVERHEAD - Integer.BYTES || position + Integer.BYTES + length > capacity) {
+                    break;
+                }
+                position += Integer.BYTES + length;
+            }
+            return position;
+        }
+
+        long countRecords() {
+            long count = 0;
+            for (int position = committed; position < limit; position += Integer.BYTES + buffer.getInt(position)) {
+                count++;
+            }
+            return count;
+        }
+
+        void delete() {
+            try {
+                channel.close();
+                // the mapping goes away with the buffer; Linux keeps the pages until then
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                log.warn("Failed to delete spool segment {}: {}", id, e.getMessage());
+            }
+        }
+    }
+}
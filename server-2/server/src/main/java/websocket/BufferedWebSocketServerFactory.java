@@ -0,0 +1,63 @@
+package websocket;
+
+import metrics.ServerMetrics;
+import org.java_websocket.WebSocketAdapter;
+import org.java_websocket.WebSocketImpl;
+import org.java_websocket.WebSocketServerFactory;
+import org.java_websocket.drafts.Draft;
+
+import java.nio.channels.ByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+
+/**
+ * Gives every accepted connection an OutboundBuffer (as its attachment) and
+ * wraps its socket channel so the buffer sees the writes. With a
+ * HeartbeatManager, the socket is also put on the heartbeat wheel here, as
+ * soon as it is accepted.
+ */
+public class BufferedWebSocketServerFactory implements WebSocketServerFactory {
+
+    private final OutboundBuffer.Limits limits;
+    private final ServerMetrics metrics;
+    private final HeartbeatManager heartbeat;
+
+    /**
+     * @param heartbeat liveness checks for accepted sockets, or null when the library's checker is used
+     */
+    public BufferedWebSocketServerFactory(OutboundBuffer.Limits limits, ServerMetrics metrics,
+                                          HeartbeatManager heartbeat) {
+        this.limits = limits;
+        this.metrics = metrics;
+        this.heartbeat = heartbeat;
+    }
+
+    @Override
+    public WebSocketImpl createWebSocket(WebSocketAdapter a, Draft d) {
+        return attachBuffer(new WebSocketImpl(a, d));
+    }
+
+    @Override
+    public WebSocketImpl createWebSocket(WebSocketAdapter a, List<Draft> d) {
+        return attachBuffer(new WebSocketImpl(a, d));
+    }
+
+    @Override
+    public ByteChannel wrapChannel(SocketChannel channel, SelectionKey key) {
+        // the server registers the WebSocketImpl as the key's attachment
+        WebSocketImpl conn = (WebSocketImpl) key.attachment();
+        HeartbeatManager.Liveness liveness = heartbeat != null ? heartbeat.register(conn) : null;
+        return new CountingByteChannel(channel, conn.getAttachment(), liveness);
+    }
+
+    @Override
+    public void close() {
+        // nothing to release, buffers go away with their connections
+    }
+
+    private WebSocketImpl attachBuffer(WebSocketImpl conn) {
+        conn.setAttachment(new OutboundBuffer(conn, limits, metrics));
+        return conn;
+    }
+}
@@ -0,0 +1,197 @@
+package websocket;
+
+import metrics.ServerMetrics;
+import org.java_websocket.exceptions.InvalidDataException;
+import org.java_websocket.extensions.IExtension;
+import org.java_websocket.extensions.permessage_deflate.PerMessageDeflateExtension;
+import org.java_websocket.framing.ContinuousFrame;
+import org.java_websocket.framing.DataFrame;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.framing.FramedataImpl1;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.Deflater;
+
+/**
+ * permessage-deflate (RFC 7692) for client connections, tuned for fan-out.
+ *
+ * The server always compresses without context takeover: every message is
+ * deflated from a fresh state, so the compressed bytes of a broadcast are
+ * the same for every recipient. SharedFrameDraft deflates a broadcast once
+ * per room (deflateShared) instead of once per connection, which keeps the
+ * CPU cost flat in the room size. Server-side context takeover would need
+ * a deflater per connection and strict ordering between encoding and the
+ * write queue, which Java-WebSocket's send path doesn't give us.
+ *
+ * Deflaters come from a small shared pool and are reset between messages,
+ * instead of the library's end() + new Deflater per message (a thread-local
+ * would leak one per virtual thread in HTTP_EXECUTION_MODE=virtual). Whether the client may keep
+ * its context (client_no_context_takeover) is configurable; inflating is
+ * left to the library.
+ */
+public class ChatDeflateExtension extends PerMessageDeflateExtension {
+
+    private static final byte[] TAIL_BYTES = {0x00, 0x00, (byte) 0xFF, (byte) 0xFF};
+
+    private final Settings settings;
+    private final ServerMetrics metrics;
+
+    public ChatDeflateExtension(Settings settings, ServerMetrics metrics) {
+        this.settings = settings;
+        this.metrics = metrics;
+        setThreshold(settings.threshold);
+        setServerNoContextTakeover(true);
+        // the library allocates one per instance; ours are pooled
+        getDeflater().end();
+    }
+
+    /**
+     * Deflates one whole message the way encodeFrame does, for sharing
+     * between connections. Records the CPU cost once.
+     */
+    byte[] deflateShared(byte[] input, int offset, int length) {
+        return deflate(input, offset, length);
+    }
+
+    void recordSharedEgress(int plainFrameBytes, int sentFrameBytes) {
+        metrics.recordCompressedEgress(plainFrameBytes, sentFrameBytes);
+    }
+
+    @Override
+    public void encodeFrame(Framedata inputFrame) {
+        if (!(inputFrame instanceof DataFrame)) {
+            return;
+        }
+        if (inputFrame instanceof ContinuousFrame || !inputFrame.isFin()) {
+            // fragmented sends aren't used here; leave them uncompressed
+            return;
+        }
+        ByteBuffer payload = inputFrame.getPayloadData();
+        if (payload.remaining() < getThreshold()) {
+            return;
+        }
+        byte[] compressed;
+        if (payload.hasArray()) {
+            compressed = deflate(payload.array(), payload.arrayOffset() + payload.position(), payload.remaining());
+        } else {
+            byte[] copy = new byte[payload.remaining()];
+            payload.duplicate().get(copy);
+            compressed = deflate(copy, 0, copy.length);
+        }
+        ((DataFrame) inputFrame).setRSV1(true);
+        ((FramedataImpl1) inputFrame).setPayload(ByteBuffer.wrap(compressed));
+        metrics.recordCompressedEgress(EncodedTextFrame.frameLength(payload.remaining()),
+                EncodedTextFrame.frameLength(compressed.length));
+    }
+
+    @Override
+    public void decodeFrame(Framedata inputFrame) throws InvalidDataException {
+        long start = System.nanoTime();
+        super.decodeFrame(inputFrame);
+        if (inputFrame.isRSV1()) {
+            metrics.recordInflate(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public boolean acceptProvidedExtensionAsServer(String inputExtension) {
+        boolean accepted = super.acceptProvidedExtensionAsServer(inputExtension);
+        if (accepted && settings.clientNoContextTakeover) {
+            // announced in the handshake response; the inflater then resets per message
+            setClientNoContextTakeover(true);
+        }
+        return accepted;
+    }
+
+    @Override
+    public IExtension copyInstance() {
+        return new ChatDeflateExtension(settings, metrics);
+    }
+
+    @Override
+    public String toString() {
+        return "ChatDeflateExtension";
+    }
+
+    private byte[] deflate(byte[] input, int offset, int length) {
+        long start = System.nanoTime();
+        Deflater deflater = settings.borrowDeflater();
+        byte[] out = new byte[Math.max(64, length / 2 + 16)];
+        int written = 0;
+        try {
+            deflater.setInput(input, offset, length);
+            while (true) {
+                written += deflater.deflate(out, written, out.length - written, Deflater.SYNC_FLUSH);
+                // with SYNC_FLUSH, spare room in the output means everything is flushed
+                if (written < out.length) {
+                    break;
+                }
+                out = Arrays.copyOf(out, out.length * 2);
+            }
+        } finally {
+            settings.returnDeflater(deflater);
+        }
+        // RFC 7692 7.2.1: drop the trailing empty block
+        if (endsWithTail(out, written)) {
+            written -= TAIL_BYTES.length;
+        }
+        byte[] compressed = Arrays.copyOf(out, written);
+        metrics.recordDeflate(length, compressed.length, System.nanoTime() - start);
+        return compressed;
+    }
+
+    private static boolean endsWithTail(byte[] data, int length) {
+        if (length < TAIL_BYTES.length) {
+            return false;
+        }
+        for (int i = 0; i < TAIL_BYTES.length; i++) {
+            if (data[length - TAIL_BYTES.length + i] != TAIL_BYTES[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compression knobs, shared by every connection's extension instance.
+     */
+    public static class Settings {
+        private final int threshold;
+        private final int level;
+        private final boolean clientNoContextTakeover;
+        private final ConcurrentLinkedQueue<Deflater> idleDeflaters = new ConcurrentLinkedQueue<>();
+
+        /**
+         * @param threshold               messages smaller than this (bytes) are sent uncompressed
+         * @param level                   java.util.zip.Deflater level, 1 (fast) to 9 (small)
+         * @param clientNoContextTakeover ask clients to reset their compressor after every message
+         */
+        public Settings(int threshold, int level, boolean clientNoContextTakeover) {
+            this.threshold = threshold;
+            this.level = level;
+            this.clientNoContextTakeover = clientNoContextTakeover;
+        }
+
+        private Deflater borrowDeflater() {
+            Deflater deflater = idleDeflaters.poll();
+            return deflater != null ? deflater : new Deflater(level, true);
+        }
+
+        private void returnDeflater(Deflater deflater) {
+            deflater.reset();
+            idleDeflaters.offer(deflater);
+        }
+
+        public int getThreshold() {
+            return threshold;
+        }
+
+        @Override
+        public String toString() {
+            return "threshold=" + threshold + ", level=" + level
+                    + ", clientNoContextTakeover=" + clientNoContextTakeover;
+        }
+    }
+}
@@ -1,43 +1,69 @@
 package websocket;
 
+import codec.EnvelopeFormat;
+import codec.IngestCodec;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.rabbitmq.client.AMQP;
-import com.rabbitmq.client.Channel;
+import id.MessageIdGenerator;
+import metrics.ServerMetrics;
 import model.ChatMessage;
 import model.ChatResponse;
-import model.MessageEnvelope;
 import org.java_websocket.WebSocket;
+import org.java_websocket.framing.Framedata;
 import org.java_websocket.handshake.ClientHandshake;
-import org.java_websocket.server.WebSocketServer;
-import rabbitmq.RabbitMQConnectionManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rabbitmq.MessagePublisher;
+import rabbitmq.PublishFlowControl;
 import util.JsonUtil;
-import validator.MessageValidator;
-import validator.ValidationResult;
+import util.LogSampler;
 
 import java.net.InetSocketAddress;
+import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
-import java.time.Instant;
-import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
-
-public class ChatWebSocketServer extends WebSocketServer {
-
-    private static final String EXCHANGE_NAME = "chat.exchange";
-    private final ConcurrentHashMap<WebSocket, String> roomMapping;
-    private final RabbitMQConnectionManager rabbitMQConnectionManager;
-
-    /**
-     * Unique ID for this server instance.
-     * Generated once at startup — useful for tracing which instance
-     * handled a message when running multiple instances later.
-     */
-    private final String serverId = "server-" + UUID.randomUUID().toString().substring(0, 8);
-
-    public ChatWebSocketServer(int port, RabbitMQConnectionManager rabbitMQConnectionManager) {
-        super(new InetSocketAddress(port));
-        this.roomMapping = new ConcurrentHashMap<>();
-        this.rabbitMQConnectionManager = rabbitMQConnectionManager;
-        System.out.println("Server instance ID: " + serverId);
+import java.util.Collections;
+
+/**
+ * One ingress reactor: a selector thread plus its decoder workers, serving
+ * /chat/{roomId}. ReactorGroup runs one or more of them on the same port and
+ * gives them the same room registry, history, heartbeat and message IDs, so
+ * it makes no difference to a client which reactor accepted it.
+ */
+public class ChatWebSocketServer extends ReusePortWebSocketServer {
+
+    private static final Logger log = LoggerFactory.getLogger(ChatWebSocketServer.class);
+
+    // per-connection and per-message events are counted in ServerMetrics;
+    // only a sample of them reaches the log
+    private final LogSampler connectionLogSampler = new LogSampler(10, 1000);
+    private final LogSampler messageLogSampler = new LogSampler(10, 1000);
+    private final LogSampler failureLogSampler = new LogSampler(10, 1000);
+
+    private final RoomRegistry roomRegistry;
+    private final RoomHistory roomHistory;
+    private final HeartbeatManager heartbeat;
+    private final MessagePublisher publisher;
+    private final PublishFlowControl flowControl;
+    private final ServerMetrics metrics;
+
+    private final String serverId;
+    private final MessageIdGenerator messageIds;
+    private final EnvelopeFormat envelopeFormat;
+
+    ChatWebSocketServer(ReactorGroup group, InetSocketAddress address, int decoders, boolean reusePort) {
+        super(address, decoders, Collections.singletonList(group.getCompression() != null
+                ? new SharedFrameDraft(Collections.singletonList(
+                        new ChatDeflateExtension(group.getCompression(), group.getMetrics())))
+                : new SharedFrameDraft()), reusePort);
+        this.roomRegistry = group.getRoomRegistry();
+        this.roomHistory = group.getRoomHistory();
+        this.heartbeat = group.getHeartbeat();
+        this.publisher = group.getPublisher();
+        this.flowControl = group.getFlowControl();
+        this.metrics = group.getMetrics();
+        this.serverId = group.getServerId();
+        this.messageIds = group.getMessageIds();
+        this.envelopeFormat = group.getEnvelopeFormat();
+        setWebSocketFactory(new BufferedWebSocketServerFactory(group.getOutboundLimits(), metrics, heartbeat));
     }
 
     @Override
@@ -46,98 +72,212 @@ public class ChatWebSocketServer extends WebSocketServer {
         String roomId = extractRoomId(uri);
 
         if (roomId != null) {
-            roomMapping.put(conn, roomId);
-            System.out.println("New connection to room: " + roomId);
+            if (roomHistory != null) {
+                // joins and queues what the client missed before any new broadcast reaches it
+                RoomHistory.Replay replay = roomHistory.join(roomRegistry, conn, roomId, extractSince(uri));
+                sendReplaySummary(conn, replay);
+            } else {
+                roomRegistry.join(conn, roomId);
+            }
+            metrics.recordConnectionOpened();
+            if (log.isDebugEnabled() && connectionLogSampler.tryAcquire()) {
+                log.debug("New connection to room: {}", roomId);
+            }
         } else {
-            System.out.println("Invalid connection from: " + conn.getRemoteSocketAddress());
+            metrics.recordConnectionRejected();
+            if (connectionLogSampler.tryAcquire()) {
+                log.warn("Invalid connection from: {}", conn.getRemoteSocketAddress());
+            }
             conn.close(1003, "Invalid room path");
         }
     }
 
     @Override
     public void onClose(WebSocket conn, int code, String reason, boolean remote) {
-        String roomId = roomMapping.remove(conn);
-        System.out.println("Disconnected from room: " + roomId);
+        OutboundBuffer buffer = conn.getAttachment();
+        if (buffer != null) {
+            buffer.release();
+        }
+        String roomId = roomRegistry.leave(conn);
+        if (roomId != null) {
+            metrics.recordConnectionClosed();
+            if (roomHistory != null) {
+                roomHistory.left(roomRegistry, roomId);
+            }
+        }
+        if (log.isDebugEnabled() && connectionLogSampler.tryAcquire()) {
+            log.debug("Disconnected from room: {}", roomId);
+        }
     }
 
     @Override
     public void onMessage(WebSocket conn, String message) {
-        System.out.println("Received message: " + message);
+        long acceptedAt = System.currentTimeMillis();
+        metrics.recordMessageReceived();
+        if (log.isDebugEnabled() && messageLogSampler.tryAcquire()) {
+            log.debug("Received message: {}", message);
+        }
+        // true from taking a flow-control permit until the publisher's callback owns it
+        boolean holdsPermit = false;
         try {
-            // parse what the client sent
-            ChatMessage chatMessage = JsonUtil.fromJson(message, ChatMessage.class);
-
-            // validate
-            ValidationResult validationResult = MessageValidator.validate(chatMessage);
-            if (!validationResult.isValid()) {
-                sendError(conn, validationResult.getMessage());
+            // parse + validate in one pass; the codec is reused by this worker thread
+            IngestCodec codec = IngestCodec.forThread();
+            String error = codec.decode(message);
+            if (error != null) {
+                metrics.recordMessageInvalid();
+                sendError(conn, error, codec.getCorrelationId());
                 return;
             }
+            String correlationId = codec.getCorrelationId();
 
             // check RabbitMQ is available
-            if (!rabbitMQConnectionManager.isConnected()) {
-                sendError(conn, "Message service temporarily unavailable. Please try again.");
+            if (!publisher.isConnected()) {
+                sendError(conn, "Message service temporarily unavailable. Please try again.", correlationId);
+                return;
+            }
+
+            // while the broker pushes back, turn the message away before it costs a publish slot
+            if (flowControl != null && !flowControl.tryAcquire()) {
+                metrics.recordPublishThrottled();
+                sendRetry(conn, correlationId);
                 return;
             }
+            holdsPermit = flowControl != null;
 
             // extract connection metadata
-            String roomId = roomMapping.get(conn);
+            String roomId = roomRegistry.getRoom(conn);
             String clientIp = conn.getRemoteSocketAddress().getAddress().getHostAddress();
             String routingKey = "room." + roomId;
 
-            // map MessageEnvelope
-            MessageEnvelope envelope = new MessageEnvelope(
-                    UUID.randomUUID().toString(),
-                    roomId,
-                    chatMessage.getUserId(),
-                    chatMessage.getUsername(),
-                    chatMessage.getMessage(),
-                    Instant.now().toString(),
-                    chatMessage.getMessageType(),
-                    serverId,
-                    clientIp
-            );
-
-            // serialize envelope to JSON
-            byte[] body = JsonUtil.toJson(envelope).getBytes(StandardCharsets.UTF_8);
-
-            // set deliveryMode=2, survives RabbitMQ restart)
-            AMQP.BasicProperties props = new AMQP.BasicProperties.Builder()
-                    .deliveryMode(2)
-                    .contentType("application/json")
-                    .build();
-
-            Channel channel = rabbitMQConnectionManager.borrowChannel();
-            try {
-                channel.basicPublish(EXCHANGE_NAME, routingKey, props, body);
-                System.out.println("Published to RabbitMQ [" + routingKey + "]: " + envelope.getMessageId());
-            } finally {
-                rabbitMQConnectionManager.returnChannel(channel);
+            // envelope is written straight from the parsed fields, in the format the publisher labels it with
+            String messageId = messageIds.nextId();
+            byte[] body = envelopeFormat == EnvelopeFormat.BINARY
+                    ? codec.encodeEnvelopeBinary(messageId, roomId, acceptedAt, serverId, clientIp)
+                    : codec.encodeEnvelope(messageId, roomId, acceptedAt, serverId, clientIp);
+
+            // only legacy clients (no correlationId) need the message object for the echo
+            ChatMessage echo = correlationId == null ? codec.toChatMessage() : null;
+
+            // hand off to the publisher threads; the client hears back once the broker confirms
+            boolean accepted = publisher.submit(routingKey, body, new MessagePublisher.PublishCallback() {
+                @Override
+                public void onConfirmed() {
+                    releasePermit();
+                    metrics.recordPublishConfirmed();
+                    sendSuccess(conn, echo, correlationId, acceptedAt);
+                }
+
+                @Override
+                public void onFailed(String reason) {
+                    releasePermit();
+                    metrics.recordPublishFailed();
+                    if (failureLogSampler.tryAcquire()) {
+                        log.warn("Failed to publish to RabbitMQ [{}]: {}", routingKey, reason);
+                    }
+                    sendError(conn, "Failed to deliver message. Please try again.", correlationId);
+                }
+            });
+            holdsPermit = false;
+            if (!accepted) {
+                releasePermit();
+                metrics.recordPublishRejected();
+                sendError(conn, "Server is busy. Please try again.", correlationId);
             }
 
-        } catch (JsonProcessingException e) {
-            sendError(conn, "Invalid JSON format: " + e.getMessage());
         } catch (Exception e) {
-            System.err.println("Failed to publish to RabbitMQ: " + e.getMessage());
+            // e.g. the client went away mid-message and has no remote address any more
+            if (holdsPermit) {
+                releasePermit();
+            }
+            metrics.recordPublishFailed();
+            if (failureLogSampler.tryAcquire()) {
+                log.warn("Failed to publish to RabbitMQ: {}", e.getMessage());
+            }
             sendError(conn, "Failed to deliver message. Please try again.");
         }
     }
 
     @Override
     public void onError(WebSocket conn, Exception ex) {
-        System.err.println("WebSocket error: " + ex.getMessage());
-        ex.printStackTrace();
+        log.error("WebSocket error: {}", ex.getMessage(), ex);
     }
 
     @Override
     public void onStart() {
-        System.out.println("WebSocket server started on port " + getPort());
-        setConnectionLostTimeout(100);
+        log.info("WebSocket reactor {} started on port {}", Thread.currentThread().getName(), getPort());
+        // with the heartbeat wheel, the library's checker (which pings every connection at once) is off
+        setConnectionLostTimeout(heartbeat != null ? 0 : 100);
+    }
+
+    @Override
+    public void onWebsocketPong(WebSocket conn, Framedata f) {
+        if (heartbeat != null) {
+            heartbeat.onPong(f);
+        }
+    }
+
+    private void releasePermit() {
+        if (flowControl != null) {
+            flowControl.release();
+        }
+    }
+
+    private void sendSuccess(WebSocket conn, ChatMessage originalMessage, String correlationId, long acceptedAt) {
+        if (!conn.isOpen()) {
+            return;
+        }
+        try {
+            // clients that send a correlationId get the lightweight ack instead of the echo
+            ChatResponse response = correlationId != null
+                    ? ChatResponse.ack(correlationId, acceptedAt, System.currentTimeMillis())
+                    : new ChatResponse("SUCCESS", originalMessage);
+            conn.send(JsonUtil.toJson(response));
+        } catch (Exception ex) {
+            if (failureLogSampler.tryAcquire()) {
+                log.warn("Failed to send confirmation: {}", ex.getMessage());
+            }
+        }
+    }
+
+    private void sendReplaySummary(WebSocket conn, RoomHistory.Replay replay) {
+        try {
+            String summary = JsonUtil.toJson(
+                    ChatResponse.replay(replay.getReplayed(), replay.getLastSeq(), replay.isComplete()));
+            // through the same buffer as the replayed frames, so it arrives after them
+            OutboundBuffer buffer = conn.getAttachment();
+            if (buffer != null) {
+                buffer.offer(EncodedTextFrame.of(summary));
+            } else {
+                conn.send(summary);
+            }
+        } catch (JsonProcessingException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private void sendRetry(WebSocket conn, String correlationId) {
+        if (!conn.isOpen()) {
+            return;
+        }
+        try {
+            conn.send(JsonUtil.toJson(ChatResponse.retryLater(correlationId, flowControl.getRetryAfterMillis(),
+                    "Message service is busy. Please retry later.")));
+        } catch (JsonProcessingException ex) {
+            throw new RuntimeException(ex);
+        }
     }
 
     private void sendError(WebSocket conn, String errorMessage) {
+        sendError(conn, errorMessage, null);
+    }
+
+    private void sendError(WebSocket conn, String errorMessage, String correlationId) {
+        if (!conn.isOpen()) {
+            return;
+        }
         try {
             ChatResponse response = new ChatResponse("ERROR", errorMessage);
+            response.setCorrelationId(correlationId);
             conn.send(JsonUtil.toJson(response));
         } catch (JsonProcessingException ex) {
             throw new RuntimeException(ex);
@@ -146,15 +286,27 @@ public class ChatWebSocketServer extends WebSocketServer {
 
     private String extractRoomId(String uri) {
         if (uri != null && uri.startsWith("/chat/")) {
-            String[] parts = uri.split("/");
-            if (parts.length >= 3) {
+            int query = uri.indexOf('?');
+            String path = query >= 0 ? uri.substring(0, query) : uri;
+            String[] parts = path.split("/");
+            if (parts.length >= 3 && !parts[2].isEmpty()) {
                 return parts[2];
             }
         }
         return null;
     }
 
-    public ConcurrentHashMap<WebSocket, String> getRoomMapping() {
-        return roomMapping;
+    /** The since= query parameter (a message ID or room sequence number), or null. */
+    private String extractSince(String uri) {
+        int query = uri.indexOf('?');
+        if (query < 0) {
+            return null;
+        }
+        for (String param : uri.substring(query + 1).split("&")) {
+            if (param.startsWith("since=") && param.length() > "since=".length()) {
+                return URLDecoder.decode(param.substring("since=".length()), StandardCharsets.UTF_8);
+            }
+        }
+        return null;
     }
 }
\ No newline at end of file
@@ -0,0 +1,52 @@
+package websocket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+
+/**
+ * Wraps a client's socket channel and reports every successful write to the
+ * connection's OutboundBuffer, so the buffer knows when the socket has
+ * drained and the next waiting frames can go out. Reads that return bytes
+ * are reported to the HeartbeatManager, when there is one.
+ */
+class CountingByteChannel implements ByteChannel {
+
+    private final ByteChannel delegate;
+    private final OutboundBuffer buffer;
+    private final HeartbeatManager.Liveness liveness;
+
+    CountingByteChannel(ByteChannel delegate, OutboundBuffer buffer, HeartbeatManager.Liveness liveness) {
+        this.delegate = delegate;
+        this.buffer = buffer;
+        this.liveness = liveness;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        int read = delegate.read(dst);
+        if (read > 0 && liveness != null) {
+            liveness.onRead();
+        }
+        return read;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        int written = delegate.write(src);
+        if (written > 0) {
+            buffer.onWritten(written);
+        }
+        return written;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return delegate.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+}
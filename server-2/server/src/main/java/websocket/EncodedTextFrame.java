@@ -0,0 +1,104 @@
+package websocket;
+
+import org.java_websocket.framing.TextFrame;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A text frame whose wire bytes (header + UTF-8 payload) are built exactly once.
+ *
+ * Server-to-client frames are never masked, so the encoded bytes are identical
+ * for every recipient. SharedFrameDraft hands each connection its own duplicate()
+ * of the same buffer instead of re-encoding the message per socket. The buffer
+ * is deliberately not read-only: WebSocketImpl.write() calls array() on every
+ * frame it queues (for a trace log argument), which throws on a read-only view.
+ *
+ * The same holds for the permessage-deflate form, since the server never keeps
+ * compression context between messages: it is built on first use by a
+ * compressing connection and shared by the rest of the room.
+ */
+public class EncodedTextFrame extends TextFrame {
+
+    private static final byte FIN_TEXT = (byte) 0x81;
+    private static final byte FIN_RSV1_TEXT = (byte) 0xC1;
+
+    private final ByteBuffer wireBytes;
+    private final int headerLength;
+    private volatile ByteBuffer deflatedWireBytes;
+
+    private EncodedTextFrame(byte[] payload) {
+        super();
+        setFin(true);
+        this.wireBytes = encode(FIN_TEXT, payload);
+        this.headerLength = wireBytes.remaining() - payload.length;
+        // the payload view shares the wire array, so a frame kept in RoomHistory holds its bytes once
+        setPayload(wireBytes.duplicate().position(headerLength).slice().asReadOnlyBuffer());
+    }
+
+    public static EncodedTextFrame of(String message) {
+        return new EncodedTextFrame(message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Wraps payload bytes that are already UTF-8 text, without decoding them. */
+    public static EncodedTextFrame ofUtf8(byte[] payload) {
+        return new EncodedTextFrame(payload);
+    }
+
+    /**
+     * Fresh view over the shared wire bytes. Each connection needs its own view
+     * because the selector advances the buffer position as it writes.
+     */
+    public ByteBuffer wireBuffer() {
+        return wireBytes.duplicate();
+    }
+
+    /**
+     * Uncompressed size on the wire. Connections that negotiated compression
+     * may write fewer bytes (see SharedFrameDraft.wireLengthOf).
+     */
+    public int wireLength() {
+        return wireBytes.remaining();
+    }
+
+    public int payloadLength() {
+        return wireBytes.remaining() - headerLength;
+    }
+
+    /**
+     * Fresh view over the shared permessage-deflate wire bytes (RSV1 set).
+     * Concurrent first calls may both compress; either result is correct.
+     */
+    ByteBuffer deflatedWireBuffer(ChatDeflateExtension extension) {
+        ByteBuffer deflated = deflatedWireBytes;
+        if (deflated == null) {
+            deflated = encode(FIN_RSV1_TEXT, extension.deflateShared(wireBytes.array(), headerLength, payloadLength()));
+            deflatedWireBytes = deflated;
+        }
+        return deflated.duplicate();
+    }
+
+    /** Size of an unmasked server frame carrying payloadLength bytes. */
+    static int frameLength(int payloadLength) {
+        int headerLength = payloadLength <= 125 ? 2 : (payloadLength <= 0xFFFF ? 4 : 10);
+        return headerLength + payloadLength;
+    }
+
+    private static ByteBuffer encode(byte firstByte, byte[] payload) {
+        int length = payload.length;
+        ByteBuffer buf = ByteBuffer.allocate(frameLength(length));
+        buf.put(firstByte);
+        if (length <= 125) {
+            buf.put((byte) length);
+        } else if (length <= 0xFFFF) {
+            buf.put((byte) 126);
+            buf.putShort((short) length);
+        } else {
+            buf.put((byte) 127);
+            buf.putLong(length);
+        }
+        buf.put(payload);
+        buf.flip();
+        return buf;
+    }
+}
@@ -0,0 +1,197 @@
+package websocket;
+
+import metrics.ServerMetrics;
+import org.java_websocket.WebSocketImpl;
+import org.java_websocket.framing.CloseFrame;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.framing.PingFrame;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Connection liveness on a hashed timing wheel, in place of Java-WebSocket's
+ * lost-connection checker (which pings every connection in one burst per
+ * interval).
+ *
+ * Every accepted socket is put in one of the wheel's slots, round-robin, and
+ * stays there. The wheel advances one slot per interval / slots, so each
+ * connection is visited once per interval and the pings are spread evenly
+ * over it instead of arriving all at once. On a visit:
+ *   - a socket that still hasn't finished the WebSocket handshake after
+ *     handshakeTimeout is idle and gets closed
+ *   - a connection nothing was read from for timeout is half-open (or its
+ *     client is gone) and gets closed without a close handshake
+ *   - a connection nothing was read from for half an interval gets a ping;
+ *     connections that are talking anyway are not pinged
+ *
+ * A client that answers every ping is therefore heard from at least once per
+ * interval, so timeout only needs to be somewhat longer than the interval.
+ *
+ * Reads are stamped by CountingByteChannel with the wheel's clock, which only
+ * moves once per tick, so the receive path doesn't pay for System.nanoTime().
+ * Pings carry their send time, so the pong gives the round trip without any
+ * per-connection bookkeeping. Closed connections leave the wheel on their
+ * next visit.
+ */
+public class HeartbeatManager {
+
+    private static final Logger log = LoggerFactory.getLogger(HeartbeatManager.class);
+
+    private final long intervalNanos;
+    private final long timeoutNanos;
+    private final long handshakeTimeoutNanos;
+    private final ServerMetrics metrics;
+    private final Set<Liveness>[] wheel;
+    private final AtomicInteger nextSlot = new AtomicInteger();
+    private final ScheduledExecutorService ticker;
+
+    private volatile long now = System.nanoTime();
+    private int cursor;
+
+    /**
+     * @param intervalMillis         how often each connection is visited (and pinged, if quiet)
+     * @param timeoutMillis          silence after which a connection is closed as half-open
+     * @param handshakeTimeoutMillis how long an accepted socket may take to become a WebSocket
+     * @param slots                  wheel size; each tick handles about connections / slots sockets
+     */
+    @SuppressWarnings("unchecked")
+    public HeartbeatManager(long intervalMillis, long timeoutMillis, long handshakeTimeoutMillis, int slots,
+                            ServerMetrics metrics) {
+        if (intervalMillis < slots) {
+            throw new IllegalArgumentException("interval must be at least one millisecond per slot");
+        }
+        if (timeoutMillis <= intervalMillis) {
+            throw new IllegalArgumentException("timeout must be longer than the interval");
+        }
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.handshakeTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(handshakeTimeoutMillis);
+        this.metrics = metrics;
+        this.wheel = new Set[slots];
+        for (int i = 0; i < slots; i++) {
+            wheel[i] = ConcurrentHashMap.newKeySet();
+        }
+        this.ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "heartbeat-wheel");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public void start() {
+        long tickNanos = intervalNanos / wheel.length;
+        ticker.scheduleAtFixedRate(this::tick, tickNanos, tickNanos, TimeUnit.NANOSECONDS);
+        log.info("Heartbeat wheel started: {} slots, tick {} ms", wheel.length, tickNanos / 1_000_000.0);
+    }
+
+    public void stop() {
+        ticker.shutdownNow();
+    }
+
+    /** Starts watching a freshly accepted socket. */
+    Liveness register(WebSocketImpl conn) {
+        Liveness liveness = new Liveness(conn, now);
+        wheel[Math.floorMod(nextSlot.getAndIncrement(), wheel.length)].add(liveness);
+        return liveness;
+    }
+
+    /** Records the round trip if the pong answers one of our pings. */
+    public void onPong(Framedata pong) {
+        ByteBuffer payload = pong.getPayloadData();
+        if (payload.remaining() != Long.BYTES) {
+            return;
+        }
+        long rtt = System.nanoTime() - payload.getLong(payload.position());
+        // a client can send unsolicited pongs; ignore anything that isn't plausibly ours
+        if (rtt >= 0 && rtt <= timeoutNanos) {
+            metrics.recordPingRtt(rtt);
+        }
+    }
+
+    private void tick() {
+        try {
+            long tickNow = System.nanoTime();
+            now = tickNow;
+            Set<Liveness> slot = wheel[cursor];
+            cursor = (cursor + 1) % wheel.length;
+            for (Liveness liveness : slot) {
+                if (visit(liveness, tickNow)) {
+                    slot.remove(liveness);
+                }
+            }
+        } catch (RuntimeException e) {
+            // an exception would cancel the schedule and stop all liveness checks
+            log.warn("Heartbeat tick failed: {}", e.getMessage());
+        }
+    }
+
+    /** @return true when the connection is finished with and leaves the wheel */
+    private boolean visit(Liveness liveness, long tickNow) {
+        WebSocketImpl conn = liveness.conn;
+        if (conn.isClosed()) {
+            return true;
+        }
+        long silentFor = tickNow - liveness.lastRead;
+        if (conn.isClosing()) {
+            // a dead peer never answers the close handshake either
+            if (silentFor >= timeoutNanos) {
+                metrics.recordHeartbeatHalfOpenEviction();
+                conn.closeConnection(CloseFrame.ABNORMAL_CLOSE, "Close handshake timed out");
+                return true;
+            }
+            return false;
+        }
+        if (!conn.isOpen()) {
+            if (tickNow - liveness.acceptedAt >= handshakeTimeoutNanos) {
+                metrics.recordHeartbeatIdleEviction();
+                conn.closeConnection(CloseFrame.ABNORMAL_CLOSE, "Handshake timed out");
+                return true;
+            }
+            return false;
+        }
+        if (silentFor >= timeoutNanos) {
+            metrics.recordHeartbeatHalfOpenEviction();
+            conn.closeConnection(CloseFrame.ABNORMAL_CLOSE, "No response to ping");
+            return true;
+        }
+        if (silentFor >= intervalNanos / 2) {
+            PingFrame ping = new PingFrame();
+            ByteBuffer sentAt = ByteBuffer.allocate(Long.BYTES);
+            sentAt.putLong(0, System.nanoTime());
+            ping.setPayload(sentAt);
+            try {
+                conn.sendFrame(ping);
+                metrics.recordHeartbeatPingSent();
+            } catch (RuntimeException e) {
+                // closed under us; the next visit removes it
+            }
+        }
+        return false;
+    }
+
+    /** What the wheel knows about one socket. */
+    class Liveness {
+        private final WebSocketImpl conn;
+        private final long acceptedAt;
+        private volatile long lastRead;
+
+        Liveness(WebSocketImpl conn, long acceptedAt) {
+            this.conn = conn;
+            this.acceptedAt = acceptedAt;
+            this.lastRead = acceptedAt;
+        }
+
+        /** Called on the selector thread for every read that returned bytes. */
+        void onRead() {
+            lastRead = now;
+        }
+    }
+}
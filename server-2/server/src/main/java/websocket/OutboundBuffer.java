@@ -0,0 +1,179 @@
+package websocket;
+
+import metrics.ServerMetrics;
+import org.java_websocket.WebSocket;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.framing.CloseFrame;
+
+import java.util.ArrayDeque;
+
+/**
+ * Bounded outbound buffer for one client connection.
+ *
+ * Java-WebSocket queues every sent frame on an unbounded per-connection queue
+ * until the socket drains it, so one stalled browser can hold any amount of
+ * memory. Broadcast frames go through this buffer instead:
+ *   - at most LIBRARY_HIGH_WATER_BYTES are handed to the library at a time
+ *   - the rest waits here, capped by Limits.maxBytes / Limits.maxMessages
+ *   - every write the selector makes to the socket is reported back through
+ *     CountingByteChannel, which hands the next waiting frames to the library
+ *   - when a new frame would exceed the cap, the OverflowPolicy decides
+ *
+ * Waiting frames are the shared EncodedTextFrame instances, so a backlog costs
+ * a reference per frame, not a copy.
+ *
+ * The library-side count is an estimate: it is only increased for frames sent
+ * from here, but decreased by every byte written (handshake, acks, pings too),
+ * and clamped at zero. It can only err on the low side by the size of those
+ * non-broadcast frames.
+ */
+public class OutboundBuffer {
+
+    private static final int LIBRARY_HIGH_WATER_BYTES = 64 * 1024;
+
+    private final WebSocket conn;
+    private final Limits limits;
+    private final ServerMetrics metrics;
+
+    private final ArrayDeque<EncodedTextFrame> waiting = new ArrayDeque<>();
+    private long waitingBytes;
+    private long libraryBytes;
+    private boolean closed;
+
+    public OutboundBuffer(WebSocket conn, Limits limits, ServerMetrics metrics) {
+        this.conn = conn;
+        this.limits = limits;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Sends the frame now if the socket is keeping up, otherwise queues it.
+     * @return false if the frame was dropped or the connection was evicted
+     */
+    public boolean offer(EncodedTextFrame frame) {
+        boolean evict = false;
+        synchronized (this) {
+            if (closed) {
+                return false;
+            }
+            if (waiting.isEmpty() && libraryBytes < LIBRARY_HIGH_WATER_BYTES) {
+                handToLibrary(frame);
+                return true;
+            }
+
+            int size = frame.wireLength();
+            if (fits(size)) {
+                enqueue(frame);
+                return true;
+            }
+
+            switch (limits.policy) {
+                case DROP_NEWEST:
+                    metrics.recordOutboundFramesDropped(1);
+                    return false;
+                case DROP_OLDEST:
+                    int dropped = 0;
+                    while (!waiting.isEmpty() && !fits(size)) {
+                        EncodedTextFrame oldest = waiting.pollFirst();
+                        waitingBytes -= oldest.wireLength();
+                        metrics.recordOutboundQueuedBytes(-oldest.wireLength());
+                        dropped++;
+                    }
+                    metrics.recordOutboundFramesDropped(dropped);
+                    if (!fits(size)) {
+                        // a single frame larger than the whole cap
+                        metrics.recordOutboundFramesDropped(1);
+                        return false;
+                    }
+                    enqueue(frame);
+                    return true;
+                default:
+                    evict = true;
+                    releaseLocked();
+                    break;
+            }
+        }
+        if (evict) {
+            metrics.recordSlowConsumerEviction();
+            // close without a handshake, a stalled client won't read the close frame anyway
+            conn.closeConnection(CloseFrame.TRY_AGAIN_LATER, "Slow consumer");
+        }
+        return false;
+    }
+
+    /**
+     * Called by CountingByteChannel on the selector thread after bytes were
+     * written to the socket.
+     */
+    synchronized void onWritten(int bytes) {
+        libraryBytes = Math.max(0, libraryBytes - bytes);
+        while (!closed && !waiting.isEmpty() && libraryBytes < LIBRARY_HIGH_WATER_BYTES) {
+            EncodedTextFrame next = waiting.pollFirst();
+            waitingBytes -= next.wireLength();
+            metrics.recordOutboundQueuedBytes(-next.wireLength());
+            try {
+                handToLibrary(next);
+            } catch (RuntimeException e) {
+                // connection is closing; must not throw into the selector's write
+                releaseLocked();
+            }
+        }
+    }
+
+    /** Drops whatever is still waiting. Called when the connection closes. */
+    public synchronized void release() {
+        releaseLocked();
+    }
+
+    public synchronized long getQueuedBytes() {
+        return waitingBytes + libraryBytes;
+    }
+
+    private boolean fits(int size) {
+        return waitingBytes + size <= limits.maxBytes && waiting.size() < limits.maxMessages;
+    }
+
+    private void enqueue(EncodedTextFrame frame) {
+        waiting.addLast(frame);
+        waitingBytes += frame.wireLength();
+        metrics.recordOutboundQueuedBytes(frame.wireLength());
+    }
+
+    private void handToLibrary(EncodedTextFrame frame) {
+        conn.sendFrame(frame);
+        libraryBytes += libraryLength(frame);
+    }
+
+    // what the socket will actually be written, which is less than wireLength()
+    // when the frame goes out compressed; waiting frames are counted uncompressed
+    private int libraryLength(EncodedTextFrame frame) {
+        Draft draft = conn.getDraft();
+        return draft instanceof SharedFrameDraft
+                ? ((SharedFrameDraft) draft).wireLengthOf(frame)
+                : frame.wireLength();
+    }
+
+    private void releaseLocked() {
+        closed = true;
+        metrics.recordOutboundQueuedBytes(-waitingBytes);
+        waiting.clear();
+        waitingBytes = 0;
+    }
+
+    /** Per-connection caps, shared by every buffer on the server. */
+    public static class Limits {
+        private final long maxBytes;
+        private final int maxMessages;
+        private final OverflowPolicy policy;
+
+        public Limits(long maxBytes, int maxMessages, OverflowPolicy policy) {
+            this.maxBytes = maxBytes;
+            this.maxMessages = maxMessages;
+            this.policy = policy;
+        }
+
+        public long getMaxBytes() { return maxBytes; }
+        public int getMaxMessages() { return maxMessages; }
+        public OverflowPolicy getPolicy() { return policy; }
+    }
+}
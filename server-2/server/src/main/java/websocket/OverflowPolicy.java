@@ -0,0 +1,14 @@
+package websocket;
+
+/**
+ * What an OutboundBuffer does when a broadcast would push a connection
+ * past its byte or message cap.
+ */
+public enum OverflowPolicy {
+    /** Discard the oldest waiting frames until the new one fits. */
+    DROP_OLDEST,
+    /** Discard the new frame; what is already waiting is kept. */
+    DROP_NEWEST,
+    /** Close the connection; the client reconnects and starts fresh. */
+    DISCONNECT
+}
@@ -0,0 +1,125 @@
+package websocket;
+
+import codec.EnvelopeFormat;
+import id.MessageIdGenerator;
+import id.MessageIdScheme;
+import metrics.ServerMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rabbitmq.MessagePublisher;
+import rabbitmq.PublishFlowControl;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The WebSocket ingress for /chat/{roomId}: one or more ChatWebSocketServer
+ * reactors on the same port.
+ *
+ * A single Java-WebSocket server has one selector thread doing every accept,
+ * read and write, which caps a node at about one core of network I/O however
+ * many decoder workers it has. With reactors > 1 every reactor binds the
+ * port with SO_REUSEPORT and the kernel spreads new connections across them,
+ * so each has its own selector thread and decoder workers.
+ *
+ * Everything a client could tell apart is shared: the room registry (so a
+ * broadcast reaches a room's members whichever reactor holds them), room
+ * history, the heartbeat wheel, the server ID and the message ID generator
+ * (one generator per node, so IDs can't collide between reactors).
+ */
+public class ReactorGroup {
+
+    private static final Logger log = LoggerFactory.getLogger(ReactorGroup.class);
+
+    /**
+     * Unique ID for this server instance.
+     * Generated once at startup — useful for tracing which instance
+     * handled a message when running multiple instances later.
+     */
+    private final String serverId = "server-" + UUID.randomUUID().toString().substring(0, 8);
+
+    private final RoomRegistry roomRegistry = new RoomRegistry();
+    private final MessagePublisher publisher;
+    private final ServerMetrics metrics;
+    private final OutboundBuffer.Limits outboundLimits;
+    private final MessageIdGenerator messageIds;
+    private final EnvelopeFormat envelopeFormat;
+    private final ChatDeflateExtension.Settings compression;
+    private final RoomHistory roomHistory;
+    private final HeartbeatManager heartbeat;
+    private final PublishFlowControl flowControl;
+    private final List<ChatWebSocketServer> reactors = new ArrayList<>();
+
+    /**
+     * @param reactors           selector threads sharing the port; more than one needs SO_REUSEPORT
+     * @param decodersPerReactor decoder worker threads behind each selector
+     * @param compression        permessage-deflate settings, or null for none
+     * @param roomHistory        broadcast history replayed on join, or null for none
+     * @param heartbeat          liveness wheel, or null for the library's checker
+     * @param flowControl        broker back-pressure on ingress, or null for none
+     */
+    public ReactorGroup(int port, int reactors, int decodersPerReactor, MessagePublisher publisher,
+                        ServerMetrics metrics, OutboundBuffer.Limits outboundLimits, MessageIdScheme messageIdScheme,
+                        EnvelopeFormat envelopeFormat, ChatDeflateExtension.Settings compression,
+                        RoomHistory roomHistory, HeartbeatManager heartbeat, PublishFlowControl flowControl) {
+        if (reactors > 1 && !ReusePortWebSocketServer.isReusePortSupported()) {
+            throw new IllegalStateException("SO_REUSEPORT is not supported here; run with a single reactor");
+        }
+        this.publisher = publisher;
+        this.metrics = metrics;
+        this.outboundLimits = outboundLimits;
+        this.messageIds = messageIdScheme.newGenerator(serverId);
+        this.envelopeFormat = envelopeFormat;
+        this.compression = compression;
+        this.roomHistory = roomHistory;
+        this.heartbeat = heartbeat;
+        this.flowControl = flowControl;
+        for (int i = 0; i < reactors; i++) {
+            this.reactors.add(new ChatWebSocketServer(this, new InetSocketAddress(port), decodersPerReactor,
+                    reactors > 1));
+        }
+        log.info("Server instance ID: {}, reactors: {} x {} decoders, message IDs: {}, envelopes: {}",
+                serverId, reactors, decodersPerReactor, messageIdScheme, envelopeFormat);
+    }
+
+    public void start() {
+        if (heartbeat != null) {
+            heartbeat.start();
+        }
+        reactors.forEach(ChatWebSocketServer::start);
+    }
+
+    public void stop(int timeout) throws InterruptedException {
+        for (ChatWebSocketServer reactor : reactors) {
+            reactor.stop(timeout);
+        }
+        if (heartbeat != null) {
+            heartbeat.stop();
+        }
+    }
+
+    public List<ChatWebSocketServer> getReactors() {
+        return Collections.unmodifiableList(reactors);
+    }
+
+    public RoomRegistry getRoomRegistry() {
+        return roomRegistry;
+    }
+
+    public String getServerId() {
+        return serverId;
+    }
+
+    RoomHistory getRoomHistory() { return roomHistory; }
+    HeartbeatManager getHeartbeat() { return heartbeat; }
+    PublishFlowControl getFlowControl() { return flowControl; }
+    MessagePublisher getPublisher() { return publisher; }
+    ServerMetrics getMetrics() { return metrics; }
+    OutboundBuffer.Limits getOutboundLimits() { return outboundLimits; }
+    MessageIdGenerator getMessageIds() { return messageIds; }
+    EnvelopeFormat getEnvelopeFormat() { return envelopeFormat; }
+    ChatDeflateExtension.Settings getCompression() { return compression; }
+}
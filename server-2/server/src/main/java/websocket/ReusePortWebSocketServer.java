@@ -0,0 +1,74 @@
+package websocket;
+
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.server.WebSocketServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.util.List;
+
+/**
+ * A WebSocketServer whose listening socket can be opened with SO_REUSEPORT,
+ * so several servers (each with its own selector thread) can bind the same
+ * port and let the kernel spread incoming connections across them.
+ *
+ * Java-WebSocket opens and binds the channel inside one private method, with
+ * no hook in between. The only call it makes on the open, still unbound
+ * channel that a subclass can override is isReuseAddr(), so the option is
+ * set there, on the library's private field.
+ */
+public abstract class ReusePortWebSocketServer extends WebSocketServer {
+
+    private static final Logger log = LoggerFactory.getLogger(ReusePortWebSocketServer.class);
+    private static final Field SERVER_CHANNEL = serverChannelField();
+
+    private final boolean reusePort;
+
+    protected ReusePortWebSocketServer(InetSocketAddress address, int decoders, List<Draft> drafts,
+                                       boolean reusePort) {
+        super(address, decoders, drafts);
+        this.reusePort = reusePort;
+    }
+
+    /** Whether this JVM can open listening sockets with SO_REUSEPORT (Linux, BSD). */
+    public static boolean isReusePortSupported() {
+        try (ServerSocketChannel channel = ServerSocketChannel.open()) {
+            return channel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean isReuseAddr() {
+        if (reusePort) {
+            try {
+                ServerSocketChannel channel = (ServerSocketChannel) SERVER_CHANNEL.get(this);
+                if (channel != null && channel.isOpen()) {
+                    channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                }
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            } catch (IOException e) {
+                // the bind that follows then fails if another reactor holds the port
+                log.error("Failed to set SO_REUSEPORT: {}", e.getMessage());
+            }
+        }
+        return super.isReuseAddr();
+    }
+
+    private static Field serverChannelField() {
+        try {
+            Field field = WebSocketServer.class.getDeclaredField("server");
+            field.setAccessible(true);
+            return field;
+        } catch (NoSuchFieldException e) {
+            throw new IllegalStateException("Java-WebSocket version without WebSocketServer.server", e);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package websocket;
+
+import metrics.ServerMetrics;
+import org.java_websocket.WebSocket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import util.LogSampler;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Delivers one pre-encoded frame to every connection in a room on this node.
+ * Shared by the JSON and the binary batch broadcast endpoints.
+ *
+ * Client connections carry an OutboundBuffer, so a slow client can only
+ * hold a bounded backlog; a frame its buffer drops counts as failed.
+ *
+ * When room history is on, every frame is recorded in RoomHistory before
+ * the fan-out, so clients joining later get it replayed.
+ */
+public class RoomBroadcaster {
+
+    private static final Logger log = LoggerFactory.getLogger(RoomBroadcaster.class);
+
+    private final LogSampler failureLogSampler = new LogSampler(10, 1000);
+    private final RoomRegistry roomRegistry;
+    private final RoomHistory roomHistory;
+    private final ServerMetrics metrics;
+
+    /**
+     * @param roomHistory where broadcasts are recorded for replay, or null when history is off
+     */
+    public RoomBroadcaster(RoomRegistry roomRegistry, RoomHistory roomHistory, ServerMetrics metrics) {
+        this.roomRegistry = roomRegistry;
+        this.roomHistory = roomHistory;
+        this.metrics = metrics;
+    }
+
+    public Result broadcast(String roomId, EncodedTextFrame frame) {
+        if (roomHistory != null) {
+            roomHistory.append(roomId, frame);
+        }
+        // only visits the members of this room
+        int sent = 0;
+        int failed = 0;
+        for (WebSocket conn : roomRegistry.getMembers(roomId)) {
+            try {
+                if (conn.isOpen()) {
+                    OutboundBuffer buffer = conn.getAttachment();
+                    if (buffer == null) {
+                        conn.sendFrame(frame);
+                        sent++;
+                    } else if (buffer.offer(frame)) {
+                        sent++;
+                    } else {
+                        failed++;
+                    }
+                }
+            } catch (Exception e) {
+                if (failureLogSampler.tryAcquire()) {
+                    log.warn("Failed to send to client in room {}: {}", roomId, e.getMessage());
+                }
+                failed++;
+            }
+        }
+        metrics.recordBroadcastRequest();
+        metrics.recordBroadcastFramesSent(sent);
+        metrics.recordBroadcastSendFailures(failed);
+        return new Result(sent, failed);
+    }
+
+    /**
+     * Per-connection backlog across the node. Walks every connection, so it
+     * is meant for /health, not the hot path.
+     */
+    public Map<String, Object> outboundStats() {
+        long total = 0;
+        long max = 0;
+        int backlogged = 0;
+        for (WebSocket conn : roomRegistry.getConnections()) {
+            OutboundBuffer buffer = conn.getAttachment();
+            if (buffer == null) {
+                continue;
+            }
+            long queued = buffer.getQueuedBytes();
+            total += queued;
+            max = Math.max(max, queued);
+            if (queued > 0) {
+                backlogged++;
+            }
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("queuedBytes", total);
+        stats.put("maxQueuedBytesPerConnection", max);
+        stats.put("connectionsWithBacklog", backlogged);
+        return stats;
+    }
+
+    public static class Result {
+        private final int sent;
+        private final int failed;
+
+        public Result(int sent, int failed) {
+            this.sent = sent;
+            this.failed = failed;
+        }
+
+        public int getSent() { return sent; }
+        public int getFailed() { return failed; }
+    }
+}
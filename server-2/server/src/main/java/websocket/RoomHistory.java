@@ -0,0 +1,287 @@
+package websocket;
+
+import org.java_websocket.WebSocket;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The last N broadcasts of every room on this node, replayed to clients as
+ * they join so they don't have to fetch recent context elsewhere.
+ *
+ * Each room has a fixed array of slots holding the EncodedTextFrames that
+ * were broadcast, so recording a message allocates nothing and a replay
+ * sends the same shared (and, with compression, already deflated) bytes
+ * the room got live. Every broadcast gets a per-room sequence number.
+ *
+ * A reconnecting client can pass ?since=<messageId> or ?since=<seq> to get
+ * only what came after. Sequence numbers are local to this node, so message
+ * IDs are the better choice behind a load balancer. If the given point is no
+ * longer in the ring (or unknown here) the whole ring is replayed and the
+ * REPLAY summary says complete=false, so the client knows there is a gap.
+ * Each slot keeps a hash of its message's ID, taken when it is appended and
+ * outside the lock, so resolving a messageId doesn't scan payloads.
+ *
+ * Joining and replaying happen under the room's lock, which broadcasts also
+ * take to append, so replayed frames are queued before any live frame. A
+ * broadcast that was appended just before the join may still be fanned out
+ * to the new member too, so the replay is at-least-once around the join.
+ *
+ * With cluster membership on, this node stops receiving a room's broadcasts
+ * once its last member leaves. A ring that sat idle for longer than
+ * staleAfterMillis no longer ends at the room's latest message, so it is
+ * cleared when the next member joins, and a resume from before the clear is
+ * never complete.
+ */
+public class RoomHistory {
+
+    private static final byte[] MESSAGE_ID_FIELD = "\"messageId\":\"".getBytes(StandardCharsets.UTF_8);
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final int capacity;
+    private final long staleAfterMillis;
+    private final ConcurrentHashMap<String, Ring> rings = new ConcurrentHashMap<>();
+
+    /**
+     * @param capacity         broadcasts kept per room
+     * @param staleAfterMillis how long a room may have no members here before its history is dropped
+     */
+    public RoomHistory(int capacity, long staleAfterMillis) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.staleAfterMillis = staleAfterMillis;
+    }
+
+    /**
+     * Records a broadcast.
+     * @return the room sequence number assigned to it
+     */
+    public long append(String roomId, EncodedTextFrame frame) {
+        long idHash = messageIdHash(frame.getPayloadData());
+        Ring ring = rings.computeIfAbsent(roomId, id -> new Ring(capacity));
+        synchronized (ring) {
+            return ring.append(frame, idHash);
+        }
+    }
+
+    /**
+     * Registers the connection in the room and queues the history it should
+     * see on it, in order, before any broadcast that comes after.
+     *
+     * @param since the message ID or sequence number the client last saw, or null for the whole ring
+     */
+    public Replay join(RoomRegistry roomRegistry, WebSocket conn, String roomId, String since) {
+        Ring ring = rings.computeIfAbsent(roomId, id -> new Ring(capacity));
+        synchronized (ring) {
+            if (ring.idleSince != 0 && System.currentTimeMillis() - ring.idleSince > staleAfterMillis) {
+                ring.clear();
+            }
+            ring.idleSince = 0;
+            roomRegistry.join(conn, roomId);
+
+            long from = ring.oldestSeq();
+            boolean complete = true;
+            if (since != null) {
+                long after = ring.resolve(since);
+                if (after >= 0) {
+                    from = after + 1;
+                } else {
+                    complete = false;
+                }
+            }
+
+            OutboundBuffer buffer = conn.getAttachment();
+            int replayed = 0;
+            for (long seq = from; seq < ring.nextSeq; seq++) {
+                EncodedTextFrame frame = ring.get(seq);
+                if (buffer != null) {
+                    if (!buffer.offer(frame)) {
+                        // over the connection's own backlog limit; the client sees a gap
+                        complete = false;
+                        continue;
+                    }
+                } else {
+                    conn.sendFrame(frame);
+                }
+                replayed++;
+            }
+            return new Replay(replayed, ring.nextSeq - 1, complete);
+        }
+    }
+
+    /**
+     * Call after a connection left; starts the room's idle clock if it was the last one here.
+     */
+    public void left(RoomRegistry roomRegistry, String roomId) {
+        Ring ring = rings.get(roomId);
+        if (ring == null) {
+            return;
+        }
+        synchronized (ring) {
+            if (ring.idleSince == 0 && roomRegistry.getMembers(roomId).isEmpty()) {
+                ring.idleSince = System.currentTimeMillis();
+            }
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    private static class Ring {
+        private final EncodedTextFrame[] slots;
+        // messageIdHash of each slot's payload, 0 if it has none
+        private final long[] idHashes;
+        // sequence numbers start at 1; the ring holds [nextSeq - size, nextSeq)
+        private long nextSeq = 1;
+        private int size;
+        private long idleSince;
+        // first sequence number after the last clear; anything before it is not continuous with the ring
+        private long clearedAt;
+
+        Ring(int capacity) {
+            this.slots = new EncodedTextFrame[capacity];
+            this.idHashes = new long[capacity];
+        }
+
+        long append(EncodedTextFrame frame, long idHash) {
+            long seq = nextSeq++;
+            int slot = (int) (seq % slots.length);
+            slots[slot] = frame;
+            idHashes[slot] = idHash;
+            if (size < slots.length) {
+                size++;
+            }
+            return seq;
+        }
+
+        EncodedTextFrame get(long seq) {
+            return slots[(int) (seq % slots.length)];
+        }
+
+        long oldestSeq() {
+            return nextSeq - size;
+        }
+
+        void clear() {
+            // keep numbering so sequence numbers handed out earlier never repeat
+            Arrays.fill(slots, null);
+            Arrays.fill(idHashes, 0);
+            size = 0;
+            clearedAt = nextSeq;
+        }
+
+        /**
+         * @return the sequence number of the message the client last saw if
+         *         everything after it is still here, else -1
+         */
+        long resolve(String since) {
+            long seq = findMessageId(since);
+            if (seq < 0 && isDigits(since)) {
+                seq = Long.parseLong(since);
+                if (seq >= nextSeq) {
+                    // from an earlier process or another node
+                    return -1;
+                }
+            }
+            // the node received nothing for this room between the clear and the next append
+            return seq >= oldestSeq() - 1 && seq >= clearedAt ? seq : -1;
+        }
+
+        private long findMessageId(String messageId) {
+            byte[] id = messageId.getBytes(StandardCharsets.UTF_8);
+            long idHash = messageIdHash(id);
+            for (long seq = nextSeq - 1; seq >= oldestSeq(); seq--) {
+                // a hash match is confirmed against the payload, so a collision can't resume at the wrong message
+                if (idHashes[(int) (seq % slots.length)] == idHash && hasMessageId(get(seq).getPayloadData(), id)) {
+                    return seq;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /** FNV-1a of the value of the payload's "messageId":"..." field, or 0 if it has none. */
+    private static long messageIdHash(ByteBuffer payload) {
+        int limit = payload.limit();
+        for (int i = payload.position(); i + MESSAGE_ID_FIELD.length <= limit; i++) {
+            if (matchesAt(payload, i, MESSAGE_ID_FIELD)) {
+                long hash = FNV_OFFSET;
+                for (int j = i + MESSAGE_ID_FIELD.length; j < limit; j++) {
+                    byte b = payload.get(j);
+                    if (b == '"') {
+                        return hash == 0 ? 1 : hash;
+                    }
+                    hash = (hash ^ (b & 0xff)) * FNV_PRIME;
+                }
+                return 0;
+            }
+        }
+        return 0;
+    }
+
+    private static long messageIdHash(byte[] id) {
+        long hash = FNV_OFFSET;
+        for (byte b : id) {
+            hash = (hash ^ (b & 0xff)) * FNV_PRIME;
+        }
+        return hash == 0 ? 1 : hash;
+    }
+
+    /** Looks for "messageId":"<id>" in the JSON payload, without parsing it. */
+    private static boolean hasMessageId(ByteBuffer payload, byte[] id) {
+        int start = payload.position();
+        int last = payload.limit() - MESSAGE_ID_FIELD.length - id.length - 1;
+        for (int i = start; i <= last; i++) {
+            if (matchesAt(payload, i, MESSAGE_ID_FIELD)
+                    && matchesAt(payload, i + MESSAGE_ID_FIELD.length, id)
+                    && payload.get(i + MESSAGE_ID_FIELD.length + id.length) == '"') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean matchesAt(ByteBuffer buf, int index, byte[] bytes) {
+        for (int j = 0; j < bytes.length; j++) {
+            if (buf.get(index + j) != bytes[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isDigits(String s) {
+        if (s.isEmpty() || s.length() > 18) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) < '0' || s.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** What a join replayed; sent to the client as the REPLAY summary. */
+    public static class Replay {
+        private final int replayed;
+        private final long lastSeq;
+        private final boolean complete;
+
+        Replay(int replayed, long lastSeq, boolean complete) {
+            this.replayed = replayed;
+            this.lastSeq = lastSeq;
+            this.complete = complete;
+        }
+
+        public int getReplayed() { return replayed; }
+        public long getLastSeq() { return lastSeq; }
+        public boolean isComplete() { return complete; }
+    }
+}
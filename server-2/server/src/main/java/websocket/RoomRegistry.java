@@ -0,0 +1,100 @@
+package websocket;
+
+import org.java_websocket.WebSocket;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Tracks which WebSocket connections belong to which room on this node.
+ *
+ * Two indexes are kept in sync:
+ *   - roomId → concurrent set of member connections (used for broadcast fan-out)
+ *   - connection → roomId (used to look up the sender's room in onMessage)
+ *
+ * Per-room sets are created and removed through compute/computeIfPresent so
+ * a join racing with the last leave of a room can never lose a member.
+ * A join that creates a room's set tells the room-opened listener, if any.
+ */
+public class RoomRegistry {
+
+    private final ConcurrentHashMap<String, Set<WebSocket>> roomMembers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<WebSocket, String> connectionRooms = new ConcurrentHashMap<>();
+    private volatile Consumer<String> roomOpenedListener;
+
+    public void join(WebSocket conn, String roomId) {
+        String previous = connectionRooms.put(conn, roomId);
+        if (previous != null && !previous.equals(roomId)) {
+            removeMember(previous, conn);
+        }
+        boolean[] opened = new boolean[1];
+        roomMembers.compute(roomId, (id, members) -> {
+            if (members == null) {
+                members = ConcurrentHashMap.newKeySet();
+                opened[0] = true;
+            }
+            members.add(conn);
+            return members;
+        });
+        Consumer<String> listener = roomOpenedListener;
+        if (opened[0] && listener != null) {
+            listener.accept(roomId);
+        }
+    }
+
+    /** Called with the room ID when a join gives a room its first member on this node. */
+    public void setRoomOpenedListener(Consumer<String> listener) {
+        this.roomOpenedListener = listener;
+    }
+
+    /**
+     * Removes the connection from its room.
+     * @return the room the connection was in, or null if it was never registered
+     */
+    public String leave(WebSocket conn) {
+        String roomId = connectionRooms.remove(conn);
+        if (roomId != null) {
+            removeMember(roomId, conn);
+        }
+        return roomId;
+    }
+
+    public String getRoom(WebSocket conn) {
+        return connectionRooms.get(conn);
+    }
+
+    /**
+     * Live view of the connections currently in the room.
+     * Iteration is weakly consistent, so it is safe while members join and leave.
+     */
+    public Set<WebSocket> getMembers(String roomId) {
+        Set<WebSocket> members = roomMembers.get(roomId);
+        return members != null ? members : Collections.emptySet();
+    }
+
+    public int getRoomCount() {
+        return roomMembers.size();
+    }
+
+    public int getConnectionCount() {
+        return connectionRooms.size();
+    }
+
+    public Set<WebSocket> getConnections() {
+        return Collections.unmodifiableSet(connectionRooms.keySet());
+    }
+
+    public Map<String, Set<WebSocket>> getRooms() {
+        return Collections.unmodifiableMap(roomMembers);
+    }
+
+    private void removeMember(String roomId, WebSocket conn) {
+        roomMembers.computeIfPresent(roomId, (id, members) -> {
+            members.remove(conn);
+            return members.isEmpty() ? null : members;
+        });
+    }
+}
@@ -0,0 +1,98 @@
+package websocket;
+
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.extensions.DefaultExtension;
+import org.java_websocket.extensions.IExtension;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.framing.TextFrame;
+import org.java_websocket.protocols.IProtocol;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * RFC 6455 draft that writes pre-encoded broadcast frames without re-encoding.
+ *
+ * Java-WebSocket's own broadcast() shares the Framedata between recipients, but
+ * still calls createBinaryFrame() per connection, which allocates and copies
+ * the payload into a new buffer every time. For an EncodedTextFrame this draft
+ * returns a view over the bytes that were encoded once for the whole room.
+ *
+ * With ChatDeflateExtension negotiated, broadcasts at or above the threshold
+ * get the frame's shared deflated bytes instead (compressed once per room).
+ * For any other extension the frame is encoded normally from a private copy,
+ * since the extension rewrites the payload per connection.
+ */
+public class SharedFrameDraft extends Draft_6455 {
+
+    public SharedFrameDraft() {
+        super();
+    }
+
+    public SharedFrameDraft(List<IExtension> extensions) {
+        super(extensions);
+    }
+
+    public SharedFrameDraft(List<IExtension> extensions, List<IProtocol> protocols, int maxFrameSize) {
+        super(extensions, protocols, maxFrameSize);
+    }
+
+    @Override
+    public ByteBuffer createBinaryFrame(Framedata framedata) {
+        if (framedata instanceof EncodedTextFrame) {
+            EncodedTextFrame encoded = (EncodedTextFrame) framedata;
+            IExtension extension = getExtension();
+            if (extension.getClass() == DefaultExtension.class) {
+                return encoded.wireBuffer();
+            }
+            if (extension instanceof ChatDeflateExtension) {
+                return deflatedOrPlain(encoded, (ChatDeflateExtension) extension);
+            }
+            // extensions expect an array-backed payload they can rewrite
+            byte[] payload = new byte[encoded.payloadLength()];
+            encoded.getPayloadData().duplicate().get(payload);
+            TextFrame copy = new TextFrame();
+            copy.setFin(true);
+            copy.setPayload(ByteBuffer.wrap(payload));
+            return super.createBinaryFrame(copy);
+        }
+        return super.createBinaryFrame(framedata);
+    }
+
+    /**
+     * Bytes this connection actually writes for the frame, for OutboundBuffer's
+     * accounting of what the library still holds.
+     */
+    int wireLengthOf(EncodedTextFrame frame) {
+        IExtension extension = getExtension();
+        if (extension instanceof ChatDeflateExtension
+                && frame.payloadLength() >= ((ChatDeflateExtension) extension).getThreshold()) {
+            return frame.deflatedWireBuffer((ChatDeflateExtension) extension).remaining();
+        }
+        return frame.wireLength();
+    }
+
+    private ByteBuffer deflatedOrPlain(EncodedTextFrame frame, ChatDeflateExtension extension) {
+        if (frame.payloadLength() < extension.getThreshold()) {
+            return frame.wireBuffer();
+        }
+        ByteBuffer deflated = frame.deflatedWireBuffer(extension);
+        extension.recordSharedEgress(frame.wireLength(), deflated.remaining());
+        return deflated;
+    }
+
+    @Override
+    public Draft copyInstance() {
+        List<IExtension> extensions = new ArrayList<>();
+        for (IExtension extension : getKnownExtensions()) {
+            extensions.add(extension.copyInstance());
+        }
+        List<IProtocol> protocols = new ArrayList<>();
+        for (IProtocol protocol : getKnownProtocols()) {
+            protocols.add(protocol.copyInstance());
+        }
+        return new SharedFrameDraft(extensions, protocols, getMaxFrameSize());
+    }
+}